@@ -0,0 +1,138 @@
+package jmh;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * JMH benchmarks of every Assignment operation, over the same operations,
+ * shapes and sizes as AssignmentBenchmark, which prepares the inputs.
+ *
+ * JMH does not allow benchmarks in the unnamed package, and classes in a
+ * named package cannot refer to those in the unnamed one, so the operations
+ * and their inputs are reached once, by reflection, when each trial is set
+ * up; the measured call goes through a MethodHandle.
+ *
+ * Operations which change their input tree get a fresh copy, parsed outside
+ * the measurement, before every call.
+ *
+ * Usage: java -cp benchmarks/target/benchmarks.jar jmh.AssignmentJmh [JMH
+ * options], for example -p operation=simplify,equals -p size=10000 -p
+ * shape=LEFT. The gc profiler is always added, reporting the bytes allocated
+ * per operation as gc.alloc.rate.norm.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AssignmentJmh {
+
+	@Param({ "prefix2tree", "postfix2tree", "infix2tree", "tree2prefix", "tree2postfix", "tree2infix",
+			"isArithmeticExpression", "simplify", "simplifyFancy", "simplifyChecked", "simplifyExact",
+			"simplifyExactWide", "substitute", "substituteMap", "partialEvaluate", "equals", "equivalent",
+			"rebalance" })
+	public String operation;
+
+	@Param({ "BALANCED", "LEFT", "RIGHT", "RANDOM" })
+	public String shape;
+
+	@Param({ "100", "1000", "10000", "100000", "1000000", "10000000" })
+	public int size;
+
+	private MethodHandle run; // (Input) -> Object
+	private MethodHandle parse; // (String) -> tree
+	private Object input; // an AssignmentBenchmark.Input
+	private Field tree; // Input.tree
+	private String prefix; // Input.prefix
+	private boolean mutates;
+
+	/** Finds the operation and prepares its input, as AssignmentBenchmark does */
+	@Setup(Level.Trial)
+	public void prepare() throws ReflectiveOperationException {
+		Class<?> benchmark = Class.forName("AssignmentBenchmark");
+		Class<?> operationClass = Class.forName("AssignmentBenchmark$Operation");
+		Class<?> inputClass = Class.forName("AssignmentBenchmark$Input");
+		Class<?> shapeClass = Class.forName("ExpressionGenerator$Shape");
+
+		Field operations = benchmark.getDeclaredField("OPERATIONS");
+		operations.setAccessible(true);
+		Field name = operationClass.getDeclaredField("name");
+		name.setAccessible(true);
+		Object found = null;
+		for (Object candidate : (Object[]) operations.get(null)) {
+			if (name.get(candidate).equals(operation)) {
+				found = candidate;
+			}
+		}
+		if (found == null) {
+			throw new IllegalArgumentException("Unknown operation " + operation);
+		}
+		Field mutatesField = operationClass.getDeclaredField("mutates");
+		mutatesField.setAccessible(true);
+		mutates = mutatesField.getBoolean(found);
+
+		Method prepare = benchmark.getDeclaredMethod("prepare", operationClass, shapeClass, int.class);
+		prepare.setAccessible(true);
+		Object shapeValue = shapeClass.getMethod("valueOf", String.class).invoke(null, shape);
+		input = prepare.invoke(null, found, shapeValue, size | 1);
+
+		MethodHandles.Lookup lookup = MethodHandles.lookup();
+		Method runMethod = operationClass.getDeclaredMethod("run", inputClass);
+		runMethod.setAccessible(true);
+		run = lookup.unreflect(runMethod).bindTo(found);
+		parse = lookup.unreflect(Class.forName("Assignment").getMethod("prefix2tree", String.class));
+		tree = inputClass.getDeclaredField("tree");
+		tree.setAccessible(true);
+		Field prefixField = inputClass.getDeclaredField("prefix");
+		prefixField.setAccessible(true);
+		prefix = (String) prefixField.get(input);
+	}
+
+	/** Gives an operation which changes its input a fresh tree */
+	@Setup(Level.Invocation)
+	public void refresh() throws Throwable {
+		if (mutates) {
+			tree.set(input, parse.invoke(prefix));
+		}
+	}
+
+	@Benchmark
+	public Object invoke() throws Throwable {
+		return run.invoke(input);
+	}
+
+	/**
+	 * Runs the benchmarks with the gc profiler, taking any JMH options on the
+	 * command line
+	 */
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+		new Runner(new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.include(AssignmentJmh.class.getName())
+				.addProfiler(GCProfiler.class)
+				.build()).run();
+	}
+}
@@ -0,0 +1,174 @@
+import java.math.BigInteger;
+
+/**
+ * The arithmetic used by Assignment.simplify to evaluate constant subtrees.
+ *
+ * <ul>
+ * <li>WRAPPING: literals are ints, and results wrap around on overflow, as in
+ * Java int arithmetic. Longer numbers are left alone, like variables.</li>
+ * <li>CHECKED: literals are longs, and an ArithmeticException is thrown when
+ * a literal or a result does not fit in a long.</li>
+ * <li>EXACT: literals may have any number of digits, and results are never
+ * wrong. Operands short enough to be longs are evaluated with long
+ * arithmetic, and only operations which overflow, or which have longer
+ * operands, fall back to BigInteger.</li>
+ * </ul>
+ *
+ * A literal is an optional sign followed by decimal digits. Results are
+ * written in the same form, without a plus sign or leading zeros.
+ */
+public enum Arithmetic {
+
+	WRAPPING {
+		boolean isLiteral(String token) {
+			return Assignment.isNumber(token);
+		}
+
+		String apply(String operator, String a, String b) {
+			int x = Integer.parseInt(a);
+			int y = Integer.parseInt(b);
+			switch (operator.charAt(0)) {
+			case '+':
+				return String.valueOf(x + y);
+			case '-':
+				return String.valueOf(x - y);
+			default:
+				return String.valueOf(x * y);
+			}
+		}
+	},
+
+	CHECKED {
+		String apply(String operator, String a, String b) {
+			long x = parseLong(a);
+			long y = parseLong(b);
+			switch (operator.charAt(0)) {
+			case '+':
+				return String.valueOf(Math.addExact(x, y));
+			case '-':
+				return String.valueOf(Math.subtractExact(x, y));
+			default:
+				return String.valueOf(Math.multiplyExact(x, y));
+			}
+		}
+	},
+
+	EXACT {
+		String apply(String operator, String a, String b) {
+			if (a.length() <= SHORT && b.length() <= SHORT) {
+				long x = Long.parseLong(a);
+				long y = Long.parseLong(b);
+				try {
+					switch (operator.charAt(0)) {
+					case '+':
+						return String.valueOf(Math.addExact(x, y));
+					case '-':
+						return String.valueOf(Math.subtractExact(x, y));
+					default:
+						return String.valueOf(Math.multiplyExact(x, y));
+					}
+				} catch (ArithmeticException e) {
+					// overflowed a long: redo it exactly below
+				}
+			}
+			BigInteger x = new BigInteger(a);
+			BigInteger y = new BigInteger(b);
+			switch (operator.charAt(0)) {
+			case '+':
+				return x.add(y).toString();
+			case '-':
+				return x.subtract(y).toString();
+			default:
+				return x.multiply(y).toString();
+			}
+		}
+	};
+
+	/**
+	 * Literals of at most this many characters, counting a sign, always fit
+	 * in a long
+	 */
+	private static final int SHORT = 18;
+
+	/**
+	 * Determines whether a token is a literal which this arithmetic can
+	 * evaluate
+	 *
+	 * @param token
+	 *            - a leaf of an expression tree
+	 * @return true if the token is a literal
+	 */
+	boolean isLiteral(String token) {
+		return isDigits(token);
+	}
+
+	/**
+	 * Evaluates a binary operator on two literals
+	 *
+	 * @param operator
+	 *            - one of +, -, *
+	 * @param a
+	 *            - the left operand, a literal
+	 * @param b
+	 *            - the right operand, a literal
+	 * @return the result, as a literal
+	 * @throws ArithmeticException
+	 *             if this arithmetic is CHECKED and the operands or the result
+	 *             do not fit in a long
+	 */
+	abstract String apply(String operator, String a, String b) throws ArithmeticException;
+
+	/**
+	 * Determines whether a token is a literal equal to the given small value,
+	 * without parsing it. Literals with leading zeros or a sign, such as 00 or
+	 * -0, are recognised too.
+	 *
+	 * @param token
+	 *            - a leaf of an expression tree
+	 * @param value
+	 *            - a value between 0 and 9
+	 * @return true if the token is a literal equal to value
+	 */
+	boolean isValue(String token, int value) {
+		if (!isLiteral(token)) {
+			return false;
+		}
+		int length = token.length();
+		int i = token.charAt(0) == '-' || token.charAt(0) == '+' ? 1 : 0;
+		if (value != 0 && token.charAt(0) == '-') {
+			return false;
+		}
+		while (i < length - 1 && token.charAt(i) == '0') {
+			i++;
+		}
+		return i == length - 1 && token.charAt(i) == '0' + value;
+	}
+
+	/** Helper method to determine a token is a sign followed by digits */
+	static boolean isDigits(String token) {
+		int length = token.length();
+		int i = 0;
+		if (length > 1 && (token.charAt(0) == '-' || token.charAt(0) == '+')) {
+			i = 1;
+		}
+		if (i == length) {
+			return false;
+		}
+		for (; i < length; i++) {
+			char c = token.charAt(i);
+			if (c < '0' || c > '9') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** Helper method to parse a literal as a long, or fail as an overflow */
+	static long parseLong(String literal) throws ArithmeticException {
+		try {
+			return Long.parseLong(literal);
+		} catch (NumberFormatException e) {
+			throw new ArithmeticException("long overflow: " + literal);
+		}
+	}
+}
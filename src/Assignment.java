@@ -1,9 +1,17 @@
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Predicate;
 
+import textbook.ArrayQueue;
+import textbook.BinaryTree;
+import textbook.IndexedBinaryTree;
 import textbook.LinkedBinaryTree;
-import textbook.LinkedQueue;
 import textbook.Position;
+import textbook.Queue;
 
 public class Assignment {
 
@@ -29,49 +37,84 @@ public class Assignment {
 	 *             if expression was not a valid expression
 	 */
 	public static LinkedBinaryTree<String> prefix2tree(String expression) throws IllegalArgumentException {
-		if (expression == null) {
-			throw new IllegalArgumentException("Expression string was null");
-		}
-		// break up the expression string using spaces, into a queue
-		LinkedQueue<String> tokens = new LinkedQueue<String>();
-		for (String token : expression.split(" ")) {
-			tokens.enqueue(token);
+		ExpressionProbe probe = ExpressionProbe.start(ExpressionProbe.PREFIX2TREE);
+		try {
+			if (expression == null) {
+				throw new IllegalArgumentException("Expression string was null");
+			}
+			// break up the expression string using spaces, into a queue
+			String[] split = expression.split(" ");
+			ArrayQueue<String> tokens = new ArrayQueue<String>(split.length);
+			for (String token : split) {
+				tokens.enqueue(token);
+			}
+			// build the tree from the queue of tokens
+			LinkedBinaryTree<String> result = prefix2tree(tokens);
+			probe.finish(result, true);
+			return result;
+		} catch (RuntimeException e) {
+			probe.finish(null, false);
+			throw e;
 		}
-		// recursively build the tree
-		return prefix2tree(tokens);
 	}
 	
 	/**
-	 * Recursive helper method to build an tree representing an arithmetic
+	 * Iterative helper method to build an tree representing an arithmetic
 	 * expression in prefix notation, where the expression has already been
 	 * broken up into a queue of tokens
 	 * 
+	 * Operators still waiting for children are kept on an array-backed stack
+	 * and nodes are linked directly through the tree's builder, so each token
+	 * costs one node allocation and the depth of the expression is not limited
+	 * by the call stack.
+	 * 
 	 * @param tokens
 	 * @return
 	 * @throws IllegalArgumentException
 	 *             if expression was not a valid expression
 	 */
-	private static LinkedBinaryTree<String> prefix2tree(LinkedQueue<String> tokens) throws IllegalArgumentException {
-		LinkedBinaryTree<String> tree = new LinkedBinaryTree<String>();
+	private static LinkedBinaryTree<String> prefix2tree(Queue<String> tokens) throws IllegalArgumentException {
+		LinkedBinaryTree.TreeBuilder<String> builder = new LinkedBinaryTree<String>().builder();
+		Position<String> root = null;
 
-		// use the next element of the queue to build the root
-		if (tokens.isEmpty()) {
-			throw new IllegalArgumentException("String was not a valid arithmetic expression in prefix notation");
-		}
-		String element = tokens.dequeue();
-		tree.addRoot(element);
+		// operators still missing a child, and whether their left child is
+		// already in place (the next child they receive is then the right one)
+		@SuppressWarnings("unchecked")
+		Position<String>[] pending = (Position<String>[]) new Position<?>[16];
+		boolean[] hasLeft = new boolean[16];
+		int top = 0;
 
-		// if the element is a binary operation, we need to build the left and
-		// right subtrees
-		if (element.equals("+") || element.equals("-") || element.equals("*")) {
-			LinkedBinaryTree<String> left = prefix2tree(tokens);
-			LinkedBinaryTree<String> right = prefix2tree(tokens);
-			tree.attach(tree.root(), left, right);
+		while (!tokens.isEmpty()) {
+			String element = tokens.dequeue();
+			Position<String> p = builder.node(element);
+			if (root == null) {
+				root = p;
+			} else if (top == 0) {
+				// the root is complete but there are tokens left over
+				throw new IllegalArgumentException("String was not a valid arithmetic expression in prefix notation");
+			} else if (!hasLeft[top - 1]) {
+				builder.setLeft(pending[top - 1], p);
+				hasLeft[top - 1] = true;
+			} else {
+				builder.setRight(pending[top - 1], p);
+				top--;
+			}
+			// if the element is a binary operation, its left and right subtrees
+			// follow; otherwise, assume it's a variable or a value (a leaf)
+			if (isOperator(element)) {
+				if (top == pending.length) {
+					pending = Arrays.copyOf(pending, 2 * top);
+					hasLeft = Arrays.copyOf(hasLeft, 2 * top);
+				}
+				pending[top] = p;
+				hasLeft[top] = false;
+				top++;
+			}
 		}
-		// otherwise, assume it's a variable or a value, so it's a leaf (i.e.
-		// nothing more to do)
-
-		return tree;
+		if (root == null || top != 0) {
+			throw new IllegalArgumentException("String was not a valid arithmetic expression in prefix notation");
+		}
+		return builder.build(root);
 	}
 	
 	/**
@@ -83,11 +126,276 @@ public class Assignment {
 	 * @return true if the trees have the same structure and values, false otherwise
 	 */
 	public static boolean equals(LinkedBinaryTree<String> a, LinkedBinaryTree<String> b) {
-		return equals(a, b, a.root(), b.root());
+		ExpressionProbe probe = ExpressionProbe.start(ExpressionProbe.EQUALS);
+		try {
+			boolean result = equals(a, b, a.root(), b.root());
+			probe.finish(a, true);
+			return result;
+		} catch (RuntimeException e) {
+			probe.finish(a, false);
+			throw e;
+		}
+	}
+
+	/**
+	 * Test to see if two trees represent the same polynomial, i.e. are equal
+	 * for every value of their variables
+	 * 
+	 * e.g. "* + x 1 - x 1" is equivalent to "- * x x 1", although the trees
+	 * are not identical
+	 * 
+	 * This is equivalent(a, b, 1e-12)
+	 * 
+	 * @param a
+	 * @param b
+	 * @return true if the trees are equivalent, and false (always correctly)
+	 *         or, with probability at most 1e-12, true if they are not
+	 * @throws IllegalArgumentException
+	 *             if either tree was not a valid expression
+	 */
+	public static boolean equivalent(BinaryTree<String> a, BinaryTree<String> b) throws IllegalArgumentException {
+		return equivalent(a, b, 1e-12);
+	}
+
+	/**
+	 * Test to see if two trees represent the same polynomial, with a bounded
+	 * chance of a wrong answer when they do not
+	 * 
+	 * Both trees are compiled, and evaluated at random values of the
+	 * variables modulo a prime q between 2^61 and 2^62. If the trees are
+	 * different polynomials, their difference has a nonzero integer
+	 * coefficient of at most b bits, which at most b / 61 such primes divide.
+	 * q is drawn at random from a fixed table of 64 primes, so it divides the
+	 * coefficient with probability at most ceil(b / 61) / 64; for constants
+	 * so long that this is over 1/2, q is instead found at random among all
+	 * the primes between 2^61 and 2^62, and divides it with probability at
+	 * most b / 2^55. Otherwise the difference is a nonzero polynomial of
+	 * degree at most d modulo q, which vanishes at a random point with
+	 * probability at most d / q (the Schwartz-Zippel lemma). The degree is at
+	 * most the number of leaves, and each round of a prime and a new point is
+	 * wrong with probability at most ceil(b / 61) / 64 + d / 2^61, so a few
+	 * rounds bring the chance of a wrong answer under the bound. Only a false
+	 * "true" is possible, and since the prime is not fixed in advance no pair
+	 * of trees is always wrong.
+	 * 
+	 * Constants of any length are allowed, and arithmetic is exact, as in
+	 * Arithmetic.EXACT: "* 65536 65536" is not equivalent to "0", nor
+	 * "* 2147483648 1073741824" to "1".
+	 * 
+	 * This method runs in O(n x log(1/errorBound)) expected time, each round
+	 * being wrong with probability at most 1/2, plus the time to find a prime
+	 * for each round when the constants are too long for the table
+	 * 
+	 * @param a
+	 * @param b
+	 * @param errorBound
+	 *            - the greatest acceptable chance of a wrong answer, between 0
+	 *            and 1 exclusive
+	 * @return true if the trees are equivalent, and false (always correctly)
+	 *         or, with probability at most errorBound, true if they are not
+	 * @throws IllegalArgumentException
+	 *             if either tree was not a valid expression, or errorBound is
+	 *             not between 0 and 1
+	 */
+	public static boolean equivalent(BinaryTree<String> a, BinaryTree<String> b, double errorBound) throws IllegalArgumentException {
+		ExpressionProbe probe = ExpressionProbe.start(ExpressionProbe.EQUIVALENT);
+		try {
+			if(!(errorBound > 0 && errorBound < 1)) {
+				throw new IllegalArgumentException();
+			}
+			// compiling checks that the trees are valid
+			HashMap<String, Integer> slots = new HashMap<String, Integer>();
+			CompiledExpression x = new CompiledExpression(a, slots);
+			CompiledExpression y = new CompiledExpression(b, slots);
+			long degree = Math.max(x.degree(), y.degree());
+			double bits = Math.max(x.bits(), y.bits()) + 1;
+			// each round is wrong with probability at most this, drawing primes
+			// from the table unless the constants are too long for it
+			double roundError = Math.ceil(bits / 61) / CompiledExpression.Modulus.TABLE_SIZE
+					+ degree / CompiledExpression.Modulus.LEAST;
+			boolean fresh = !(roundError <= 0.5);
+			if(fresh) {
+				roundError = bits / 0x1p55 + degree / CompiledExpression.Modulus.LEAST;
+			}
+			int rounds = 1;
+			if(roundError > 0) {
+				rounds = (int) Math.ceil(Math.log(errorBound) / Math.log(roundError));
+			}
+			long[] values = new long[slots.size()];
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+			boolean result = true;
+			for(int t = 0; t < rounds && result; t++) {
+				CompiledExpression.Modulus modulus = fresh ? CompiledExpression.Modulus.fresh(random)
+						: CompiledExpression.Modulus.of(random);
+				for(int i = 0; i < values.length; i++) {
+					values[i] = modulus.random(random);
+				}
+				result = x.evaluate(modulus, values) == y.evaluate(modulus, values);
+			}
+			probe.finish(a, true);
+			return result;
+		} catch (RuntimeException e) {
+			probe.finish(a, false);
+			throw e;
+		}
+	}
+
+	/**
+	 * Given a tree, returns a new tree for its canonical form: the expression
+	 * multiplied out, with like terms collected, and written as a sum of
+	 * products with as few nodes as possible (see Polynomial.toTree). Two
+	 * expressions are equivalent exactly when their canonical forms are
+	 * identical.
+	 * 
+	 * e.g. "* + x 1 - x 1" becomes "- * x x 1", and "- * x y * y x" becomes "0"
+	 * 
+	 * This method runs in O(n) expected time plus the time to multiply out
+	 * products, which may grow exponentially
+	 * 
+	 * @param tree
+	 *            - a tree representing an arithmetic expression
+	 * @return a new tree for the canonical form of the expression
+	 * @throws IllegalArgumentException
+	 *             if tree was not a valid expression
+	 * @throws ArithmeticException
+	 *             if a constant or a coefficient does not fit in a long
+	 */
+	public static LinkedBinaryTree<String> normalize(BinaryTree<String> tree) throws IllegalArgumentException, ArithmeticException {
+		ExpressionProbe probe = ExpressionProbe.start(ExpressionProbe.NORMALIZE);
+		try {
+			LinkedBinaryTree<String> result = Polynomial.of(tree).toTree();
+			probe.finish(result, true);
+			return result;
+		} catch (RuntimeException e) {
+			probe.finish(tree, false);
+			throw e;
+		}
+	}
+
+	/**
+	 * Given a tree, returns a new tree for the same expression in which every
+	 * chain of + (or of *) operators is rebuilt as a balanced tree. The
+	 * operands of each chain keep their left to right order, so only
+	 * associativity is used, and the value is unchanged.
+	 * 
+	 * e.g. "+ + + + a b c d e", (((a+b)+c)+d)+e, becomes "+ + + a b + c d e",
+	 * ((a+b)+(c+d))+e
+	 * 
+	 * A chain of k operands gets height ceil(log2 k), so a tree made only of
+	 * + and * gets logarithmic height, however deep the input was.
+	 * 
+	 * This method runs in O(n) time
+	 * 
+	 * @param tree
+	 *            - a tree representing an arithmetic expression
+	 * @return a new, balanced tree representing the same expression
+	 * @throws IllegalArgumentException
+	 *             if tree was not a valid expression
+	 */
+	public static LinkedBinaryTree<String> rebalance(LinkedBinaryTree<String> tree) throws IllegalArgumentException {
+		ExpressionProbe probe = ExpressionProbe.start(ExpressionProbe.REBALANCE);
+		try {
+			if(!isValid(tree)) {
+				throw new IllegalArgumentException();
+			}
+			LinkedBinaryTree<String> result = rebalanceValid(tree);
+			probe.finish(result, true);
+			return result;
+		} catch (RuntimeException e) {
+			probe.finish(tree, false);
+			throw e;
+		}
+	}
+
+	/**
+	 * Iterative helper method to rebalance a valid tree
+	 * 
+	 * The tree is copied into arrays in prefix order, noting for every
+	 * operator the chain it belongs to: the topmost ancestor reached through
+	 * operators equal to its own. Then the prefix order is run backwards,
+	 * building the new tree on a stack: leaves and chain tops are pushed, and
+	 * the operands of a chain are exactly the ones on top of the stack when
+	 * its top is reached, leftmost on top. Those are combined in pairs, round
+	 * after round, which keeps their order and gives logarithmic height.
+	 */
+	private static LinkedBinaryTree<String> rebalanceValid(LinkedBinaryTree<String> tree) {
+		int n = tree.size();
+		String[] tokens = new String[n];
+		int[] chain = new int[n]; // the top of a node's chain, or -1 for a leaf
+		int[] operands = new int[n]; // for a chain top, its number of operands
+
+		// preorder walk with an array-backed stack of positions and parents
+		@SuppressWarnings("unchecked")
+		Position<String>[] stack = (Position<String>[]) new Position<?>[16];
+		int[] parents = new int[16];
+		int top = 0;
+		stack[top] = tree.root();
+		parents[top++] = -1;
+		for(int i = 0; top > 0; i++) {
+			top--;
+			Position<String> p = stack[top];
+			int parent = parents[top];
+			tokens[i] = p.getElement();
+			chain[i] = -1;
+			if(tree.isInternal(p)) {
+				if(parent >= 0 && tokens[parent].equals(tokens[i]) && !tokens[i].equals("-")) {
+					chain[i] = chain[parent];
+				} else {
+					chain[i] = i;
+					operands[i] = 1;
+				}
+				operands[chain[i]]++;
+				if(top + 2 > stack.length) {
+					stack = Arrays.copyOf(stack, 2 * stack.length);
+					parents = Arrays.copyOf(parents, 2 * parents.length);
+				}
+				stack[top] = tree.right(p);
+				parents[top++] = i;
+				stack[top] = tree.left(p);
+				parents[top++] = i;
+			}
+		}
+
+		LinkedBinaryTree.TreeBuilder<String> builder = new LinkedBinaryTree<String>().builder();
+		@SuppressWarnings("unchecked")
+		Position<String>[] built = (Position<String>[]) new Position<?>[16];
+		top = 0;
+		for(int i = n - 1; i >= 0; i--) {
+			Position<String> node;
+			if(chain[i] == -1) {
+				node = builder.node(tokens[i]);
+			} else if(chain[i] != i) {
+				continue; // inside a chain: its operands wait for the top
+			} else {
+				// take the operands in left to right order, and pair them up
+				int k = operands[i];
+				@SuppressWarnings("unchecked")
+				Position<String>[] level = (Position<String>[]) new Position<?>[k];
+				for(int j = 0; j < k; j++) {
+					level[j] = built[--top];
+				}
+				for(; k > 1; k = (k + 1) / 2) {
+					for(int j = 0; j < k / 2; j++) {
+						level[j] = builder.node(tokens[i], level[2 * j], level[2 * j + 1]);
+					}
+					if(k % 2 == 1) {
+						level[k / 2] = level[k - 1];
+					}
+				}
+				node = level[0];
+			}
+			if(top == built.length) {
+				built = Arrays.copyOf(built, 2 * top);
+			}
+			built[top++] = node;
+		}
+		return builder.build(built[0]);
 	}
 
 	/**
-	 * Recursive helper method to compare two trees
+	 * Iterative helper method to compare two trees, walking both in preorder
+	 * side by side with array-backed stacks, so that trees of any depth can
+	 * be compared
 	 * @param aTree one of the trees to compare
 	 * @param bTree the other tree to compare
 	 * @param aRoot a position in the first tree
@@ -95,24 +403,40 @@ public class Assignment {
 	 * @return true if the subtrees rooted at the given positions are identical
 	 */
 	private static boolean equals(LinkedBinaryTree<String> aTree, LinkedBinaryTree<String> bTree, Position<String> aRoot, Position<String> bRoot) {
-		//if either of the positions is null, then they are the same only if they are both null
-		if(aRoot == null || bRoot == null) {
-			return (aRoot == null) && (bRoot == null);
-		}
-		//first check that the elements stored in the current positions are the same
-		String a = aRoot.getElement();
-		String b = bRoot.getElement();
-		if((a==null && b==null) || a.equals(b)) {
-			//then recursively check if the left subtrees are the same...
-			boolean left = equals(aTree, bTree, aTree.left(aRoot), bTree.left(bRoot));
-			//...and if the right subtrees are the same
-			boolean right = equals(aTree, bTree, aTree.right(aRoot), bTree.right(bRoot));
-			//return true if they both matched
-			return left && right;
-		}
-		else {
-			return false;
+		@SuppressWarnings("unchecked")
+		Position<String>[] aStack = (Position<String>[]) new Position<?>[16];
+		@SuppressWarnings("unchecked")
+		Position<String>[] bStack = (Position<String>[]) new Position<?>[16];
+		int top = 0;
+		aStack[top] = aRoot;
+		bStack[top++] = bRoot;
+		while(top > 0) {
+			Position<String> aNode = aStack[--top];
+			Position<String> bNode = bStack[top];
+			//if either of the positions is null, then they are the same only if they are both null
+			if(aNode == null || bNode == null) {
+				if(aNode != bNode) {
+					return false;
+				}
+				continue;
+			}
+			//check that the elements stored in the current positions are the same
+			String a = aNode.getElement();
+			String b = bNode.getElement();
+			if(a == null ? b != null : !a.equals(b)) {
+				return false;
+			}
+			//then the left and right subtrees must be the same
+			if(top + 2 > aStack.length) {
+				aStack = Arrays.copyOf(aStack, 2 * aStack.length);
+				bStack = Arrays.copyOf(bStack, aStack.length);
+			}
+			aStack[top] = aTree.right(aNode);
+			bStack[top++] = bTree.right(bNode);
+			aStack[top] = aTree.left(aNode);
+			bStack[top++] = bTree.left(bNode);
 		}
+		return true;
 	}
 
 	
@@ -125,7 +449,9 @@ public class Assignment {
 	 * be "+ 2 15" Example: A tree with root "-", left child a subtree
 	 * representing "(2+15)" and right child "4" would be "- + 2 15 4"
 	 * 
-	 * Ideally, this method should run in O(n) time
+	 * This method runs in O(n) time. For a RenderedBinaryTree (see rendered),
+	 * only the parts of the tree changed since it was last written out are
+	 * visited, and the rest of the time is spent copying the text.
 	 * 
 	 * @param tree
 	 *            - a tree representing an arithmetic expression
@@ -133,40 +459,17 @@ public class Assignment {
 	 * @throws IllegalArgumentException
 	 *             if tree was not a valid expression
 	 */
-	public static String tree2prefix(LinkedBinaryTree<String> tree) throws IllegalArgumentException {
-		// TODO: Implement this method
-		
-	//Loading the given tree into the isArithmeticExpression method to test
-	//it is a valid expression or not, if false, throws IllegalArgumentException, vice verse. 
-		if(!isArithmeticExpression(tree)) {
-			throw new IllegalArgumentException();
-		}
-		
-		String prefix = tree2prefix(tree, tree.root());
-		if(tree.size() == 1) {
-			return prefix;
+	public static String tree2prefix(BinaryTree<String> tree) throws IllegalArgumentException {
+		ExpressionProbe probe = ExpressionProbe.start(ExpressionProbe.TREE2PREFIX);
+		try {
+			String result = tree instanceof RenderedBinaryTree ? ((RenderedBinaryTree) tree).prefix().toString()
+					: render(tree, PREFIX);
+			probe.finish(tree, true);
+			return result;
+		} catch (RuntimeException e) {
+			probe.finish(tree, false);
+			throw e;
 		}
-		//for tree size > 1, string returned will add 1 extra space at last
-		//thus, return the string except the last one character which is the extra space
-		return prefix.substring(0, prefix.length()-1);
-	}
-	
-	/**Recursive helper method to visit the tree in Preorder*/
-	private static String tree2prefix(LinkedBinaryTree<String> Tree, Position<String> root){
-		String rawPrefix ="";
-		// Case 1: 1 sized tree, No space required
-		if(root != null && Tree.size() == 1) {
-			rawPrefix += root.getElement();
-		}
-		// Case 2: more than 1 node, spaces required
-		else if(root != null && Tree.size() > 1){
-			rawPrefix += root.getElement();
-			rawPrefix += " ";
-			rawPrefix += tree2prefix(Tree, Tree.left(root));
-			
-			rawPrefix += tree2prefix(Tree, Tree.right(root));
-		}
-		return rawPrefix;
 	}
 	
 	/**
@@ -184,7 +487,9 @@ public class Assignment {
 	 * leave them on. (i.e. "2+15" and "(2+15)-4" would also be acceptable
 	 * output for the examples above)
 	 * 
-	 * Ideally, this method should run in O(n) time
+	 * This method runs in O(n) time. For a RenderedBinaryTree (see rendered),
+	 * only the parts of the tree changed since it was last written out are
+	 * visited, and the rest of the time is spent copying the text.
 	 * 
 	 * @param tree
 	 *            - a tree representing an arithmetic expression
@@ -192,390 +497,1317 @@ public class Assignment {
 	 * @throws IllegalArgumentException
 	 *             if tree was not a valid expression
 	 */
-	public static String tree2infix(LinkedBinaryTree<String> tree) throws IllegalArgumentException {
-		// TODO: Implement this method
-		
-	//Loading the given tree into the isArithmeticExpression method to test
-	//it is a valid expression or not, if false, throws IllegalArgumentException, vice verse.
-		if(!isArithmeticExpression(tree)) {
-			throw new IllegalArgumentException();
-		}
-		
-		return inorder(tree, tree.root());
-	}
-	
-	/**Recursive Helper method to visit the given tree in Inorder*/
-	private static String inorder(LinkedBinaryTree<String> tree, Position<String> root) {
-		String rawInfix = "";
-		if(root != null) {
-			//Case 1: a single node tree, No parenthesis required
-			if(tree.left(root) == null && tree.right(root) == null) {
-				rawInfix += root.getElement();
-			}
-			//Case 2: more than a node, parenthesis required
-			if(tree.left(root) != null) {
-				rawInfix += "(" + inorder(tree, tree.left(root));
-				rawInfix += root.getElement();
-			}
-			if(tree.right(root) != null) {
-				rawInfix += inorder(tree, tree.right(root)) + ")";
-			}
+	public static String tree2infix(BinaryTree<String> tree) throws IllegalArgumentException {
+		ExpressionProbe probe = ExpressionProbe.start(ExpressionProbe.TREE2INFIX);
+		try {
+			String result = tree instanceof RenderedBinaryTree ? ((RenderedBinaryTree) tree).infix().toString()
+					: render(tree, INFIX);
+			probe.finish(tree, true);
+			return result;
+		} catch (RuntimeException e) {
+			probe.finish(tree, false);
+			throw e;
 		}
-		return rawInfix;
 	}
 
+	/** Notations understood by the render helper method */
+	private static final int PREFIX = 0, INFIX = 1, POSTFIX = 2;
+
 	/**
-	 * Given a tree, this method should simplify any subtrees which can be
-	 * evaluated to a single integer value.
+	 * Iterative helper method to write out a tree in the given notation, which
+	 * also checks that the tree is a valid expression along the way
 	 * 
-	 * Ideally, this method should run in O(n) time
-	 * 
-	 * @param tree
-	 *            - a tree representing an arithmetic expression
-	 * @return resulting binary tree after evaluating as many of the subtrees as
-	 *         possible
-	 * @throws IllegalArgumentException
-	 *             if tree was not a valid expression
-	 */
-	public static LinkedBinaryTree<String> simplify(LinkedBinaryTree<String> tree) throws IllegalArgumentException {
-		// TODO: Implement this method
-		
-	//Loading the given tree into the isArithmeticExpression method to test
-	//it is a valid expression or not, if false, throws IllegalArgumentException, vice verse.
-		if(!isArithmeticExpression(tree)) {
-			throw new IllegalArgumentException();
-		}
-	
-		return simplify(tree, tree.root());
-	}
-	
-	/**Recursive Helper method to simplify the subtrees.*/
-	private static LinkedBinaryTree<String> simplify(LinkedBinaryTree<String> tree, Position<String> root){
-		//Checking each positions' elements, if its operators, checking the two children' elements
-		//if both are Integers, doing the corresponding calculation and replace the root's value
-		//otherwise, keep recursions.
-		if(root.getElement().equals("+") || root.getElement().equals("-") || root.getElement().equals("*")) {
-			
-			if(!isNumber(tree.left(root).getElement()) || !isNumber(tree.right(root).getElement())) {
-				simplify(tree, tree.left(root));
-				simplify(tree, tree.right(root));
-			}
-			
-			if(isNumber(tree.left(root).getElement()) && isNumber(tree.right(root).getElement())) {
-				if(root.getElement().equals("+")) {
-					int result = Integer.parseInt(tree.left(root).getElement()) + Integer.parseInt(tree.right(root).getElement());
-					tree.remove(tree.left(root));
-					tree.remove(tree.right(root));
-					tree.set(root, String.valueOf(result));
-				}
-				if(root.getElement().equals("-")) {
-					int result = Integer.parseInt(tree.left(root).getElement()) - Integer.parseInt(tree.right(root).getElement());
-					tree.remove(tree.left(root));
-					tree.remove(tree.right(root));
-					tree.set(root, String.valueOf(result));
-				}
-				if(root.getElement().equals("*")) {
-					int result = Integer.parseInt(tree.left(root).getElement()) * Integer.parseInt(tree.right(root).getElement());
-					tree.remove(tree.left(root));
-					tree.remove(tree.right(root));
-					tree.set(root, String.valueOf(result));
-				}
-				
-			}
-		}
-		
-		return tree;
-	}
-	
-	/**Helper method to determine a String is numeric or not*/
-	private static boolean isNumber(String str) {
-		try {
-			Integer.parseInt(str);
-			return true;
-		}catch(Exception e) {
-			return false;
-		}
-	}
-	
-	/**
-	 * This should do everything the simplify method does AND also apply the following rules:
-	 *  * 1 x == x  i.e.  (1*x)==x
-	 *  * x 1 == x        (x*1)==x
-	 *  * 0 x == 0        (0*x)==0
-	 *  * x 0 == 0        (x*0)==0
-	 *  + 0 x == x        (0+x)==x
-	 *  + x 0 == 0        (x+0)==x
-	 *  - x 0 == x        (x-0)==x
-	 *  - x x == 0        (x-x)==0
-	 *  
-	 *  Example: - * 1 x x == 0, in infix notation: ((1*x)-x) = (x-x) = 0
-	 *  
-	 * Ideally, this method should run in O(n) time (harder to achieve than for other methods!)
+	 * Positions waiting on their subtrees are kept on an array-backed stack
+	 * with a count of how many of their children have been written, and every
+	 * token is appended to a single buffer, so this runs in O(n) time whatever
+	 * the shape of the tree.
 	 * 
 	 * @param tree
-	 *            - a tree representing an arithmetic expression
-	 * @return resulting binary tree after applying the simplifications
+	 * @param notation
+	 *            - PREFIX, INFIX or POSTFIX
+	 * @return
 	 * @throws IllegalArgumentException
 	 *             if tree was not a valid expression
 	 */
-	public static LinkedBinaryTree<String> simplifyFancy(LinkedBinaryTree<String> tree) throws IllegalArgumentException {
-		// TODO: Implement this method
-		
-	//Loading the given tree into the isArithmeticExpression method to test
-	//it is a valid expression or not, if false, throws IllegalArgumentException, vice verse.
-		if(!isArithmeticExpression(tree)) {
+	private static String render(BinaryTree<String> tree, int notation) throws IllegalArgumentException {
+		if (tree == null || tree.isEmpty()) {
 			throw new IllegalArgumentException();
 		}
-		
-		return simplifyFancy(tree, tree.root());
-	}
-	
-	/**Recursive Helper method to simplifyFancy the given tree*/
-	private static LinkedBinaryTree<String> simplifyFancy(LinkedBinaryTree<String> tree, Position<String> root){
-		LinkedBinaryTree<String> simplifiedtree = simplify(tree);
-		Position<String> Root = simplifiedtree.root();
-		//Checking each position' element, if it's operator, checking the left and right child' elements
-		//if they matches [a-z0-1] do the corresponding 
-		//otherwise, keep recursion
-		if(Root.getElement().equals("+") || Root.getElement().equals("-") || Root.getElement().equals("*")) {
-			if(simplifiedtree.left(Root).getElement().matches("[a-z]") && !simplifiedtree.right(Root).getElement().matches("[a-z0-1]")){
-				simplifyFancy(simplifiedtree, simplifiedtree.left(Root));
-				simplifyFancy(simplifiedtree, simplifiedtree.right(Root));
-			}
-			if(simplifiedtree.right(Root).getElement().matches("[a-z]") && !simplifiedtree.left(Root).getElement().matches("[a-z0-1]")) {
-				simplifyFancy(simplifiedtree, simplifiedtree.left(Root));
-				simplifyFancy(simplifiedtree, simplifiedtree.right(Root));
-			}
-			//SimplifyFancy Rules
-			//Case 1: left child is letter and right child is letter or number 0 and 1
-			if(simplifiedtree.left(Root).getElement().matches("[a-z]") && simplifiedtree.right(Root).getElement().matches("[a-z0-1]")) {
-				if(Root.getElement().equals("*")) {
-					//eg. * x 1 = x
-					if(simplifiedtree.right(Root).getElement().equals("1")) {
-						String result = simplifiedtree.left(Root).getElement();
-						simplifiedtree.remove(simplifiedtree.left(Root));
-						simplifiedtree.remove(simplifiedtree.right(Root));
-						simplifiedtree.set(Root, result);
-					}
-					//eg. * x 0 = 0
-					else if(simplifiedtree.right(Root).getElement().equals("0")) {
-						simplifiedtree.remove(simplifiedtree.left(Root));
-						simplifiedtree.remove(simplifiedtree.right(Root));
-						simplifiedtree.set(Root, "0");
-					}
-				}
+		StringBuilder out = new StringBuilder();
 
-				if(Root.getElement().equals("+")) {
-					//eg. + x 0 = x
-					if(simplifiedtree.right(Root).getElement().equals("0")) {
-						String result = simplifiedtree.left(Root).getElement();
-						simplifiedtree.remove(simplifiedtree.left(Root));
-						simplifiedtree.remove(simplifiedtree.right(Root));
-						simplifiedtree.set(Root, result);
-					}
-				}
+		@SuppressWarnings("unchecked")
+		Position<String>[] stack = (Position<String>[]) new Position<?>[16];
+		byte[] visited = new byte[16];
+		int top = 0;
+		stack[top] = tree.root();
+		visited[top] = 0;
+		top++;
 
-				if(Root.getElement().equals("-")) {
-					//eg. - x 0 = x
-					if(simplifiedtree.right(Root).getElement().equals("0")) {
-						String result = simplifiedtree.left(Root).getElement();
-						simplifiedtree.remove(simplifiedtree.left(Root));
-						simplifiedtree.remove(simplifiedtree.right(Root));
-						simplifiedtree.set(Root, result);
-					}
-					//eg. - x x = 0
-					else if(simplifiedtree.right(Root).getElement().equals(simplifiedtree.left(Root).getElement())) {
-						simplifiedtree.remove(simplifiedtree.left(Root));
-						simplifiedtree.remove(simplifiedtree.right(Root));
-						simplifiedtree.set(Root, "0");
-					}
+		while (top > 0) {
+			Position<String> p = stack[top - 1];
+			String element = p.getElement();
+			Position<String> next;
+			if (visited[top - 1] == 0) {
+				Position<String> left = tree.left(p);
+				Position<String> right = tree.right(p);
+				// operators need two operands, operands must be leaves
+				if (element == null || (left == null) != (right == null) || isOperator(element) != (left != null)) {
+					throw new IllegalArgumentException();
 				}
-			}
-
-			//Case 2: right child is letter and left child is letter or number 0 and 1
-			else if(simplifiedtree.right(Root).getElement().matches("[a-z]") && simplifiedtree.left(Root).getElement().matches("[a-z0-1]")) {
-				if(Root.getElement().equals("*")) {
-					//eg. * 1 x = x
-					if(simplifiedtree.left(Root).getElement().equals("1")) {
-						String result = simplifiedtree.right(Root).getElement();
-						simplifiedtree.remove(simplifiedtree.left(Root));
-						simplifiedtree.remove(simplifiedtree.right(Root));
-						simplifiedtree.set(Root, result);
-					}
-					//eg. * 0 x = 0
-					else if(simplifiedtree.left(Root).getElement().equals("0")) {
-						simplifiedtree.remove(simplifiedtree.left(Root));
-						simplifiedtree.remove(simplifiedtree.right(Root));
-						simplifiedtree.set(Root, "0");
-					}
+				if (left == null) {
+					out.append(element);
+					top--;
+					continue;
 				}
-
-				if(Root.getElement().equals("+")) {
-					//eg. + 0 x = x
-					if(simplifiedtree.left(Root).getElement().equals("0")) {
-						String result = simplifiedtree.right(Root).getElement();
-						simplifiedtree.remove(simplifiedtree.left(Root));
-						simplifiedtree.remove(simplifiedtree.right(Root));
-						simplifiedtree.set(Root, result);
-					}
+				if (notation == PREFIX) {
+					out.append(element).append(' ');
+				} else if (notation == INFIX) {
+					out.append('(');
+				}
+				next = left;
+			} else if (visited[top - 1] == 1) {
+				if (notation == INFIX) {
+					out.append(element);
+				} else {
+					out.append(' ');
 				}
+				next = tree.right(p);
+			} else {
+				if (notation == INFIX) {
+					out.append(')');
+				} else if (notation == POSTFIX) {
+					out.append(' ').append(element);
+				}
+				top--;
+				continue;
+			}
+			visited[top - 1]++;
+			if (top == stack.length) {
+				stack = Arrays.copyOf(stack, 2 * top);
+				visited = Arrays.copyOf(visited, 2 * top);
 			}
+			stack[top] = next;
+			visited[top] = 0;
+			top++;
 		}
-		return simplifiedtree;
+		return out.toString();
 	}
 
-	
 	/**
-	 * Given a tree, a variable label and a value, this should replace all
-	 * instances of that variable in the tree with the given value
+	 * Convert an arithmetic expression (in postfix notation, also known as
+	 * Reverse Polish notation), to a binary tree
 	 * 
-	 * Ideally, this method should run in O(n) time (quite hard! O(n^2) is easier.)
+	 * Example: "2 15 +" will be a tree with root "+", left child "2" and right
+	 * child "15"
 	 * 
-	 * @param tree
-	 *            - a tree representing an arithmetic expression
-	 * @param variable
-	 *            - a variable label that might exist in the tree
-	 * @param value
-	 *            - an integer value that the variable represents
-	 * @return Tree after replacing all instances of the specified variable with
-	 *         it's numeric value
+	 * Example: "2 4 5 - +" will be a tree with root "+", left child "2", right
+	 * child a subtree representing "4 5 -"
+	 * 
+	 * The tokens are read from the back, which gives the root first and then
+	 * each right subtree before its left subtree. Operators waiting for their
+	 * children are kept on an array-backed stack and nodes are linked through
+	 * the tree's builder, so the tree is built without recursion and with one
+	 * allocation per node.
+	 * 
+	 * This method runs in O(n) time
+	 * 
+	 * @param expression
+	 *            - an arithmetic expression in postfix notation
+	 * @return BinaryTree representing an expression expressed in postfix
+	 *         notation
 	 * @throws IllegalArgumentException
-	 *             if tree was not a valid expression, or either of the other
-	 *             arguments are null
+	 *             if expression was not a valid expression
 	 */
-	public static LinkedBinaryTree<String> substitute(LinkedBinaryTree<String> tree, String variable, int value)
-			throws IllegalArgumentException {
-		// TODO: Implement this method
-		
-	//Loading the given tree into the isArithmeticExpression method to test
-	//it is a valid expression or not, if false, throws IllegalArgumentException, vice verse.
-		if(!isArithmeticExpression(tree) || variable == null || (Integer)value == null) {
-			throw new IllegalArgumentException();
-		}
-		//Retrieving the prefix notation from tree2prefix method,
-		//adding the string into the arraylist char by char
-		ArrayList<String> al = new ArrayList<String>();
-		String prefix = tree2prefix(tree);
-		for(int i=0;i<prefix.length();i++) {
-			al.add(String.valueOf(prefix.charAt(i)));
-		}
-		//go through the arraylist, replcaing the targets by the values.
-		for(int i=0;i<al.size();i++) {
-			if(al.get(i).equals(variable)) {
-				al.set(i, String.valueOf(value));
+	public static LinkedBinaryTree<String> postfix2tree(String expression) throws IllegalArgumentException {
+		ExpressionProbe probe = ExpressionProbe.start(ExpressionProbe.POSTFIX2TREE);
+		try {
+			if (expression == null) {
+				throw new IllegalArgumentException("Expression string was null");
 			}
+			String[] tokens = expression.split(" ");
+			LinkedBinaryTree<String> result = postfix2tree(tokens, tokens.length);
+			probe.finish(result, true);
+			return result;
+		} catch (RuntimeException e) {
+			probe.finish(null, false);
+			throw e;
 		}
-		//Retrieving the new prefix notation from the ArrayList
-		String aftersub ="";
-		for(int i=0;i<al.size();i++) {
-			aftersub += al.get(i);
-		}
-		//Retrieving the new tree from prefix2tree method.
-		LinkedBinaryTree<String> treeAfterSub = prefix2tree(aftersub);
-		
-		return treeAfterSub;
 	}
 
 	/**
-	 * Given a tree and a a map of variable labels to values, this should
-	 * replace all instances of those variables in the tree with the
-	 * corresponding given values
+	 * Iterative helper method to build a tree representing an arithmetic
+	 * expression in postfix notation, where the expression has already been
+	 * broken up into an array of tokens
 	 * 
-	 * Ideally, this method should run in O(n) expected time
-	 * 
-	 * @param tree
-	 *            - a tree representing an arithmetic expression
-	 * @param map
-	 *            - a map of variable labels to integer values
-	 * @return Tree after replacing all instances of variables which are keys in
-	 *         the map, with their numeric values
+	 * @param tokens
+	 * @param count
+	 *            - the number of tokens in use at the front of the array
+	 * @return
 	 * @throws IllegalArgumentException
-	 *             if tree was not a valid expression, or map is null, or tries
-	 *             to substitute a null into the tree
+	 *             if expression was not a valid expression
 	 */
-	public static LinkedBinaryTree<String> substitute(LinkedBinaryTree<String> tree, HashMap<String, Integer> map)
-			throws IllegalArgumentException {
-		// TODO: Implement this method
-		
-	//Loading the given tree into the isArithmeticExpression method to test
-	//it is a valid expression or not, if false, throws IllegalArgumentException, vice verse.
-		if(!isArithmeticExpression(tree) || map == null) {
-			throw new IllegalArgumentException();
-		}
-		for(String k : map.keySet()) {
-			if(map.get(k) == null) {
-				throw new IllegalArgumentException();
+	private static LinkedBinaryTree<String> postfix2tree(String[] tokens, int count) throws IllegalArgumentException {
+		LinkedBinaryTree.TreeBuilder<String> builder = new LinkedBinaryTree<String>().builder();
+		Position<String> root = null;
+
+		// operators still missing a child, and whether their right child is
+		// already in place (the next child they receive is then the left one)
+		@SuppressWarnings("unchecked")
+		Position<String>[] pending = (Position<String>[]) new Position<?>[16];
+		boolean[] hasRight = new boolean[16];
+		int top = 0;
+
+		for (int i = count - 1; i >= 0; i--) {
+			String element = tokens[i];
+			Position<String> p = builder.node(element);
+			if (root == null) {
+				root = p;
+			} else if (top == 0) {
+				// the root is complete but there are tokens left over
+				throw new IllegalArgumentException("String was not a valid arithmetic expression in postfix notation");
+			} else if (!hasRight[top - 1]) {
+				builder.setRight(pending[top - 1], p);
+				hasRight[top - 1] = true;
+			} else {
+				builder.setLeft(pending[top - 1], p);
+				top--;
+			}
+			if (isOperator(element)) {
+				if (top == pending.length) {
+					pending = Arrays.copyOf(pending, 2 * top);
+					hasRight = Arrays.copyOf(hasRight, 2 * top);
+				}
+				pending[top] = p;
+				hasRight[top] = false;
+				top++;
 			}
 		}
-		//adding all the keys (target strings) into a arraylist
-		LinkedBinaryTree<String> treeAfterSubMap = tree;
-		ArrayList<String> keys = new ArrayList<String>();
-		for(String s : map.keySet()) {
-			keys.add(s);
-		}
-		//Calling the substitte(tree, string, int) method to parse each elements inside the
-		//arraylist and using map.get retrieve corresponding values
-		for(int i=0;i<keys.size();i++) {
-			treeAfterSubMap = substitute(treeAfterSubMap, keys.get(i), map.get(keys.get(i)));
+		if (root == null || top != 0) {
+			throw new IllegalArgumentException("String was not a valid arithmetic expression in postfix notation");
 		}
-		
-		return treeAfterSubMap;
+		return builder.build(root);
 	}
 
 	/**
-	 * Given a tree, identify if that tree represents a valid arithmetic
-	 * expression (possibly with variables)
+	 * Convert an arithmetic expression (in infix notation), to a binary tree
 	 * 
-	 * Ideally, this method should run in O(n) expected time
+	 * Binary operators are +, -, * where * binds tighter than + and -, and
+	 * operators of equal precedence associate to the left. Parenthesis may be
+	 * used for grouping and spaces between tokens are ignored. A - directly in
+	 * front of a digit, where an operand is expected, is read as the sign of a
+	 * number, so that trees containing negative values round-trip with
+	 * tree2infix.
 	 * 
-	 * @param tree
-	 *            - a tree representing an arithmetic expression
-	 * @return true if the tree is not null and it obeys the structure of an
-	 *              arithmetic expression. Otherwise, it returns false
+	 * Example: "(2+15)" and "2 + 15" will both be a tree with root "+", left
+	 * child "2" and right child "15"
+	 * 
+	 * Example: "1-b+3*d" will be a tree representing "+ - 1 b * 3 d"
+	 * 
+	 * The expression is rearranged into postfix order with an operator stack
+	 * (shunting-yard, the iterative form of precedence climbing) and then built
+	 * in the same way as postfix2tree, so nesting depth is not limited by the
+	 * call stack.
+	 * 
+	 * This method runs in O(n) time
+	 * 
+	 * @param expression
+	 *            - an arithmetic expression in infix notation
+	 * @return BinaryTree representing an expression expressed in infix
+	 *         notation
+	 * @throws IllegalArgumentException
+	 *             if expression was not a valid expression
 	 */
-	public static boolean isArithmeticExpression(LinkedBinaryTree<String> tree) {
-		// TODO: Implement this method
-		if(tree == null) {
-			return false;
-		}
-		
-		if(tree.size() % 2 == 0) {
-			return false;
-		}
-		//Retrieving the infix notation from helper method
-		String equation = ArithmeticExpression(tree, tree.root());
-		int eqlength = equation.length();
-		//if the last char is operator, return fasle;
-		if(equation.charAt(eqlength-1) == '+' || equation.charAt(eqlength-1) == '-' || equation.charAt(eqlength-1) == '*') {
-			return false;
-		}
-		//checking the even number positions character is number or not, if is operator, fasle;
-		//eg. "1+2*3" even number char is number and odd number char is operator.
-		for(int i=0;(i+2)<eqlength;i+=2) {
-			if(equation.charAt(i) == '+' || equation.charAt(i) == '-' || equation.charAt(i) == '*') {
-				return false;
-			}
+	public static LinkedBinaryTree<String> infix2tree(String expression) throws IllegalArgumentException {
+		ExpressionProbe probe = ExpressionProbe.start(ExpressionProbe.INFIX2TREE);
+		try {
+			LinkedBinaryTree<String> result = parseInfix(expression);
+			probe.finish(result, true);
+			return result;
+		} catch (RuntimeException e) {
+			probe.finish(null, false);
+			throw e;
 		}
-		
-		return true;
 	}
-	
-	/**Recursive Helper method to visit the given tree in Inorder*/
-	private static String ArithmeticExpression(LinkedBinaryTree<String> tree, Position<String> root) {
-		String infix = "";
-		if(root != null) {
-			if(tree.left(root) == null && tree.right(root) == null) {
-				infix += root.getElement();
+
+	/**
+	 * Iterative helper method to rearrange an infix expression into postfix
+	 * order and build its tree
+	 * 
+	 * @param expression
+	 * @return
+	 * @throws IllegalArgumentException
+	 *             if expression was not a valid expression
+	 */
+	private static LinkedBinaryTree<String> parseInfix(String expression) throws IllegalArgumentException {
+		if (expression == null) {
+			throw new IllegalArgumentException("Expression string was null");
+		}
+		String[] output = new String[16];
+		int count = 0;
+		char[] operators = new char[16];
+		int top = 0;
+		// true when the next token has to be an operand or an opening parenthesis
+		boolean expectOperand = true;
+
+		int i = 0;
+		int n = expression.length();
+		while (i < n) {
+			char c = expression.charAt(i);
+			if (c == ' ') {
+				i++;
+				continue;
 			}
-			if(tree.left(root) != null) {
-				infix += ArithmeticExpression(tree, tree.left(root));
-				infix += root.getElement();
+			String operand = null;
+			if (expectOperand) {
+				if (c == '(') {
+					if (top == operators.length) {
+						operators = Arrays.copyOf(operators, 2 * top);
+					}
+					operators[top++] = c;
+					i++;
+					continue;
+				}
+				// read an operand, allowing a leading sign on numbers
+				int start = i;
+				if (c == '-' && i + 1 < n && Character.isDigit(expression.charAt(i + 1))) {
+					i++;
+				}
+				while (i < n && !isInfixDelimiter(expression.charAt(i))) {
+					i++;
+				}
+				if (i == start) {
+					throw new IllegalArgumentException("String was not a valid arithmetic expression in infix notation");
+				}
+				operand = expression.substring(start, i);
+				expectOperand = false;
+			} else if (c == ')') {
+				// pop back to the matching opening parenthesis
+				while (top > 0 && operators[top - 1] != '(') {
+					if (count == output.length) {
+						output = Arrays.copyOf(output, 2 * count);
+					}
+					output[count++] = String.valueOf(operators[--top]);
+				}
+				if (top == 0) {
+					throw new IllegalArgumentException("Unbalanced parenthesis in infix expression");
+				}
+				top--;
+				i++;
+				continue;
+			} else if (c == '+' || c == '-' || c == '*') {
+				// left associative: pop operators of greater or equal precedence
+				while (top > 0 && operators[top - 1] != '(' && precedence(operators[top - 1]) >= precedence(c)) {
+					if (count == output.length) {
+						output = Arrays.copyOf(output, 2 * count);
+					}
+					output[count++] = String.valueOf(operators[--top]);
+				}
+				if (top == operators.length) {
+					operators = Arrays.copyOf(operators, 2 * top);
+				}
+				operators[top++] = c;
+				expectOperand = true;
+				i++;
+				continue;
+			} else {
+				throw new IllegalArgumentException("String was not a valid arithmetic expression in infix notation");
+			}
+			if (count == output.length) {
+				output = Arrays.copyOf(output, 2 * count);
+			}
+			output[count++] = operand;
+		}
+		if (expectOperand) {
+			throw new IllegalArgumentException("String was not a valid arithmetic expression in infix notation");
+		}
+		while (top > 0) {
+			if (operators[top - 1] == '(') {
+				throw new IllegalArgumentException("Unbalanced parenthesis in infix expression");
 			}
-			if(tree.right(root) != null) {
-				infix += ArithmeticExpression(tree, tree.right(root));
+			if (count == output.length) {
+				output = Arrays.copyOf(output, 2 * count);
 			}
+			output[count++] = String.valueOf(operators[--top]);
 		}
-		return infix;
+		return postfix2tree(output, count);
+	}
+
+	/**Helper method giving the binding strength of an infix operator*/
+	private static int precedence(char operator) {
+		return operator == '*' ? 2 : 1;
+	}
+
+	/**Helper method to determine a character ends an operand in infix notation*/
+	private static boolean isInfixDelimiter(char c) {
+		return c == ' ' || c == '(' || c == ')' || c == '+' || c == '-' || c == '*';
+	}
+
+	/**
+	 * Given a tree, this method should output a string for the corresponding
+	 * arithmetic expression in postfix notation (also known as Reverse Polish
+	 * notation)
+	 * 
+	 * Example: A tree with root "+", left child "2" and right child "15" would
+	 * be "2 15 +" Example: A tree with root "-", left child a subtree
+	 * representing "(2+15)" and right child "4" would be "2 15 + 4 -"
+	 * 
+	 * This method runs in O(n) time
+	 * 
+	 * @param tree
+	 *            - a tree representing an arithmetic expression
+	 * @return postfix notation expression of the tree
+	 * @throws IllegalArgumentException
+	 *             if tree was not a valid expression
+	 */
+	public static String tree2postfix(BinaryTree<String> tree) throws IllegalArgumentException {
+		ExpressionProbe probe = ExpressionProbe.start(ExpressionProbe.TREE2POSTFIX);
+		try {
+			String result = render(tree, POSTFIX);
+			probe.finish(tree, true);
+			return result;
+		} catch (RuntimeException e) {
+			probe.finish(tree, false);
+			throw e;
+		}
+	}
+
+	/**Helper method to determine a token is one of the binary operators +, -, * */
+	static boolean isOperator(String token) {
+		return token.equals("+") || token.equals("-") || token.equals("*");
 	}
-}
 
+	/**
+	 * Given a tree, this method should simplify any subtrees which can be
+	 * evaluated to a single integer value.
+	 * 
+	 * This method runs in O(n) time
+	 * 
+	 * @param tree
+	 *            - a tree representing an arithmetic expression
+	 * @return resulting binary tree after evaluating as many of the subtrees as
+	 *         possible
+	 * @throws IllegalArgumentException
+	 *             if tree was not a valid expression
+	 */
+	public static LinkedBinaryTree<String> simplify(LinkedBinaryTree<String> tree) throws IllegalArgumentException {
+		return simplify(tree, Arithmetic.WRAPPING);
+	}
+
+	/**
+	 * Given a tree, this method should simplify any subtrees which can be
+	 * evaluated to a single value, using the given arithmetic. simplify(tree)
+	 * is simplify(tree, Arithmetic.WRAPPING).
+	 * 
+	 * This method runs in O(n) time, plus the cost of any BigInteger
+	 * operations in Arithmetic.EXACT
+	 * 
+	 * @param tree
+	 *            - a tree representing an arithmetic expression
+	 * @param arithmetic
+	 *            - how constant subtrees are evaluated
+	 * @return resulting binary tree after evaluating as many of the subtrees as
+	 *         possible
+	 * @throws IllegalArgumentException
+	 *             if tree was not a valid expression
+	 * @throws ArithmeticException
+	 *             if arithmetic is Arithmetic.CHECKED and a constant subtree
+	 *             overflows a long, in which case the tree is left partly
+	 *             simplified
+	 */
+	public static LinkedBinaryTree<String> simplify(LinkedBinaryTree<String> tree, Arithmetic arithmetic) throws IllegalArgumentException, ArithmeticException {
+		ExpressionProbe probe = ExpressionProbe.start(ExpressionProbe.SIMPLIFY);
+		try {
+			if(!isValid(tree)) {
+				throw new IllegalArgumentException();
+			}
+			LinkedBinaryTree<String> result = simplify(tree, false, arithmetic);
+			probe.finish(result, true);
+			return result;
+		} catch (RuntimeException e) {
+			probe.finish(tree, false);
+			throw e;
+		}
+	}
+	
+	/**
+	 * Iterative helper method to simplify the given tree in place
+	 * 
+	 * The tree is walked in postorder with an array-backed stack, so each
+	 * operator is looked at once, after both of its subtrees have been
+	 * simplified. Rewrites only remove leaves, or replace an operator by the
+	 * subtree it reduces to, which are constant time operations.
+	 * 
+	 * @param tree
+	 *            - a valid arithmetic expression
+	 * @param fancy
+	 *            - whether to apply the identities of simplifyFancy as well as
+	 *            evaluating constant subtrees
+	 * @param arithmetic
+	 *            - how constant subtrees are evaluated
+	 * @return the same tree, simplified
+	 */
+	private static LinkedBinaryTree<String> simplify(LinkedBinaryTree<String> tree, boolean fancy, Arithmetic arithmetic) {
+		@SuppressWarnings("unchecked")
+		Position<String>[] stack = (Position<String>[]) new Position<?>[16];
+		byte[] visited = new byte[16];
+		int top = 0;
+		stack[top] = tree.root();
+		visited[top] = 0;
+		top++;
+
+		while (top > 0) {
+			Position<String> p = stack[top - 1];
+			Position<String> next;
+			if (visited[top - 1] == 0) {
+				next = tree.left(p);
+			} else if (visited[top - 1] == 1) {
+				next = tree.right(p);
+			} else {
+				next = null;
+			}
+			if (next == null) {
+				top--;
+				if (visited[top] == 2) {
+					rewrite(tree, p, fancy, arithmetic);
+				}
+				continue;
+			}
+			visited[top - 1]++;
+			if (top == stack.length) {
+				stack = Arrays.copyOf(stack, 2 * top);
+				visited = Arrays.copyOf(visited, 2 * top);
+			}
+			stack[top] = next;
+			visited[top] = 0;
+			top++;
+		}
+		return tree;
+	}
+
+	/**
+	 * Helper method to simplify the operator at position p, whose subtrees
+	 * have already been simplified
+	 */
+	private static void rewrite(LinkedBinaryTree<String> tree, Position<String> p, boolean fancy, Arithmetic arithmetic) {
+		String operator = p.getElement();
+		Position<String> left = tree.left(p);
+		Position<String> right = tree.right(p);
+		boolean leftLeaf = tree.isExternal(left);
+		boolean rightLeaf = tree.isExternal(right);
+		String a = left.getElement();
+		String b = right.getElement();
+
+		// both operands are numbers: evaluate
+		if (leftLeaf && rightLeaf && arithmetic.isLiteral(a) && arithmetic.isLiteral(b)) {
+			String result = arithmetic.apply(operator, a, b);
+			tree.remove(left);
+			tree.remove(right);
+			tree.set(p, result);
+			return;
+		}
+		if (!fancy) {
+			return;
+		}
+		boolean leftZero = leftLeaf && arithmetic.isValue(a, 0);
+		boolean rightZero = rightLeaf && arithmetic.isValue(b, 0);
+		if (operator.equals("*")) {
+			if (leftZero || rightZero) {
+				// eg. * 0 x = 0, * x 0 = 0
+				drop(tree, left);
+				drop(tree, right);
+				tree.set(p, "0");
+			} else if (leftLeaf && arithmetic.isValue(a, 1)) {
+				// eg. * 1 x = x
+				keep(tree, p, right, left);
+			} else if (rightLeaf && arithmetic.isValue(b, 1)) {
+				// eg. * x 1 = x
+				keep(tree, p, left, right);
+			}
+		} else if (operator.equals("+")) {
+			if (leftZero) {
+				// eg. + 0 x = x
+				keep(tree, p, right, left);
+			} else if (rightZero) {
+				// eg. + x 0 = x
+				keep(tree, p, left, right);
+			}
+		} else {
+			if (rightZero) {
+				// eg. - x 0 = x
+				keep(tree, p, left, right);
+			} else if (leftLeaf && rightLeaf && a.equals(b)) {
+				// eg. - x x = 0
+				tree.remove(left);
+				tree.remove(right);
+				tree.set(p, "0");
+			}
+		}
+	}
+
+	/**
+	 * Helper method to replace the operator at p by its operand kept, where
+	 * its other operand dropped is a leaf
+	 */
+	private static void keep(LinkedBinaryTree<String> tree, Position<String> p, Position<String> kept, Position<String> dropped) {
+		tree.remove(dropped);
+		if (tree.isExternal(kept)) {
+			// keep the position of p, so that it stays valid for the caller
+			String element = tree.remove(kept);
+			tree.set(p, element);
+		} else {
+			// p now has a single child, which takes its place
+			tree.remove(p);
+		}
+	}
+
+	/**
+	 * Helper method to remove a whole subtree, in time proportional to its
+	 * size
+	 * 
+	 * The nodes are removed one at a time, children before parents, rather
+	 * than with pruneSubtree: pruning would make every position held by the
+	 * caller be checked again up to the root, which for a deep tree with many
+	 * zero products costs O(n) per product. Each node is dropped at most
+	 * once, so this adds O(n) to a whole simplification.
+	 */
+	private static void drop(LinkedBinaryTree<String> tree, Position<String> p) {
+		if (tree.isExternal(p)) {
+			tree.remove(p);
+			return;
+		}
+		// collect the subtree in preorder, then remove it in reverse
+		@SuppressWarnings("unchecked")
+		Position<String>[] order = (Position<String>[]) new Position<?>[16];
+		int count = 0;
+		@SuppressWarnings("unchecked")
+		Position<String>[] stack = (Position<String>[]) new Position<?>[16];
+		int top = 0;
+		stack[top++] = p;
+		while (top > 0) {
+			Position<String> q = stack[--top];
+			if (count == order.length) {
+				order = Arrays.copyOf(order, 2 * count);
+			}
+			order[count++] = q;
+			if (top + 2 > stack.length) {
+				stack = Arrays.copyOf(stack, 2 * stack.length);
+			}
+			Position<String> right = tree.right(q);
+			if (right != null) {
+				stack[top++] = right;
+			}
+			Position<String> left = tree.left(q);
+			if (left != null) {
+				stack[top++] = left;
+			}
+		}
+		while (count > 0) {
+			tree.remove(order[--count]);
+		}
+	}
+
+	/**Helper method to determine a String is numeric or not*/
+	static boolean isNumber(String str) {
+		if (!Arithmetic.isDigits(str)) {
+			return false;
+		}
+		if (str.length() < 10) {
+			return true; // too short to overflow an int
+		}
+		try {
+			Integer.parseInt(str);
+			return true;
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * This should do everything the simplify method does AND also apply the following rules:
+	 *  * 1 x == x  i.e.  (1*x)==x
+	 *  * x 1 == x        (x*1)==x
+	 *  * 0 x == 0        (0*x)==0
+	 *  * x 0 == 0        (x*0)==0
+	 *  + 0 x == x        (0+x)==x
+	 *  + x 0 == 0        (x+0)==x
+	 *  - x 0 == x        (x-0)==x
+	 *  - x x == 0        (x-x)==0
+	 *  
+	 *  Example: - * 1 x x == 0, in infix notation: ((1*x)-x) = (x-x) = 0
+	 *  
+	 * Here x may be any subtree, except in - x x where both operands must be
+	 * the same variable.
+	 * 
+	 * This method runs in O(n) time
+	 * 
+	 * @param tree
+	 *            - a tree representing an arithmetic expression
+	 * @return resulting binary tree after applying the simplifications
+	 * @throws IllegalArgumentException
+	 *             if tree was not a valid expression
+	 */
+	public static LinkedBinaryTree<String> simplifyFancy(LinkedBinaryTree<String> tree) throws IllegalArgumentException {
+		return simplifyFancy(tree, Arithmetic.WRAPPING);
+	}
+
+	/**
+	 * This does everything simplifyFancy does, evaluating constant subtrees
+	 * with the given arithmetic. simplifyFancy(tree) is simplifyFancy(tree,
+	 * Arithmetic.WRAPPING).
+	 * 
+	 * This method runs in O(n) time, plus the cost of any BigInteger
+	 * operations in Arithmetic.EXACT
+	 * 
+	 * @param tree
+	 *            - a tree representing an arithmetic expression
+	 * @param arithmetic
+	 *            - how constant subtrees are evaluated
+	 * @return resulting binary tree after applying the simplifications
+	 * @throws IllegalArgumentException
+	 *             if tree was not a valid expression
+	 * @throws ArithmeticException
+	 *             if arithmetic is Arithmetic.CHECKED and a constant subtree
+	 *             overflows a long, in which case the tree is left partly
+	 *             simplified
+	 */
+	public static LinkedBinaryTree<String> simplifyFancy(LinkedBinaryTree<String> tree, Arithmetic arithmetic) throws IllegalArgumentException, ArithmeticException {
+		ExpressionProbe probe = ExpressionProbe.start(ExpressionProbe.SIMPLIFY_FANCY);
+		try {
+			if(!isValid(tree)) {
+				throw new IllegalArgumentException();
+			}
+			LinkedBinaryTree<String> result = simplify(tree, true, arithmetic);
+			probe.finish(result, true);
+			return result;
+		} catch (RuntimeException e) {
+			probe.finish(tree, false);
+			throw e;
+		}
+	}
+
+	
+	/**
+	 * Given a tree, a variable label and a value, this should replace all
+	 * instances of that variable in the tree with the given value
+	 * 
+	 * This method runs in O(n) expected time. The given tree is not changed;
+	 * see substituteInPlace to change an indexed tree in O(occurrences) time.
+	 * 
+	 * @param tree
+	 *            - a tree representing an arithmetic expression
+	 * @param variable
+	 *            - a variable label that might exist in the tree
+	 * @param value
+	 *            - an integer value that the variable represents
+	 * @return Tree after replacing all instances of the specified variable with
+	 *         it's numeric value
+	 * @throws IllegalArgumentException
+	 *             if tree was not a valid expression, or either of the other
+	 *             arguments are null
+	 */
+	public static LinkedBinaryTree<String> substitute(LinkedBinaryTree<String> tree, String variable, int value)
+			throws IllegalArgumentException {
+		ExpressionProbe probe = ExpressionProbe.start(ExpressionProbe.SUBSTITUTE);
+		try {
+			if(!isValid(tree) || variable == null) {
+				throw new IllegalArgumentException();
+			}
+			HashMap<String, Integer> map = new HashMap<String, Integer>();
+			map.put(variable, value);
+			LinkedBinaryTree<String> result = copy(tree, map, new LinkedBinaryTree<String>());
+			probe.finish(result, true);
+			return result;
+		} catch (RuntimeException e) {
+			probe.finish(tree, false);
+			throw e;
+		}
+	}
+
+	/**
+	 * Given a tree and a a map of variable labels to values, this should
+	 * replace all instances of those variables in the tree with the
+	 * corresponding given values
+	 * 
+	 * This method runs in O(n) expected time. The given tree is not changed;
+	 * see substituteInPlace to change an indexed tree in O(occurrences) time.
+	 * 
+	 * @param tree
+	 *            - a tree representing an arithmetic expression
+	 * @param map
+	 *            - a map of variable labels to integer values
+	 * @return Tree after replacing all instances of variables which are keys in
+	 *         the map, with their numeric values
+	 * @throws IllegalArgumentException
+	 *             if tree was not a valid expression, or map is null, or tries
+	 *             to substitute a null into the tree
+	 */
+	public static LinkedBinaryTree<String> substitute(LinkedBinaryTree<String> tree, HashMap<String, Integer> map)
+			throws IllegalArgumentException {
+		ExpressionProbe probe = ExpressionProbe.start(ExpressionProbe.SUBSTITUTE);
+		try {
+			if(!isValid(tree) || map == null) {
+				throw new IllegalArgumentException();
+			}
+			for(Integer value : map.values()) {
+				if(value == null) {
+					throw new IllegalArgumentException();
+				}
+			}
+			LinkedBinaryTree<String> result = copy(tree, map, new LinkedBinaryTree<String>());
+			probe.finish(result, true);
+			return result;
+		} catch (RuntimeException e) {
+			probe.finish(tree, false);
+			throw e;
+		}
+	}
+
+	/**
+	 * Iterative helper method to copy a tree into an empty target tree,
+	 * replacing the leaves which are keys in the map with their values
+	 * 
+	 * The copy is made in a single preorder pass, linking the new nodes
+	 * directly through the tree's builder, so it runs in O(n) expected time.
+	 * 
+	 * @param tree
+	 *            - a valid arithmetic expression
+	 * @param map
+	 *            - a map of variable labels to integer values
+	 * @param target
+	 *            - an empty tree to copy into
+	 * @return the target tree, with the substitutions made
+	 */
+	static <T extends LinkedBinaryTree<String>> T copy(BinaryTree<String> tree, HashMap<String, Integer> map, T target) {
+		LinkedBinaryTree.TreeBuilder<String> builder = target.builder();
+		// positions still to copy, the copy they hang from, and on which side
+		@SuppressWarnings("unchecked")
+		Position<String>[] pending = (Position<String>[]) new Position<?>[16];
+		@SuppressWarnings("unchecked")
+		Position<String>[] parents = (Position<String>[]) new Position<?>[16];
+		boolean[] isLeft = new boolean[16];
+		int top = 0;
+		pending[top++] = tree.root();
+		Position<String> root = null;
+
+		while (top > 0) {
+			top--;
+			Position<String> p = pending[top];
+			Position<String> parent = parents[top];
+			boolean left = isLeft[top];
+			Position<String> l = tree.left(p);
+			String element = p.getElement();
+			if (l == null) {
+				Integer value = map.get(element);
+				if (value != null) {
+					element = String.valueOf(value);
+				}
+			}
+			Position<String> node = builder.node(element);
+			if (parent == null) {
+				root = node;
+			} else if (left) {
+				builder.setLeft(parent, node);
+			} else {
+				builder.setRight(parent, node);
+			}
+			if (l != null) {
+				if (top + 2 > pending.length) {
+					pending = Arrays.copyOf(pending, 2 * pending.length);
+					parents = Arrays.copyOf(parents, 2 * parents.length);
+					isLeft = Arrays.copyOf(isLeft, 2 * isLeft.length);
+				}
+				pending[top] = tree.right(p);
+				parents[top] = node;
+				isLeft[top++] = false;
+				pending[top] = l;
+				parents[top] = node;
+				isLeft[top++] = true;
+			}
+		}
+		builder.build(root);
+		return target;
+	}
+
+	/**
+	 * Given an indexed tree (see index) and a map of variable labels to
+	 * values, replaces all instances of those variables in that same tree
+	 * with the corresponding values, visiting only their occurrences
+	 * 
+	 * Unlike substitute, this changes the given tree. The tree is not walked,
+	 * so it is trusted to be a valid expression, as index makes it and as
+	 * substitution keeps it; a tree changed in other ways since should be
+	 * checked with isArithmeticExpression first.
+	 * 
+	 * This method runs in time proportional to the size of the map and the
+	 * number of occurrences replaced
+	 * 
+	 * @param tree
+	 *            - an indexed tree representing an arithmetic expression
+	 * @param map
+	 *            - a map of variable labels to integer values
+	 * @return the given tree, after the substitutions
+	 * @throws IllegalArgumentException
+	 *             if tree is null or empty, or map is null, or tries to
+	 *             substitute a null into the tree
+	 */
+	public static IndexedBinaryTree<String> substituteInPlace(IndexedBinaryTree<String> tree, HashMap<String, Integer> map)
+			throws IllegalArgumentException {
+		ExpressionProbe probe = ExpressionProbe.start(ExpressionProbe.SUBSTITUTE);
+		try {
+			if(tree == null || tree.isEmpty() || map == null) {
+				throw new IllegalArgumentException();
+			}
+			for(Integer value : map.values()) {
+				if(value == null) {
+					throw new IllegalArgumentException();
+				}
+			}
+			for(Map.Entry<String, Integer> binding : map.entrySet()) {
+				if(tree.count(binding.getKey()) > 0) {
+					String value = String.valueOf(binding.getValue());
+					// copy the occurrences, as each set takes its position out of the index
+					for(Position<String> p : new ArrayList<Position<String>>(tree.occurrences(binding.getKey()))) {
+						tree.set(p, value);
+					}
+				}
+			}
+			probe.finish(tree, true);
+			return tree;
+		} catch (RuntimeException e) {
+			probe.finish(tree, false);
+			throw e;
+		}
+	}
+
+	/**
+	 * Given a tree and a map of variable labels to values, returns the tree
+	 * left after substituting the values and then applying simplifyFancy,
+	 * that is simplifyFancy(substitute(tree, map)), without changing the
+	 * given tree
+	 * 
+	 * This method runs in O(n) expected time
+	 * 
+	 * @param tree
+	 *            - a tree representing an arithmetic expression
+	 * @param map
+	 *            - a map of variable labels to integer values
+	 * @return the residual expression, as a new tree
+	 * @throws IllegalArgumentException
+	 *             if tree was not a valid expression, or map is null, or tries
+	 *             to substitute a null into the tree
+	 */
+	public static LinkedBinaryTree<String> partialEvaluate(BinaryTree<String> tree, HashMap<String, Integer> map)
+			throws IllegalArgumentException {
+		return partialEvaluate(tree, map, Arithmetic.WRAPPING);
+	}
+
+	/**
+	 * This does everything partialEvaluate does, evaluating constant subtrees
+	 * with the given arithmetic, as simplifyFancy(substitute(tree, map),
+	 * arithmetic) would
+	 * 
+	 * The substitution, the simplification and the check that the tree is a
+	 * valid expression are made in a single postorder pass, without recursion.
+	 * The residual expression is written out in postfix order as the pass
+	 * goes, each residual subtree being a run at the end of the output, so a
+	 * subtree which simplifies away is dropped by cutting the output back (or,
+	 * for a single leaf followed by its sibling, by blanking it). Nodes are
+	 * only created at the end, for the tokens which survive.
+	 * 
+	 * This method runs in O(n) expected time, plus the cost of any BigInteger
+	 * operations in Arithmetic.EXACT
+	 * 
+	 * @param tree
+	 *            - a tree representing an arithmetic expression
+	 * @param map
+	 *            - a map of variable labels to integer values
+	 * @param arithmetic
+	 *            - how constant subtrees are evaluated
+	 * @return the residual expression, as a new tree
+	 * @throws IllegalArgumentException
+	 *             if tree was not a valid expression, or map is null, or tries
+	 *             to substitute a null into the tree
+	 * @throws ArithmeticException
+	 *             if arithmetic is Arithmetic.CHECKED and a constant subtree
+	 *             overflows a long
+	 */
+	public static LinkedBinaryTree<String> partialEvaluate(BinaryTree<String> tree, HashMap<String, Integer> map,
+			Arithmetic arithmetic) throws IllegalArgumentException, ArithmeticException {
+		ExpressionProbe probe = ExpressionProbe.start(ExpressionProbe.PARTIAL_EVALUATE);
+		try {
+			if(tree == null || tree.isEmpty() || map == null || arithmetic == null) {
+				throw new IllegalArgumentException();
+			}
+			for(Integer value : map.values()) {
+				if(value == null) {
+					throw new IllegalArgumentException();
+				}
+			}
+			LinkedBinaryTree<String> result = partialEvaluateValid(tree, map, arithmetic);
+			probe.finish(result, true);
+			return result;
+		} catch (RuntimeException e) {
+			probe.finish(tree, false);
+			throw e;
+		}
+	}
+
+	/** Iterative helper method for partialEvaluate, once its arguments are checked */
+	private static LinkedBinaryTree<String> partialEvaluateValid(BinaryTree<String> tree, HashMap<String, Integer> map,
+			Arithmetic arithmetic) {
+		// the residual expression in postfix order, null marking a dropped leaf
+		String[] out = new String[16];
+		int length = 0;
+		// the start in out of each residual subtree made so far, and whether it is a leaf
+		int[] starts = new int[16];
+		boolean[] leaves = new boolean[16];
+		int results = 0;
+
+		@SuppressWarnings("unchecked")
+		Position<String>[] stack = (Position<String>[]) new Position<?>[16];
+		byte[] visited = new byte[16];
+		int top = 0;
+		stack[top] = tree.root();
+		visited[top] = 0;
+		top++;
+
+		while (top > 0) {
+			Position<String> p = stack[top - 1];
+			String element = p.getElement();
+			Position<String> next;
+			if (visited[top - 1] == 0) {
+				Position<String> left = tree.left(p);
+				Position<String> right = tree.right(p);
+				// operators need two operands, operands must be leaves
+				if (element == null || (left == null) != (right == null) || isOperator(element) != (left != null)) {
+					throw new IllegalArgumentException();
+				}
+				if (left == null) {
+					Integer value = map.get(element);
+					if (results == starts.length) {
+						starts = Arrays.copyOf(starts, 2 * results);
+						leaves = Arrays.copyOf(leaves, 2 * results);
+					}
+					starts[results] = length;
+					leaves[results++] = true;
+					if (length == out.length) {
+						out = Arrays.copyOf(out, 2 * length);
+					}
+					out[length++] = value == null ? element : String.valueOf(value);
+					top--;
+					continue;
+				}
+				next = left;
+			} else if (visited[top - 1] == 1) {
+				next = tree.right(p);
+			} else {
+				top--;
+				// fold the two residual operands at the end of out
+				int start = starts[results - 2];
+				int middle = starts[results - 1];
+				boolean leftLeaf = leaves[results - 2];
+				boolean rightLeaf = leaves[results - 1];
+				String a = leftLeaf ? out[start] : null;
+				String b = rightLeaf ? out[middle] : null;
+				results--;
+				String folded = null; // the leaf the operator reduces to, if any
+				boolean keepRight = false, keepLeft = false;
+				boolean leftZero = leftLeaf && arithmetic.isValue(a, 0);
+				boolean rightZero = rightLeaf && arithmetic.isValue(b, 0);
+				if (leftLeaf && rightLeaf && arithmetic.isLiteral(a) && arithmetic.isLiteral(b)) {
+					folded = arithmetic.apply(element, a, b);
+				} else if (element.equals("*")) {
+					if (leftZero || rightZero) {
+						folded = "0";
+					} else if (leftLeaf && arithmetic.isValue(a, 1)) {
+						keepRight = true;
+					} else if (rightLeaf && arithmetic.isValue(b, 1)) {
+						keepLeft = true;
+					}
+				} else if (element.equals("+")) {
+					if (leftZero) {
+						keepRight = true;
+					} else if (rightZero) {
+						keepLeft = true;
+					}
+				} else {
+					if (rightZero) {
+						keepLeft = true;
+					} else if (leftLeaf && rightLeaf && a.equals(b)) {
+						folded = "0";
+					}
+				}
+				if (folded != null) {
+					// the operator and both operands become one leaf
+					Arrays.fill(out, start, length, null);
+					length = start;
+					out[length++] = folded;
+					leaves[results - 1] = true;
+				} else if (keepLeft) {
+					// the right operand is a single leaf at the end
+					out[--length] = null;
+				} else if (keepRight) {
+					// blank the left leaf, the right operand takes the operator's place
+					out[start] = null;
+					starts[results - 1] = middle;
+					leaves[results - 1] = rightLeaf;
+				} else {
+					if (length == out.length) {
+						out = Arrays.copyOf(out, 2 * length);
+					}
+					out[length++] = element;
+					leaves[results - 1] = false;
+				}
+				continue;
+			}
+			visited[top - 1]++;
+			if (top == stack.length) {
+				stack = Arrays.copyOf(stack, 2 * top);
+				visited = Arrays.copyOf(visited, 2 * top);
+			}
+			stack[top] = next;
+			visited[top] = 0;
+			top++;
+		}
+
+		// build the residual expression from its postfix order
+		LinkedBinaryTree.TreeBuilder<String> builder = new LinkedBinaryTree<String>().builder();
+		@SuppressWarnings("unchecked")
+		Position<String>[] operands = (Position<String>[]) new Position<?>[16];
+		int count = 0;
+		for (int i = 0; i < length; i++) {
+			String token = out[i];
+			if (token == null) {
+				continue;
+			}
+			// residual leaves are never operators, so every operator here is internal
+			if (isOperator(token)) {
+				Position<String> right = operands[--count];
+				Position<String> left = operands[--count];
+				operands[count++] = builder.node(token, left, right);
+			} else {
+				if (count == operands.length) {
+					operands = Arrays.copyOf(operands, 2 * count);
+				}
+				operands[count++] = builder.node(token);
+			}
+		}
+		return builder.build(operands[0]);
+	}
+
+	/**
+	 * Given a tree, returns a copy of it which keeps an index of where each
+	 * variable occurs, so that substituteInPlace and the variable queries
+	 * below only visit the occurrences involved
+	 * 
+	 * This method runs in O(n) expected time
+	 * 
+	 * @param tree
+	 *            - a tree representing an arithmetic expression
+	 * @return indexed copy of the tree
+	 * @throws IllegalArgumentException
+	 *             if tree was not a valid expression
+	 */
+	public static IndexedBinaryTree<String> index(LinkedBinaryTree<String> tree) throws IllegalArgumentException {
+		ExpressionProbe probe = ExpressionProbe.start(ExpressionProbe.INDEX);
+		try {
+			IndexedBinaryTree<String> result = indexValid(tree);
+			probe.finish(result, true);
+			return result;
+		} catch (RuntimeException e) {
+			probe.finish(tree, false);
+			throw e;
+		}
+	}
+
+	/** Helper method to check a tree and make its indexed copy */
+	private static IndexedBinaryTree<String> indexValid(LinkedBinaryTree<String> tree) throws IllegalArgumentException {
+		if(!isValid(tree)) {
+			throw new IllegalArgumentException();
+		}
+		return copy(tree, new HashMap<String, Integer>(), new IndexedBinaryTree<String>(VARIABLE));
+	}
+
+	/**
+	 * Given a tree, returns a copy of it whose nodes cache their text in prefix
+	 * and infix notation, so that after changing a few of its nodes in place
+	 * (for example through set), writing it out again with tree2prefix or
+	 * tree2infix only visits the paths from those nodes to the root
+	 * 
+	 * This method runs in O(n) time
+	 * 
+	 * @param tree
+	 *            - a tree representing an arithmetic expression
+	 * @return rendered copy of the tree
+	 * @throws IllegalArgumentException
+	 *             if tree was not a valid expression
+	 */
+	public static RenderedBinaryTree rendered(LinkedBinaryTree<String> tree) throws IllegalArgumentException {
+		ExpressionProbe probe = ExpressionProbe.start(ExpressionProbe.RENDERED);
+		try {
+			if(!isValid(tree)) {
+				throw new IllegalArgumentException();
+			}
+			RenderedBinaryTree result = copy(tree, new HashMap<String, Integer>(), new RenderedBinaryTree());
+			probe.finish(result, true);
+			return result;
+		} catch (RuntimeException e) {
+			probe.finish(tree, false);
+			throw e;
+		}
+	}
+
+	/**
+	 * Accepts the elements of an expression which are variables. Numbers too
+	 * long for an int are literals too, as Arithmetic.EXACT evaluates them.
+	 */
+	private static final Predicate<String> VARIABLE = new Predicate<String>() {
+		public boolean test(String element) {
+			return !isOperator(element) && !Arithmetic.isDigits(element);
+		}
+	};
+
+	/**
+	 * Given a tree, returns the variables which occur in it
+	 * 
+	 * This method runs in O(1) time for an indexed tree (see index), and O(n)
+	 * expected time otherwise
+	 * 
+	 * @param tree
+	 *            - a tree representing an arithmetic expression
+	 * @return the set of variables in the tree
+	 * @throws IllegalArgumentException
+	 *             if tree was not a valid expression
+	 */
+	public static Set<String> freeVariables(LinkedBinaryTree<String> tree) throws IllegalArgumentException {
+		ExpressionProbe probe = ExpressionProbe.start(ExpressionProbe.FREE_VARIABLES);
+		try {
+			Set<String> result;
+			if(tree instanceof IndexedBinaryTree) {
+				result = ((IndexedBinaryTree<String>) tree).indexedElements();
+			} else {
+				result = indexValid(tree).indexedElements();
+			}
+			probe.finish(tree, true);
+			return result;
+		} catch (RuntimeException e) {
+			probe.finish(tree, false);
+			throw e;
+		}
+	}
+
+	/**
+	 * Given a tree and a variable label, returns how many times the variable
+	 * occurs in the tree
+	 * 
+	 * This method runs in O(1) expected time for an indexed tree (see index),
+	 * and O(n) time otherwise
+	 * 
+	 * @param tree
+	 *            - a tree representing an arithmetic expression
+	 * @param variable
+	 *            - a variable label
+	 * @return number of occurrences of the variable
+	 * @throws IllegalArgumentException
+	 *             if tree was not a valid expression, or variable is null
+	 */
+	public static int occurrences(LinkedBinaryTree<String> tree, String variable) throws IllegalArgumentException {
+		ExpressionProbe probe = ExpressionProbe.start(ExpressionProbe.OCCURRENCES);
+		try {
+			int result = countOccurrences(tree, variable);
+			probe.finish(tree, true);
+			return result;
+		} catch (RuntimeException e) {
+			probe.finish(tree, false);
+			throw e;
+		}
+	}
+
+	/** Helper method to count the occurrences of a variable in a tree */
+	private static int countOccurrences(LinkedBinaryTree<String> tree, String variable) throws IllegalArgumentException {
+		if(variable == null) {
+			throw new IllegalArgumentException();
+		}
+		if(tree instanceof IndexedBinaryTree) {
+			return ((IndexedBinaryTree<String>) tree).count(variable);
+		}
+		if(!isValid(tree)) {
+			throw new IllegalArgumentException();
+		}
+		// count the leaves holding the variable, with an array-backed stack
+		@SuppressWarnings("unchecked")
+		Position<String>[] stack = (Position<String>[]) new Position<?>[16];
+		int top = 0;
+		int count = 0;
+		stack[top++] = tree.root();
+		while (top > 0) {
+			Position<String> p = stack[--top];
+			Position<String> left = tree.left(p);
+			if (left == null) {
+				if (variable.equals(p.getElement())) {
+					count++;
+				}
+			} else {
+				if (top + 2 > stack.length) {
+					stack = Arrays.copyOf(stack, 2 * stack.length);
+				}
+				stack[top++] = tree.right(p);
+				stack[top++] = left;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Given a tree, identify if that tree represents a valid arithmetic
+	 * expression (possibly with variables)
+	 * 
+	 * This method runs in O(n) time
+	 * 
+	 * @param tree
+	 *            - a tree representing an arithmetic expression
+	 * @return true if the tree is not null and it obeys the structure of an
+	 *              arithmetic expression. Otherwise, it returns false
+	 */
+	public static boolean isArithmeticExpression(BinaryTree<String> tree) {
+		ExpressionProbe probe = ExpressionProbe.start(ExpressionProbe.IS_ARITHMETIC_EXPRESSION);
+		try {
+			boolean result = isValid(tree);
+			probe.finish(tree, true);
+			return result;
+		} catch (RuntimeException e) {
+			probe.finish(tree, false);
+			throw e;
+		}
+	}
+
+	/**Iterative helper method to check the structure of an expression tree*/
+	private static boolean isValid(BinaryTree<String> tree) {
+		if(tree == null || tree.isEmpty()) {
+			return false;
+		}
+		// visit every position once, with an array-backed stack instead of
+		// recursion: operators must have two children, anything else none
+		@SuppressWarnings("unchecked")
+		Position<String>[] stack = (Position<String>[]) new Position<?>[16];
+		int top = 0;
+		stack[top++] = tree.root();
+		while (top > 0) {
+			Position<String> p = stack[--top];
+			Position<String> left = tree.left(p);
+			Position<String> right = tree.right(p);
+			String element = p.getElement();
+			if (element == null || (left == null) != (right == null) || isOperator(element) != (left != null)) {
+				return false;
+			}
+			if (left != null) {
+				if (top + 2 > stack.length) {
+					stack = Arrays.copyOf(stack, 2 * stack.length);
+				}
+				stack[top++] = right;
+				stack[top++] = left;
+			}
+		}
+		return true;
+	}
+}
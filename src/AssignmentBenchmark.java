@@ -0,0 +1,255 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import textbook.LinkedBinaryTree;
+
+/**
+ * Benchmarks every Assignment operation over generated expression trees of
+ * increasing size and of different shapes, reporting throughput and the
+ * number of bytes allocated per node.
+ * 
+ * Usage: java AssignmentBenchmark [-sizes 100,1000,...] [-shapes
+ * balanced,left,right,random] [-ops prefix2tree,simplify,...] [-budget ms]
+ * 
+ * For each operation and shape the sizes are run in increasing order, and
+ * larger sizes are skipped once a single invocation takes longer than the
+ * budget (or the operation runs out of stack), so quadratic or recursive
+ * operations don't stall the run.
+ * 
+ * This is a quick harness with no forking or dead code protection beyond a
+ * volatile sink. The same operations, shapes and sizes are measured under
+ * JMH, with its gc profiler, by the Maven module in benchmarks/.
+ */
+public class AssignmentBenchmark {
+
+	/** An operation under measurement, run against a prepared input */
+	static abstract class Operation {
+		final String name;
+		/** true if the operation modifies its input tree */
+		final boolean mutates;
+
+		Operation(String name, boolean mutates) {
+			this.name = name;
+			this.mutates = mutates;
+		}
+
+		abstract Object run(Input input);
+	}
+
+	/** The forms of one generated expression handed to an operation */
+	static class Input {
+		String prefix;
+		String postfix;
+		String infix;
+		LinkedBinaryTree<String> tree;
+		LinkedBinaryTree<String> copy;
+		HashMap<String, Integer> bindings;
+	}
+
+	/** The variables used in generated expressions */
+	private static final String[] VARIABLES = { "a", "b", "c", "x", "y", "z" };
+
+	static final Operation[] OPERATIONS = {
+		new Operation("prefix2tree", false) {
+			Object run(Input in) { return Assignment.prefix2tree(in.prefix); }
+		},
+		new Operation("postfix2tree", false) {
+			Object run(Input in) { return Assignment.postfix2tree(in.postfix); }
+		},
+		new Operation("infix2tree", false) {
+			Object run(Input in) { return Assignment.infix2tree(in.infix); }
+		},
+		new Operation("tree2prefix", false) {
+			Object run(Input in) { return Assignment.tree2prefix(in.tree); }
+		},
+		new Operation("tree2postfix", false) {
+			Object run(Input in) { return Assignment.tree2postfix(in.tree); }
+		},
+		new Operation("tree2infix", false) {
+			Object run(Input in) { return Assignment.tree2infix(in.tree); }
+		},
+		new Operation("isArithmeticExpression", false) {
+			Object run(Input in) { return Assignment.isArithmeticExpression(in.tree); }
+		},
+		new Operation("simplify", true) {
+			Object run(Input in) { return Assignment.simplify(in.tree); }
+		},
+		new Operation("simplifyFancy", true) {
+			Object run(Input in) { return Assignment.simplifyFancy(in.tree); }
+		},
+		new Operation("simplifyChecked", true) {
+			Object run(Input in) { return Assignment.simplify(in.tree, Arithmetic.CHECKED); }
+		},
+		new Operation("simplifyExact", true) {
+			Object run(Input in) { return Assignment.simplify(in.tree, Arithmetic.EXACT); }
+		},
+		new Operation("simplifyExactWide", true) {
+			Object run(Input in) { return Assignment.simplify(in.tree, Arithmetic.EXACT); }
+		},
+		new Operation("substitute", true) {
+			Object run(Input in) { return Assignment.substitute(in.tree, "x", 7); }
+		},
+		new Operation("substituteMap", true) {
+			Object run(Input in) { return Assignment.substitute(in.tree, in.bindings); }
+		},
+		new Operation("partialEvaluate", false) {
+			Object run(Input in) { return Assignment.partialEvaluate(in.tree, in.bindings); }
+		},
+		new Operation("equals", false) {
+			Object run(Input in) { return Assignment.equals(in.tree, in.copy); }
+		},
+		new Operation("equivalent", false) {
+			Object run(Input in) { return Assignment.equivalent(in.tree, in.copy); }
+		},
+		new Operation("rebalance", false) {
+			Object run(Input in) { return Assignment.rebalance(in.tree); }
+		},
+	};
+
+	/** Prevents the JIT from discarding results */
+	static volatile Object sink;
+
+	public static void main(String[] args) {
+		long[] sizes = { 100, 1000, 10000, 100000, 1000000, 10000000 };
+		ArrayList<ExpressionGenerator.Shape> shapes = new ArrayList<ExpressionGenerator.Shape>();
+		ArrayList<Operation> operations = new ArrayList<Operation>();
+		long budget = 2000;
+
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			String[] values = args[i + 1].split(",");
+			if (args[i].equals("-sizes")) {
+				sizes = new long[values.length];
+				for (int j = 0; j < values.length; j++) {
+					sizes[j] = Long.parseLong(values[j]);
+				}
+			} else if (args[i].equals("-shapes")) {
+				for (String value : values) {
+					shapes.add(ExpressionGenerator.Shape.valueOf(value.toUpperCase()));
+				}
+			} else if (args[i].equals("-ops")) {
+				for (String value : values) {
+					for (Operation operation : OPERATIONS) {
+						if (operation.name.equals(value)) {
+							operations.add(operation);
+						}
+					}
+				}
+			} else if (args[i].equals("-budget")) {
+				budget = Long.parseLong(values[0]);
+			} else {
+				throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+		}
+		if (shapes.isEmpty()) {
+			for (ExpressionGenerator.Shape shape : ExpressionGenerator.Shape.values()) {
+				shapes.add(shape);
+			}
+		}
+		if (operations.isEmpty()) {
+			for (Operation operation : OPERATIONS) {
+				operations.add(operation);
+			}
+		}
+
+		System.out.printf("%-24s %-9s %10s %14s %14s%n", "operation", "shape", "nodes", "ops/s", "bytes/node");
+		for (Operation operation : operations) {
+			for (ExpressionGenerator.Shape shape : shapes) {
+				for (long size : sizes) {
+					String result = measure(operation, shape, (int) Math.min(size, Integer.MAX_VALUE - 1), budget);
+					System.out.printf("%-24s %-9s %10d %s%n", operation.name, shape.name().toLowerCase(), size, result);
+					if (!result.startsWith(" ")) {
+						break; // skipped: larger sizes would fare no better
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Measures one operation on one size and shape, returning the formatted
+	 * throughput and allocation columns, or the reason it was skipped.
+	 */
+	private static String measure(Operation operation, ExpressionGenerator.Shape shape, int size, long budget) {
+		Input input;
+		try {
+			input = prepare(operation, shape, size | 1);
+		} catch (StackOverflowError e) {
+			return "skipped: stack overflow generating input";
+		} catch (OutOfMemoryError e) {
+			return "skipped: out of memory generating input";
+		}
+		long budgetNanos = budget * 1000000L;
+		long elapsed = 0;
+		long allocated = 0;
+		int invocations = 0;
+		try {
+			// warm up, then measure until half the budget is used
+			for (int phase = 0; phase < 2; phase++) {
+				elapsed = 0;
+				allocated = 0;
+				invocations = 0;
+				while (elapsed < budgetNanos / 4 || invocations == 0) {
+					if (operation.mutates) {
+						input.tree = Assignment.prefix2tree(input.prefix);
+					}
+					long bytes = allocatedBytes();
+					long start = System.nanoTime();
+					sink = operation.run(input);
+					long time = System.nanoTime() - start;
+					allocated += allocatedBytes() - bytes;
+					elapsed += time;
+					invocations++;
+					if (time > budgetNanos) {
+						return "skipped: one invocation took " + time / 1000000 + " ms";
+					}
+				}
+			}
+		} catch (StackOverflowError e) {
+			return "skipped: stack overflow";
+		} catch (OutOfMemoryError e) {
+			return "skipped: out of memory";
+		}
+		double throughput = invocations * 1e9 / elapsed;
+		double perNode = (double) allocated / invocations / (size | 1);
+		return String.format(" %14.2f %14.1f", throughput, perNode);
+	}
+
+	/**
+	 * Generates an expression of the given size and shape, in the forms the
+	 * operation needs
+	 */
+	static Input prepare(Operation operation, ExpressionGenerator.Shape shape, int size) {
+		Input input = new Input();
+		ExpressionGenerator generator = new ExpressionGenerator(size);
+		generator.setShape(shape);
+		generator.setVariables(VARIABLES);
+		if (operation.name.endsWith("Wide")) {
+			// constants large enough that products overflow a long
+			generator.setConstants(0.5, Integer.MAX_VALUE - 1);
+		}
+		input.prefix = generator.prefix(size);
+		input.tree = Assignment.prefix2tree(input.prefix);
+		if (operation.name.equals("postfix2tree")) {
+			input.postfix = Assignment.tree2postfix(input.tree);
+		} else if (operation.name.equals("infix2tree")) {
+			input.infix = Assignment.tree2infix(input.tree);
+		} else if (operation.name.equals("equals") || operation.name.equals("equivalent")) {
+			input.copy = Assignment.prefix2tree(input.prefix);
+		}
+		input.bindings = new HashMap<String, Integer>();
+		for (int i = 0; i < VARIABLES.length; i += 2) {
+			input.bindings.put(VARIABLES[i], i);
+		}
+		return input;
+	}
+
+	/** Bytes allocated so far by the current thread, or 0 if unsupported */
+	static long allocatedBytes() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return 0;
+	}
+}
@@ -0,0 +1,339 @@
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+
+import textbook.BinaryTree;
+import textbook.Position;
+
+/**
+ * An arithmetic expression compiled into a flat program, evaluated modulo a
+ * prime with a stack of longs.
+ *
+ * The program is the expression in prefix order, run backwards: leaves push
+ * their value, and operators pop their left operand, then their right one.
+ * Variables are numbered by a slot map which several expressions may share,
+ * so they can be evaluated at the same assignment of values. Evaluation
+ * touches only primitive arrays, with no boxing and no tree walking, and
+ * allocates nothing.
+ *
+ * The prime is chosen by the caller, as a Modulus, and may change from one
+ * evaluation to the next, constants being reduced again only when it does.
+ * Two expressions which are equal as integer polynomials always evaluate to
+ * the same value modulo any prime; two which are not may still agree modulo
+ * a particular prime if it divides every coefficient of their difference, as
+ * 2^61 - 1 does for "* 2147483648 1073741824" and "1". A prime chosen at
+ * random after the expressions are given makes this unlikely; see
+ * Assignment.equivalent.
+ */
+final class CompiledExpression {
+
+	/**
+	 * A prime between 2^61 and 2^62, with arithmetic on residues kept in
+	 * Montgomery form: x is held as x * 2^64 modulo the prime, so that a
+	 * product can be reduced with multiplications and a shift instead of a
+	 * 128-bit division.
+	 *
+	 * Primes are drawn from a fixed table, whose moduli are made once, so
+	 * choosing one costs nothing; a new prime, found with
+	 * BigInteger.probablePrime, is only needed when constants are too long
+	 * for the table to tell apart.
+	 */
+	static final class Modulus {
+
+		/** The least value of a prime, a lower bound used for error bounds */
+		static final double LEAST = 0x1p61;
+
+		/** Distinct primes between 2^61 and 2^62 */
+		private static final long[] PRIMES = {
+				0x202419ebe7762c15L, 0x2057e0dbb001ccabL, 0x2058dd2255575e2fL, 0x211708214cb9de81L,
+				0x212d079f97fa2b21L, 0x21675b59ab898723L, 0x22f9a2e3b0d46c87L, 0x23c55b1cdb63549bL,
+				0x244538f4fdad0fe9L, 0x247a06c36f77d449L, 0x247c40879f84b609L, 0x24fdca844dc7c803L,
+				0x2581375130a56b1fL, 0x2591ac7ea7836279L, 0x259582d6ba9ff9d7L, 0x269cf56dbfd5d093L,
+				0x26c41eca11a6b4edL, 0x26e1bd996577bd8bL, 0x2742384f3f8833d5L, 0x2ab0a44c2136b68bL,
+				0x2b1bfc4442df34e3L, 0x2c1d3296cb65cd8dL, 0x2c767d3db3410745L, 0x2cf977a6bd73d675L,
+				0x2d3d8443b68ad173L, 0x2d4c88333aaf863bL, 0x2d71e05b1519be9fL, 0x2d77ad27c0a2e733L,
+				0x2e421a5cf24175bbL, 0x2e5f6642b4a57a7bL, 0x2ef19209e0f255dfL, 0x2f6eddadf39b6c07L,
+				0x30c2213ce2a405f1L, 0x3153a89312cfae5fL, 0x326b64e34b2e438bL, 0x328f8632b7e9e2f3L,
+				0x33579a4759d4583bL, 0x34710a5dc1e9cc51L, 0x3471617f8c4f516bL, 0x34a98d0c458068b5L,
+				0x34b57a70ae93f611L, 0x357fbb9a89866ba5L, 0x35f6424e565fd031L, 0x3601cd546c75c735L,
+				0x3643f832c5efb3a7L, 0x368c76ce1e7e8ec5L, 0x36a0654f1ae33f0bL, 0x3797590efa0792bbL,
+				0x37a858d4ae009b73L, 0x38a65be981a662a7L, 0x3a4880b8ecf36cadL, 0x3a64453b9cb812d1L,
+				0x3aeb13b3bde7987bL, 0x3af56ec4933a8493L, 0x3b035875b1d7650dL, 0x3b91fb99162cad51L,
+				0x3bdd00d605fa4283L, 0x3cc60f4d82419261L, 0x3cd8f5d244e3fdafL, 0x3d863d5268ba1ac7L,
+				0x3df0d55146686fe5L, 0x3ed7367b3f3d6d37L, 0x3fd157fef0650a91L, 0x3fda35c1449b96a7L };
+
+		/** The number of primes in the table */
+		static final int TABLE_SIZE = PRIMES.length;
+
+		private static final Modulus[] TABLE = new Modulus[TABLE_SIZE];
+
+		static {
+			for (int i = 0; i < TABLE_SIZE; i++) {
+				TABLE[i] = new Modulus(PRIMES[i]);
+			}
+		}
+
+		private final long q; // the prime
+		private final long inverse; // q^-1 modulo 2^64
+		private final long r2; // 2^128 modulo q, to move into Montgomery form
+
+		/** Makes the modulus for a prime between 2^61 and 2^62 */
+		private Modulus(long q) {
+			this.q = q;
+			long x = q; // Newton's iteration, each step doubling the correct bits
+			for (int i = 0; i < 5; i++) {
+				x *= 2 - q * x;
+			}
+			inverse = x;
+			long r = Long.remainderUnsigned(-1L, q) + 1; // 2^64 modulo q
+			if (r == q) {
+				r = 0;
+			}
+			for (int i = 0; i < 64; i++) {
+				r = add(r, r);
+			}
+			r2 = r;
+		}
+
+		/**
+		 * Chooses a prime from the table at random, in O(1) time
+		 *
+		 * @param random
+		 * @return the modulus for the prime chosen
+		 */
+		static Modulus of(Random random) {
+			return TABLE[random.nextInt(TABLE_SIZE)];
+		}
+
+		/**
+		 * Chooses a prime at random from all those between 2^61 and 2^62,
+		 * which is much slower than of
+		 *
+		 * @param random
+		 * @return the modulus for the prime chosen
+		 */
+		static Modulus fresh(Random random) {
+			return new Modulus(BigInteger.probablePrime(62, random).longValue());
+		}
+
+		/**
+		 * @param random
+		 * @return a uniformly random residue
+		 */
+		long random(Random random) {
+			long x;
+			do {
+				x = random.nextLong() >>> 2; // below 2^62
+			} while (x >= q);
+			return x;
+		}
+
+		/** Helper method to add two residues */
+		long add(long a, long b) {
+			long sum = a + b; // below 2^63, so no overflow
+			return sum >= q ? sum - q : sum;
+		}
+
+		/** Helper method to subtract one residue from another */
+		long subtract(long a, long b) {
+			long difference = a - b;
+			return difference < 0 ? difference + q : difference;
+		}
+
+		/** Helper method to multiply two residues in Montgomery form */
+		long multiply(long a, long b) {
+			long high = Math.multiplyHigh(a, b); // a, b < 2^62, so this is unsigned
+			long low = a * b;
+			// m * q agrees with a * b in the low 64 bits, which cancel
+			long m = low * inverse;
+			long mq = Math.multiplyHigh(m, q) + ((m >> 63) & q); // unsigned high half
+			long result = high - mq;
+			return result < 0 ? result + q : result;
+		}
+
+		/** Helper method to reduce a literal of any length, in Montgomery form */
+		long reduce(String literal) {
+			int i = literal.charAt(0) == '-' || literal.charAt(0) == '+' ? 1 : 0;
+			long r = 0;
+			for (int j = i; j < literal.length(); j++) {
+				long twice = add(r, r);
+				long eight = add(add(twice, twice), add(twice, twice));
+				r = add(add(eight, twice), literal.charAt(j) - '0');
+			}
+			r = multiply(r, r2);
+			return literal.charAt(0) == '-' ? subtract(0, r) : r;
+		}
+	}
+
+	/** Marker for a leaf which is a constant rather than a variable */
+	private static final int CONSTANT = -1;
+
+	// the program, in prefix order
+	private final char[] operator; // '+', '-', '*', or 0 for a leaf
+	private final int[] slot; // a leaf's variable slot, or CONSTANT
+	private final String[] literal; // a constant leaf's digits
+	private final long[] constant; // its value modulo the last modulus used
+	private Modulus reduced; // the modulus constant is reduced by, or null
+
+	/** An upper bound on the degree of the expression as a polynomial */
+	private final long degree;
+
+	/** An upper bound on the bits of the sum of its coefficients' magnitudes */
+	private final double bits;
+
+	/** Scratch stack for evaluation, as deep as the program needs */
+	private final long[] stack;
+
+	/**
+	 * Compiles an expression, numbering any new variables in slots
+	 *
+	 * The tree is checked as it is compiled, so it is walked only once.
+	 *
+	 * This runs in O(n) expected time
+	 *
+	 * @param tree
+	 *            - a tree representing an arithmetic expression
+	 * @param slots
+	 *            - the slot of each variable, to which new variables are
+	 *            added with the next free slot
+	 * @throws IllegalArgumentException
+	 *             if tree was not a valid expression
+	 */
+	CompiledExpression(BinaryTree<String> tree, HashMap<String, Integer> slots) throws IllegalArgumentException {
+		if (tree == null || tree.isEmpty()) {
+			throw new IllegalArgumentException();
+		}
+		int n = tree.size();
+		operator = new char[n];
+		slot = new int[n];
+		literal = new String[n];
+		constant = new long[n];
+
+		// preorder walk with an array-backed stack
+		@SuppressWarnings("unchecked")
+		Position<String>[] nodes = (Position<String>[]) new Position<?>[16];
+		int top = 0;
+		int i = 0;
+		nodes[top++] = tree.root();
+		while (top > 0) {
+			Position<String> p = nodes[--top];
+			Position<String> left = tree.left(p);
+			Position<String> right = tree.right(p);
+			String element = p.getElement();
+			if (element == null || (left == null) != (right == null)
+					|| Assignment.isOperator(element) != (left != null)) {
+				throw new IllegalArgumentException();
+			}
+			if (left != null) {
+				operator[i] = element.charAt(0);
+				if (top + 2 > nodes.length) {
+					nodes = Arrays.copyOf(nodes, 2 * nodes.length);
+				}
+				nodes[top++] = right;
+				nodes[top++] = left;
+			} else if (Arithmetic.isDigits(element)) {
+				slot[i] = CONSTANT;
+				literal[i] = element;
+			} else {
+				Integer s = slots.get(element);
+				if (s == null) {
+					s = slots.size();
+					slots.put(element, s);
+				}
+				slot[i] = s;
+			}
+			i++;
+		}
+
+		// run the program once over degrees and coefficient sizes instead of
+		// values, to bound them and find the stack depth
+		long[] degrees = new long[16];
+		double[] sizes = new double[16];
+		int deepest = 0;
+		top = 0;
+		for (i = n - 1; i >= 0; i--) {
+			if (operator[i] == 0) {
+				if (top == degrees.length) {
+					degrees = Arrays.copyOf(degrees, 2 * top);
+					sizes = Arrays.copyOf(sizes, 2 * top);
+				}
+				degrees[top] = slot[i] == CONSTANT ? 0 : 1;
+				// a decimal digit is less than 4 bits
+				sizes[top++] = slot[i] == CONSTANT ? 4 * literal[i].length() : 0;
+				deepest = Math.max(deepest, top);
+			} else {
+				top--;
+				long a = degrees[top];
+				long b = degrees[top - 1];
+				// no product of at most n leaves has degree above n
+				degrees[top - 1] = operator[i] == '*' ? Math.min(a + b, n) : Math.max(a, b);
+				sizes[top - 1] = operator[i] == '*' ? sizes[top] + sizes[top - 1]
+						: Math.max(sizes[top], sizes[top - 1]) + 1;
+			}
+		}
+		degree = degrees[0];
+		bits = sizes[0];
+		stack = new long[deepest];
+	}
+
+	/**
+	 * @return an upper bound on the total degree of the expression, as a
+	 *         polynomial in its variables
+	 */
+	long degree() {
+		return degree;
+	}
+
+	/**
+	 * @return an upper bound on the number of bits of the sum of the
+	 *         magnitudes of the coefficients of the expression, as a
+	 *         polynomial in its variables
+	 */
+	double bits() {
+		return bits;
+	}
+
+	/**
+	 * Evaluates the expression modulo a prime
+	 *
+	 * This runs in O(n) time, without allocating, plus the time to reduce the
+	 * constants if the modulus is not the one used last
+	 *
+	 * @param modulus
+	 * @param values
+	 *            - the value of each variable slot, as residues of modulus
+	 * @return the value of the expression, as a residue of modulus
+	 */
+	long evaluate(Modulus modulus, long[] values) {
+		if (reduced != modulus) {
+			for (int i = 0; i < literal.length; i++) {
+				if (literal[i] != null) {
+					constant[i] = modulus.reduce(literal[i]);
+				}
+			}
+			reduced = modulus;
+		}
+		long[] stack = this.stack;
+		int top = 0;
+		for (int i = operator.length - 1; i >= 0; i--) {
+			switch (operator[i]) {
+			case 0:
+				stack[top++] = slot[i] == CONSTANT ? constant[i] : values[slot[i]];
+				break;
+			case '+':
+				top--;
+				stack[top - 1] = modulus.add(stack[top], stack[top - 1]);
+				break;
+			case '-':
+				top--;
+				stack[top - 1] = modulus.subtract(stack[top], stack[top - 1]);
+				break;
+			default:
+				top--;
+				stack[top - 1] = modulus.multiply(stack[top], stack[top - 1]);
+			}
+		}
+		return stack[0];
+	}
+}
@@ -0,0 +1,261 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import textbook.BinaryTree;
+import textbook.Position;
+
+/**
+ * An arithmetic expression kept together with the value of every one of its
+ * subtrees, for repeated evaluation as variable bindings change one at a
+ * time.
+ * 
+ * The expression is copied into arrays in postorder, so every child has a
+ * smaller index than its parent, and an index from each variable to the
+ * leaves where it occurs is kept. Changing a binding marks the paths from
+ * those leaves to the root and recomputes only the marked nodes, so an
+ * update costs O(occurrences x depth) rather than O(n).
+ * 
+ * Arithmetic is on int, wrapping on overflow as simplify does.
+ */
+public class EvaluatedExpression {
+
+	/** Marker for a node without a parent */
+	private static final int NONE = -1;
+
+	// the expression, in postorder
+	private final char[] operator; // '+', '-', '*', or 0 for a leaf
+	private final int[] left;
+	private final int[] right;
+	private final int[] parent;
+
+	// the cached evaluation
+	private final int[] value;
+	private final boolean[] known; // false if a variable below is unbound
+
+	/** The leaf indices at which each variable occurs */
+	private final HashMap<String, int[]> occurrences = new HashMap<String, int[]>();
+
+	/** The current bindings */
+	private final HashMap<String, Integer> bindings = new HashMap<String, Integer>();
+
+	/** Scratch space for marking the paths touched by an update */
+	private final boolean[] dirty;
+	private int[] touched = new int[16];
+
+	/**
+	 * Copies the given expression, with every variable unbound
+	 * 
+	 * This runs in O(n) expected time
+	 * 
+	 * @param tree
+	 *            - a tree representing an arithmetic expression
+	 * @throws IllegalArgumentException
+	 *             if tree was not a valid expression
+	 */
+	public EvaluatedExpression(BinaryTree<String> tree) throws IllegalArgumentException {
+		if (!Assignment.isArithmeticExpression(tree)) {
+			throw new IllegalArgumentException();
+		}
+		int n = tree.size();
+		operator = new char[n];
+		left = new int[n];
+		right = new int[n];
+		parent = new int[n];
+		value = new int[n];
+		known = new boolean[n];
+		dirty = new boolean[n];
+		HashMap<String, int[]> counted = new HashMap<String, int[]>();
+
+		// postorder walk with an explicit stack; finished subtrees leave
+		// their index on a second stack for their parent to pick up
+		@SuppressWarnings("unchecked")
+		Position<String>[] stack = (Position<String>[]) new Position<?>[16];
+		byte[] visited = new byte[16];
+		int[] finished = new int[16];
+		int top = 0;
+		int done = 0;
+		int next = 0;
+		stack[top] = tree.root();
+		visited[top++] = 0;
+		while (top > 0) {
+			Position<String> p = stack[top - 1];
+			Position<String> child = null;
+			if (visited[top - 1] == 0) {
+				child = tree.left(p);
+			} else if (visited[top - 1] == 1) {
+				child = tree.right(p);
+			}
+			if (child != null) {
+				visited[top - 1]++;
+				if (top == stack.length) {
+					stack = Arrays.copyOf(stack, 2 * top);
+					visited = Arrays.copyOf(visited, 2 * top);
+				}
+				stack[top] = child;
+				visited[top++] = 0;
+				continue;
+			}
+			top--;
+			int i = next++;
+			String element = p.getElement();
+			parent[i] = NONE;
+			if (visited[top] == 0) {
+				// a leaf: a number, or a variable which starts unbound
+				left[i] = NONE;
+				right[i] = NONE;
+				if (Assignment.isNumber(element)) {
+					value[i] = Integer.parseInt(element);
+					known[i] = true;
+				} else {
+					int[] list = counted.get(element);
+					if (list == null) {
+						list = new int[] { 0, 0, 0, 0, 0 }; // count, then indices
+						counted.put(element, list);
+					}
+					if (list[0] + 1 == list.length) {
+						list = Arrays.copyOf(list, 2 * list.length);
+						counted.put(element, list);
+					}
+					list[++list[0]] = i;
+				}
+			} else {
+				operator[i] = element.charAt(0);
+				right[i] = finished[--done];
+				left[i] = finished[--done];
+				parent[left[i]] = i;
+				parent[right[i]] = i;
+				evaluate(i);
+			}
+			if (done == finished.length) {
+				finished = Arrays.copyOf(finished, 2 * done);
+			}
+			finished[done++] = i;
+		}
+		for (Map.Entry<String, int[]> entry : counted.entrySet()) {
+			int[] list = entry.getValue();
+			occurrences.put(entry.getKey(), Arrays.copyOfRange(list, 1, list[0] + 1));
+		}
+	}
+
+	/**
+	 * Binds a variable to a value, recomputing the subtrees it occurs in
+	 * 
+	 * This runs in O(occurrences x depth) time
+	 * 
+	 * @param variable
+	 * @param v
+	 * @throws IllegalArgumentException
+	 *             if variable is null
+	 */
+	public void bind(String variable, int v) throws IllegalArgumentException {
+		if (variable == null) {
+			throw new IllegalArgumentException();
+		}
+		bindings.put(variable, v);
+		update(variable, true, v);
+	}
+
+	/**
+	 * Removes the binding of a variable
+	 * 
+	 * This runs in O(occurrences x depth) time
+	 * 
+	 * @param variable
+	 */
+	public void unbind(String variable) {
+		if (bindings.remove(variable) != null) {
+			update(variable, false, 0);
+		}
+	}
+
+	/**
+	 * @param variable
+	 * @return the value bound to a variable, or null if it is unbound
+	 */
+	public Integer binding(String variable) {
+		return bindings.get(variable);
+	}
+
+	/**
+	 * @return the variables which occur in the expression
+	 */
+	public Set<String> variables() {
+		return occurrences.keySet();
+	}
+
+	/**
+	 * @return true if every variable in the expression is bound
+	 */
+	public boolean isBound() {
+		return known[known.length - 1];
+	}
+
+	/**
+	 * Returns the value of the expression under the current bindings, in
+	 * constant time
+	 * 
+	 * @return the value of the expression
+	 * @throws IllegalStateException
+	 *             if a variable in the expression is unbound
+	 */
+	public int value() throws IllegalStateException {
+		int root = value.length - 1; // the root comes last in postorder
+		if (!known[root]) {
+			throw new IllegalStateException("Expression has unbound variables");
+		}
+		return value[root];
+	}
+
+	/**
+	 * Helper method to set every leaf of a variable and recompute the nodes
+	 * above them, each once, children before parents
+	 */
+	private void update(String variable, boolean bound, int v) {
+		int[] leaves = occurrences.get(variable);
+		if (leaves == null) {
+			return;
+		}
+		int count = 0;
+		for (int leaf : leaves) {
+			value[leaf] = v;
+			known[leaf] = bound;
+			// mark the path up to the first node already marked
+			for (int i = parent[leaf]; i != NONE && !dirty[i]; i = parent[i]) {
+				dirty[i] = true;
+				if (count == touched.length) {
+					touched = Arrays.copyOf(touched, 2 * count);
+				}
+				touched[count++] = i;
+			}
+		}
+		// postorder indices put every child before its parent
+		Arrays.sort(touched, 0, count);
+		for (int j = 0; j < count; j++) {
+			int i = touched[j];
+			dirty[i] = false;
+			evaluate(i);
+		}
+	}
+
+	/** Helper method to recompute an operator from its children */
+	private void evaluate(int i) {
+		int a = left[i];
+		int b = right[i];
+		known[i] = known[a] && known[b];
+		if (!known[i]) {
+			return;
+		}
+		switch (operator[i]) {
+		case '+':
+			value[i] = value[a] + value[b];
+			break;
+		case '-':
+			value[i] = value[a] - value[b];
+			break;
+		default:
+			value[i] = value[a] * value[b];
+		}
+	}
+}
@@ -0,0 +1,181 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A client for ExpressionServer, and a load generator for it.
+ *
+ * A client is one connection, and is not thread safe. evaluate sends one
+ * request and waits for its response; evaluateAll pipelines a batch of
+ * requests, sending them all before reading any response.
+ *
+ * Usage: java ExpressionClient [-host localhost] [-port 7070] [-connections
+ * 16] [-depth 64] [-expressions 100] [-size 15] [-millis 5000] runs the
+ * given number of connections against a server, each keeping depth requests
+ * in flight, over a set of generated expressions with random bindings, and
+ * reports the requests per second
+ */
+public class ExpressionClient implements Closeable {
+
+	private final Socket socket;
+	private final BufferedReader in;
+	private final Writer out;
+
+	/**
+	 * Connects to a server
+	 *
+	 * @param host
+	 * @param port
+	 * @throws IOException
+	 *             if the connection could not be made
+	 */
+	public ExpressionClient(String host, int port) throws IOException {
+		socket = new Socket(host, port);
+		socket.setTcpNoDelay(true);
+		in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8), 1 << 16);
+		out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), 1 << 16);
+	}
+
+	/**
+	 * Evaluates an expression under some bindings
+	 *
+	 * @param prefix
+	 *            - an expression in prefix notation
+	 * @param bindings
+	 *            - values for some of its variables, which may be empty
+	 * @return the server's response: the simplified expression, or a line
+	 *         starting "error: "
+	 * @throws IOException
+	 *             if the connection failed
+	 */
+	public String evaluate(String prefix, Map<String, Integer> bindings) throws IOException {
+		return evaluateAll(new String[] { request(prefix, bindings) })[0];
+	}
+
+	/**
+	 * Sends a batch of request lines (see ExpressionServer) and returns their
+	 * responses, in order
+	 *
+	 * The responses are only read once every request is written, so a batch
+	 * should be small enough for its responses to fit in the socket buffers
+	 * (a few thousand short requests), or both ends would wait on each other.
+	 *
+	 * @param requests
+	 * @return the responses
+	 * @throws IOException
+	 *             if the connection failed
+	 */
+	public String[] evaluateAll(String[] requests) throws IOException {
+		for (String request : requests) {
+			out.write(request);
+			out.write('\n');
+		}
+		out.flush();
+		String[] responses = new String[requests.length];
+		for (int i = 0; i < requests.length; i++) {
+			responses[i] = in.readLine();
+			if (responses[i] == null) {
+				throw new IOException("Server closed the connection");
+			}
+		}
+		return responses;
+	}
+
+	/**
+	 * Writes a request line for an expression and its bindings
+	 *
+	 * @param prefix
+	 * @param bindings
+	 * @return the request line
+	 */
+	public static String request(String prefix, Map<String, Integer> bindings) {
+		if (bindings.isEmpty()) {
+			return prefix;
+		}
+		StringBuilder line = new StringBuilder(prefix).append(" ;");
+		for (Map.Entry<String, Integer> binding : bindings.entrySet()) {
+			line.append(' ').append(binding.getKey()).append('=').append(binding.getValue());
+		}
+		return line.toString();
+	}
+
+	@Override
+	public void close() throws IOException {
+		socket.close();
+	}
+
+	public static void main(String[] args) throws Exception {
+		String host = "localhost";
+		int port = 7070, connections = 16, depth = 64, expressions = 100, size = 15;
+		long millis = 5000;
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			String value = args[i + 1];
+			if (args[i].equals("-host")) {
+				host = value;
+			} else if (args[i].equals("-port")) {
+				port = Integer.parseInt(value);
+			} else if (args[i].equals("-connections")) {
+				connections = Integer.parseInt(value);
+			} else if (args[i].equals("-depth")) {
+				depth = Integer.parseInt(value);
+			} else if (args[i].equals("-expressions")) {
+				expressions = Integer.parseInt(value);
+			} else if (args[i].equals("-size")) {
+				size = Integer.parseInt(value);
+			} else if (args[i].equals("-millis")) {
+				millis = Long.parseLong(value);
+			} else {
+				throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+		}
+
+		String[] prefixes = new String[expressions];
+		ExpressionGenerator generator = new ExpressionGenerator(expressions);
+		for (int i = 0; i < expressions; i++) {
+			prefixes[i] = generator.prefix(size | 1);
+		}
+
+		LongAdder completed = new LongAdder();
+		AtomicBoolean stop = new AtomicBoolean();
+		CountDownLatch done = new CountDownLatch(connections);
+		int batch = depth;
+		for (int c = 0; c < connections; c++) {
+			ExpressionClient client = new ExpressionClient(host, port);
+			new Thread(() -> {
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				String[] requests = new String[batch];
+				try (ExpressionClient connection = client) {
+					while (!stop.get()) {
+						for (int i = 0; i < batch; i++) {
+							requests[i] = prefixes[random.nextInt(prefixes.length)] + " ; a=" + random.nextInt(100)
+									+ " x=" + random.nextInt(100);
+						}
+						connection.evaluateAll(requests);
+						completed.add(batch);
+					}
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+				done.countDown();
+			}).start();
+		}
+		long start = System.nanoTime();
+		Thread.sleep(millis);
+		stop.set(true);
+		done.await();
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("%d connections, %d in flight each: %.0f requests/s%n", connections, depth,
+				completed.sum() / seconds);
+	}
+}
@@ -0,0 +1,26 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event covering one call of an Assignment method. Events
+ * are created and committed by ExpressionProbe.
+ */
+@Name("Assignment.Expression")
+@Label("Expression Operation")
+@Category("Assignment")
+@Description("One call of an Assignment expression method")
+class ExpressionEvent extends Event {
+
+	@Label("Operation")
+	String operation;
+
+	@Label("Nodes")
+	@Description("Number of nodes in the tree the operation read or produced, or -1 if not known without counting")
+	int nodes = -1;
+
+	@Label("Succeeded")
+	boolean succeeded;
+}
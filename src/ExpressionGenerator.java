@@ -0,0 +1,348 @@
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Random;
+
+import textbook.LinkedBinaryTree;
+import textbook.Position;
+
+/**
+ * Generates reproducible random arithmetic expressions, either as prefix
+ * notation written to an Appendable or directly as a LinkedBinaryTree.
+ * 
+ * The same seed and settings always produce the same sequence of
+ * expressions. Generation is iterative, so expressions of any shape and
+ * size can be produced without running out of stack.
+ * 
+ * Usage: java ExpressionGenerator seed size count [file] writes count
+ * expressions of size nodes, one per line, to the file (or standard output)
+ */
+public class ExpressionGenerator {
+
+	/** The ways an internal node can split its nodes between its subtrees */
+	public enum Shape {
+		/** as even a split as possible */
+		BALANCED,
+		/** everything but one leaf goes to the left subtree */
+		LEFT,
+		/** everything but one leaf goes to the right subtree */
+		RIGHT,
+		/** a uniformly random split */
+		RANDOM
+	}
+
+	/** Number of characters buffered before being handed to the Appendable */
+	private static final int CHUNK = 8192;
+
+	private final Random random;
+	private int[] shapeWeights = { 0, 0, 0, 1 };
+	private int[] operatorWeights = { 1, 1, 1 };
+	private String[] variables = { "a", "b", "c", "x", "y", "z" };
+	private double constantDensity = 0.3;
+	private int maxConstant = 9;
+
+	/**
+	 * Constructs a generator with the given seed, producing random shapes with
+	 * an even mix of operators, the variables a, b, c, x, y, z and 30% of the
+	 * leaves constants between 0 and 9
+	 * 
+	 * @param seed
+	 *            - the seed of the random sequence
+	 */
+	public ExpressionGenerator(long seed) {
+		random = new Random(seed);
+	}
+
+	/**
+	 * Sets the relative weight of each shape, chosen afresh at every internal
+	 * node
+	 * 
+	 * @param balanced
+	 * @param left
+	 * @param right
+	 * @param random
+	 * @throws IllegalArgumentException
+	 *             if a weight is negative or they are all zero
+	 */
+	public void setShapeWeights(int balanced, int left, int right, int random) throws IllegalArgumentException {
+		shapeWeights = checkWeights(new int[] { balanced, left, right, random });
+	}
+
+	/**
+	 * Uses the given shape at every internal node
+	 * 
+	 * @param shape
+	 */
+	public void setShape(Shape shape) {
+		shapeWeights = new int[Shape.values().length];
+		shapeWeights[shape.ordinal()] = 1;
+	}
+
+	/**
+	 * Sets the relative weight of each operator
+	 * 
+	 * @param plus
+	 *            - weight of +
+	 * @param minus
+	 *            - weight of -
+	 * @param times
+	 *            - weight of *
+	 * @throws IllegalArgumentException
+	 *             if a weight is negative or they are all zero
+	 */
+	public void setOperatorWeights(int plus, int minus, int times) throws IllegalArgumentException {
+		operatorWeights = checkWeights(new int[] { plus, minus, times });
+	}
+
+	/**
+	 * Sets the variable labels leaves are drawn from
+	 * 
+	 * @param vocabulary
+	 * @throws IllegalArgumentException
+	 *             if vocabulary is null or empty
+	 */
+	public void setVariables(String... vocabulary) throws IllegalArgumentException {
+		if (vocabulary == null || vocabulary.length == 0) {
+			throw new IllegalArgumentException("Variable vocabulary was empty");
+		}
+		variables = vocabulary.clone();
+	}
+
+	/**
+	 * Sets the fraction of leaves which are constants rather than variables,
+	 * and the largest constant generated
+	 * 
+	 * @param density
+	 *            - between 0 and 1
+	 * @param max
+	 *            - constants are drawn uniformly from 0 to max
+	 * @throws IllegalArgumentException
+	 *             if density is outside [0, 1] or max is negative
+	 */
+	public void setConstants(double density, int max) throws IllegalArgumentException {
+		if (!(density >= 0 && density <= 1) || max < 0) {
+			throw new IllegalArgumentException("Invalid constant settings");
+		}
+		constantDensity = density;
+		maxConstant = max;
+	}
+
+	/**
+	 * Writes the next expression, in prefix notation, to out
+	 * 
+	 * @param size
+	 *            - the number of nodes (rounded down to an odd number)
+	 * @param out
+	 * @throws IOException
+	 *             if out fails
+	 * @throws IllegalArgumentException
+	 *             if size is less than one
+	 */
+	public void writePrefix(int size, Appendable out) throws IOException, IllegalArgumentException {
+		if (size < 1) {
+			throw new IllegalArgumentException("Size must be at least one");
+		}
+		StringBuilder buffer = new StringBuilder(CHUNK + 32);
+		int[] pending = new int[64];
+		int top = 0;
+		pending[top++] = (size - 1) | 1;
+		boolean first = true;
+		while (top > 0) {
+			int nodes = pending[--top];
+			if (!first) {
+				buffer.append(' ');
+			}
+			first = false;
+			if (nodes == 1) {
+				appendLeaf(buffer);
+			} else {
+				buffer.append(nextOperator());
+				int left = split(nodes - 1);
+				if (top + 2 > pending.length) {
+					pending = Arrays.copyOf(pending, 2 * pending.length);
+				}
+				pending[top++] = nodes - 1 - left;
+				pending[top++] = left;
+			}
+			if (buffer.length() >= CHUNK) {
+				out.append(buffer);
+				buffer.setLength(0);
+			}
+		}
+		out.append(buffer);
+	}
+
+	/**
+	 * Returns the next expression in prefix notation
+	 * 
+	 * @param size
+	 *            - the number of nodes (rounded down to an odd number)
+	 * @return prefix notation expression
+	 * @throws IllegalArgumentException
+	 *             if size is less than one
+	 */
+	public String prefix(int size) throws IllegalArgumentException {
+		// about three characters a node, short of overflowing the capacity
+		StringBuilder prefix = new StringBuilder(Math.max(Math.min(size, Integer.MAX_VALUE / 3), 0) * 3);
+		try {
+			writePrefix(size, prefix);
+		} catch (IOException e) {
+			throw new IllegalStateException(e); // StringBuilder never fails
+		}
+		return prefix.toString();
+	}
+
+	/**
+	 * Returns the next expression as a tree, built directly rather than by
+	 * parsing. The same seed gives the same expression as prefix(size).
+	 * 
+	 * @param size
+	 *            - the number of nodes (rounded down to an odd number)
+	 * @return tree representing the expression
+	 * @throws IllegalArgumentException
+	 *             if size is less than one
+	 */
+	public LinkedBinaryTree<String> tree(int size) throws IllegalArgumentException {
+		if (size < 1) {
+			throw new IllegalArgumentException("Size must be at least one");
+		}
+		LinkedBinaryTree.TreeBuilder<String> builder = new LinkedBinaryTree<String>().builder();
+		StringBuilder leaf = new StringBuilder();
+		// subtrees still to generate: their size, and the parent they hang from
+		int[] pending = new int[64];
+		@SuppressWarnings("unchecked")
+		Position<String>[] parents = (Position<String>[]) new Position<?>[64];
+		boolean[] isLeft = new boolean[64];
+		int top = 0;
+		pending[top++] = (size - 1) | 1;
+		Position<String> root = null;
+		while (top > 0) {
+			top--;
+			int nodes = pending[top];
+			Position<String> parent = parents[top];
+			boolean left = isLeft[top];
+			Position<String> p;
+			if (nodes == 1) {
+				leaf.setLength(0);
+				appendLeaf(leaf);
+				p = builder.node(leaf.toString());
+			} else {
+				p = builder.node(String.valueOf(nextOperator()));
+				int leftNodes = split(nodes - 1);
+				if (top + 2 > pending.length) {
+					pending = Arrays.copyOf(pending, 2 * pending.length);
+					parents = Arrays.copyOf(parents, 2 * parents.length);
+					isLeft = Arrays.copyOf(isLeft, 2 * isLeft.length);
+				}
+				pending[top] = nodes - 1 - leftNodes;
+				parents[top] = p;
+				isLeft[top++] = false;
+				pending[top] = leftNodes;
+				parents[top] = p;
+				isLeft[top++] = true;
+			}
+			if (parent == null) {
+				root = p;
+			} else if (left) {
+				builder.setLeft(parent, p);
+			} else {
+				builder.setRight(parent, p);
+			}
+		}
+		return builder.build(root);
+	}
+
+	/** Helper method to append a random variable or constant */
+	private void appendLeaf(StringBuilder out) {
+		if (random.nextDouble() < constantDensity) {
+			// maxConstant + 1 would overflow for Integer.MAX_VALUE, where
+			// every non-negative int is equally likely
+			out.append(maxConstant == Integer.MAX_VALUE ? random.nextInt() & Integer.MAX_VALUE
+					: random.nextInt(maxConstant + 1));
+		} else {
+			out.append(variables[random.nextInt(variables.length)]);
+		}
+	}
+
+	/** Helper method to choose a random operator according to the weights */
+	private char nextOperator() {
+		return "+-*".charAt(choose(operatorWeights));
+	}
+
+	/**
+	 * Helper method to choose how many of the (even number of) children nodes
+	 * go to the left subtree, according to a randomly chosen shape
+	 */
+	private int split(int children) {
+		switch (Shape.values()[choose(shapeWeights)]) {
+		case LEFT:
+			return children - 1;
+		case RIGHT:
+			return 1;
+		case RANDOM:
+			return 2 * random.nextInt(children / 2) + 1;
+		default:
+			int left = (children / 2) | 1;
+			return left < children ? left : left - 2;
+		}
+	}
+
+	/** Helper method to pick an index with probability proportional to its weight */
+	private int choose(int[] weights) {
+		int total = 0;
+		int only = -1;
+		for (int i = 0; i < weights.length; i++) {
+			total += weights[i];
+			if (weights[i] > 0) {
+				only = (only == -1) ? i : -2;
+			}
+		}
+		if (only >= 0) {
+			return only; // no need to draw when there is a single choice
+		}
+		int pick = random.nextInt(total);
+		int i = 0;
+		while (pick >= weights[i]) {
+			pick -= weights[i];
+			i++;
+		}
+		return i;
+	}
+
+	/** Helper method to check a set of weights */
+	private static int[] checkWeights(int[] weights) throws IllegalArgumentException {
+		int total = 0;
+		for (int weight : weights) {
+			if (weight < 0) {
+				throw new IllegalArgumentException("Weights must not be negative");
+			}
+			total += weight;
+		}
+		if (total <= 0) {
+			throw new IllegalArgumentException("At least one weight must be positive");
+		}
+		return weights;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 3) {
+			System.err.println("Usage: java ExpressionGenerator seed size count [file]");
+			System.exit(1);
+		}
+		ExpressionGenerator generator = new ExpressionGenerator(Long.parseLong(args[0]));
+		int size = Integer.parseInt(args[1]);
+		long count = Long.parseLong(args[2]);
+		Writer out = new BufferedWriter(args.length > 3 ? new FileWriter(args[3]) : new OutputStreamWriter(System.out), 1 << 16);
+		try {
+			for (long i = 0; i < count; i++) {
+				generator.writePrefix(size, out);
+				out.append('\n');
+			}
+		} finally {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,137 @@
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counters and latency histograms for each Assignment operation, published
+ * as the MXBean "Assignment:type=ExpressionMetrics" once register() is
+ * called. Nothing is registered otherwise, so using Assignment never starts
+ * the platform MBean server by itself.
+ * 
+ * Recording is off until enabled, through setEnabled or over JMX, and while
+ * it is off an operation costs a single volatile read.
+ */
+public class ExpressionMetrics implements ExpressionMetricsMXBean {
+
+	/** Number of latency buckets, the last one open ended */
+	static final int BUCKETS = 32;
+
+	/** The single instance */
+	private static final ExpressionMetrics INSTANCE = new ExpressionMetrics();
+
+	/** Whether calls are being recorded */
+	private static volatile boolean enabled = false;
+
+	// per operation counters, indexed by ExpressionProbe operation number
+	private final AtomicLongArray calls = new AtomicLongArray(ExpressionProbe.OPERATIONS.length);
+	private final AtomicLongArray failures = new AtomicLongArray(ExpressionProbe.OPERATIONS.length);
+	private final AtomicLongArray totalNanos = new AtomicLongArray(ExpressionProbe.OPERATIONS.length);
+	private final AtomicLongArray histograms = new AtomicLongArray(ExpressionProbe.OPERATIONS.length * BUCKETS);
+
+	private ExpressionMetrics() { }
+
+	/**
+	 * @return the single instance
+	 */
+	public static ExpressionMetrics get() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Registers the metrics with the platform MBean server, if they are not
+	 * registered already
+	 * 
+	 * @throws IllegalStateException
+	 *             if registration fails
+	 */
+	public static synchronized void register() throws IllegalStateException {
+		try {
+			ObjectName name = new ObjectName("Assignment:type=ExpressionMetrics");
+			if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+				ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, name);
+			}
+		} catch (JMException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/** Whether calls are being recorded, read on every operation */
+	static boolean recording() {
+		return enabled;
+	}
+
+	/** Records one call of the given operation */
+	void record(int operation, long nanos, boolean failed) {
+		calls.incrementAndGet(operation);
+		if (failed) {
+			failures.incrementAndGet(operation);
+		}
+		totalNanos.addAndGet(operation, nanos);
+		long micros = nanos / 1000;
+		int bucket = 64 - Long.numberOfLeadingZeros(micros);
+		histograms.incrementAndGet(operation * BUCKETS + Math.min(bucket, BUCKETS - 1));
+	}
+
+	@Override
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	@Override
+	public void setEnabled(boolean on) {
+		enabled = on;
+	}
+
+	@Override
+	public Map<String, Long> getCalls() {
+		return snapshot(calls);
+	}
+
+	@Override
+	public Map<String, Long> getFailures() {
+		return snapshot(failures);
+	}
+
+	@Override
+	public Map<String, Long> getTotalNanos() {
+		return snapshot(totalNanos);
+	}
+
+	@Override
+	public Map<String, long[]> getLatencyHistograms() {
+		Map<String, long[]> result = new TreeMap<String, long[]>();
+		for (int i = 0; i < ExpressionProbe.OPERATIONS.length; i++) {
+			long[] buckets = new long[BUCKETS];
+			for (int j = 0; j < BUCKETS; j++) {
+				buckets[j] = histograms.get(i * BUCKETS + j);
+			}
+			result.put(ExpressionProbe.OPERATIONS[i], buckets);
+		}
+		return result;
+	}
+
+	@Override
+	public void reset() {
+		for (int i = 0; i < calls.length(); i++) {
+			calls.set(i, 0);
+			failures.set(i, 0);
+			totalNanos.set(i, 0);
+		}
+		for (int i = 0; i < histograms.length(); i++) {
+			histograms.set(i, 0);
+		}
+	}
+
+	/** Helper method to copy a row of counters into a map by operation name */
+	private static Map<String, Long> snapshot(AtomicLongArray counters) {
+		Map<String, Long> result = new TreeMap<String, Long>();
+		for (int i = 0; i < counters.length(); i++) {
+			result.put(ExpressionProbe.OPERATIONS[i], counters.get(i));
+		}
+		return result;
+	}
+}
@@ -0,0 +1,48 @@
+import java.util.Map;
+
+/**
+ * Management interface of ExpressionMetrics: per operation counters and
+ * latency histograms for the Assignment methods
+ */
+public interface ExpressionMetricsMXBean {
+
+	/**
+	 * @return whether calls are being recorded
+	 */
+	boolean isEnabled();
+
+	/**
+	 * Turns recording on or off. While off, the Assignment methods do no
+	 * timing at all.
+	 * 
+	 * @param enabled
+	 */
+	void setEnabled(boolean enabled);
+
+	/**
+	 * @return number of calls of each operation
+	 */
+	Map<String, Long> getCalls();
+
+	/**
+	 * @return number of calls of each operation which threw an exception
+	 */
+	Map<String, Long> getFailures();
+
+	/**
+	 * @return total time spent in each operation, in nanoseconds
+	 */
+	Map<String, Long> getTotalNanos();
+
+	/**
+	 * @return for each operation, the number of calls whose latency in
+	 *         microseconds fell in [2^(i-1), 2^i) for bucket i (bucket 0
+	 *         counts calls under a microsecond)
+	 */
+	Map<String, long[]> getLatencyHistograms();
+
+	/**
+	 * Clears all counters and histograms
+	 */
+	void reset();
+}
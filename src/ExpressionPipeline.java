@@ -0,0 +1,483 @@
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import textbook.LinkedBinaryTree;
+
+/**
+ * Processes a stream of expressions in prefix notation through the stages
+ * parse, validate, substitute, simplify and render, as a chain of
+ * java.util.concurrent.Flow processors.
+ *
+ * Each stage has its own pool of worker threads, and takes at most as many
+ * jobs from the stage before as it has workers; finished jobs wait in a
+ * bounded buffer for the stage after. When a buffer is full the workers
+ * feeding it block, stop asking for more, and so on back to submit, which
+ * blocks too. A slow subscriber therefore slows ingestion down rather than
+ * letting jobs pile up, and the jobs in flight never number more than the
+ * sum of the buffer sizes and worker counts.
+ *
+ * A job which fails, for example on an invalid expression, carries its
+ * exception to the subscriber instead of a result, and the others carry on.
+ * With more than one worker in a stage, jobs may overtake each other; each
+ * job has the index of its submission.
+ *
+ * If the subscriber cancels, each stage cancels its own subscription in
+ * turn, jobs in flight are dropped without further work, and expressions
+ * submitted afterwards are dropped as well.
+ *
+ * Usage: java ExpressionPipeline count size [file] generates count
+ * expressions of size nodes, substitutes x = 1 and y = 2, simplifies them and
+ * writes them out one per line to the file (or standard output), reporting
+ * the throughput on standard error
+ */
+public class ExpressionPipeline implements Flow.Publisher<ExpressionPipeline.Job> {
+
+	/** The stages, in order */
+	public enum Stage {
+		PARSE, VALIDATE, SUBSTITUTE, SIMPLIFY, RENDER
+	}
+
+	/** Default number of jobs buffered between stages */
+	public static final int BUFFER = 256;
+
+	/** Milliseconds submit waits for room at a time */
+	private static final long WAIT = 10;
+
+	/**
+	 * Threads handing buffered jobs on to the next stage, shared by every
+	 * pipeline; they only ever wait for work, and end when idle
+	 */
+	private static final ExecutorService DELIVERY = Executors.newCachedThreadPool(ExpressionPipeline::daemon);
+
+	//---- nested Job class ----
+	/** An expression on its way through the pipeline */
+	public static final class Job {
+		private final long index;
+		private final String input;
+		private LinkedBinaryTree<String> tree;
+		private String output;
+		private RuntimeException error;
+
+		Job(long index, String input) {
+			this.index = index;
+			this.input = input;
+		}
+
+		/** @return the number of jobs submitted before this one */
+		public long index() {
+			return index;
+		}
+
+		/** @return the expression submitted */
+		public String input() {
+			return input;
+		}
+
+		/** @return the simplified expression in prefix notation, or null if the job failed */
+		public String output() {
+			return output;
+		}
+
+		/** @return the exception the job failed with, or null */
+		public RuntimeException error() {
+			return error;
+		}
+	}
+
+	private final HashMap<String, Integer> bindings;
+	private final boolean fancy;
+	private final EnumMap<Stage, Integer> workers = new EnumMap<Stage, Integer>(Stage.class);
+	private final EnumMap<Stage, Integer> buffers = new EnumMap<Stage, Integer>(Stage.class);
+
+	private volatile SubmissionPublisher<Job> source; // null until subscribed
+	private final AtomicLong submitted = new AtomicLong();
+
+	/**
+	 * Constructs a pipeline with one worker per stage
+	 *
+	 * @param bindings
+	 *            - the values to substitute for variables, which may be empty
+	 * @param fancy
+	 *            - whether to simplify with simplifyFancy rather than simplify
+	 * @throws IllegalArgumentException
+	 *             if bindings is null or binds a variable to null
+	 */
+	public ExpressionPipeline(HashMap<String, Integer> bindings, boolean fancy) throws IllegalArgumentException {
+		if (bindings == null || bindings.containsValue(null)) {
+			throw new IllegalArgumentException();
+		}
+		this.bindings = new HashMap<String, Integer>(bindings);
+		this.fancy = fancy;
+		for (Stage stage : Stage.values()) {
+			workers.put(stage, 1);
+			buffers.put(stage, BUFFER);
+		}
+	}
+
+	/**
+	 * Sets the number of worker threads of a stage, before subscribing
+	 *
+	 * @param stage
+	 * @param count
+	 *            - the number of workers
+	 * @return this pipeline
+	 * @throws IllegalArgumentException
+	 *             if count is not positive
+	 * @throws IllegalStateException
+	 *             if the pipeline has started
+	 */
+	public ExpressionPipeline setWorkers(Stage stage, int count) throws IllegalArgumentException, IllegalStateException {
+		checkSetting(count);
+		workers.put(stage, count);
+		return this;
+	}
+
+	/**
+	 * Sets the number of jobs buffered ahead of a stage, before subscribing
+	 *
+	 * @param stage
+	 * @param size
+	 *            - the buffer size, rounded up to a power of two
+	 * @return this pipeline
+	 * @throws IllegalArgumentException
+	 *             if size is not positive
+	 * @throws IllegalStateException
+	 *             if the pipeline has started
+	 */
+	public ExpressionPipeline setBuffer(Stage stage, int size) throws IllegalArgumentException, IllegalStateException {
+		checkSetting(size);
+		buffers.put(stage, size);
+		return this;
+	}
+
+	/**
+	 * Connects the subscriber to the end of the pipeline and starts it. A
+	 * pipeline has one subscriber.
+	 *
+	 * @throws IllegalStateException
+	 *             if the pipeline already has a subscriber
+	 */
+	@Override
+	public synchronized void subscribe(Flow.Subscriber<? super Job> subscriber) throws IllegalStateException {
+		if (source != null) {
+			throw new IllegalStateException("Pipeline already has a subscriber");
+		}
+		SubmissionPublisher<Job> first = new SubmissionPublisher<Job>(DELIVERY, buffers.get(Stage.PARSE));
+		Flow.Publisher<Job> upstream = first;
+		Stage[] stages = Stage.values();
+		for (int i = 0; i < stages.length; i++) {
+			// the buffer a stage publishes into is the one ahead of the next stage
+			int buffer = i + 1 < stages.length ? buffers.get(stages[i + 1]) : buffers.get(stages[i]);
+			Processor stage = new Processor(stages[i], workers.get(stages[i]), buffer);
+			upstream.subscribe(stage);
+			upstream = stage;
+		}
+		upstream.subscribe(subscriber);
+		source = first; // only now may jobs be submitted
+	}
+
+	/**
+	 * Submits an expression, blocking while the pipeline is full. Any number
+	 * of threads may submit at once. While blocked, submit never holds a lock
+	 * for more than a few milliseconds at a time, so closeExceptionally can
+	 * always abort a stalled pipeline.
+	 *
+	 * @param prefix
+	 *            - an expression in prefix notation
+	 * @throws IllegalStateException
+	 *             if the pipeline has no subscriber yet, or has been closed
+	 */
+	public void submit(String prefix) throws IllegalStateException {
+		SubmissionPublisher<Job> source = this.source;
+		if (source == null) {
+			throw new IllegalStateException("Pipeline has no subscriber");
+		}
+		Job job = new Job(submitted.getAndIncrement(), prefix);
+		// SubmissionPublisher holds its lock while it waits for room, which
+		// would keep closeExceptionally out, so wait a little at a time; once
+		// closed, offer throws IllegalStateException
+		while (source.offer(job, WAIT, TimeUnit.MILLISECONDS, null) < 0) {
+			// not taken in time, so dropped; offer it again
+		}
+	}
+
+	/**
+	 * Signals that nothing more will be submitted. The subscriber's
+	 * onComplete is called once every job has been delivered.
+	 */
+	public void close() {
+		SubmissionPublisher<Job> source = this.source;
+		if (source != null) {
+			source.close();
+		}
+	}
+
+	/**
+	 * Signals that nothing more will be submitted because the producer
+	 * failed. Jobs not yet taken up by a stage may be dropped; those being
+	 * worked on are delivered, and then the subscriber's onError is called
+	 * with the given error. A producer blocked in submit is released, and
+	 * its submit throws IllegalStateException.
+	 *
+	 * @param error
+	 * @throws IllegalArgumentException
+	 *             if error is null
+	 */
+	public void closeExceptionally(Throwable error) throws IllegalArgumentException {
+		if (error == null) {
+			throw new IllegalArgumentException();
+		}
+		SubmissionPublisher<Job> source = this.source;
+		if (source != null) {
+			source.closeExceptionally(error);
+		}
+	}
+
+	/** Runs one stage's work on a job which has not failed */
+	private void process(Stage stage, Job job) {
+		switch (stage) {
+		case PARSE:
+			job.tree = Assignment.prefix2tree(job.input);
+			break;
+		case VALIDATE:
+			if (!Assignment.isArithmeticExpression(job.tree)) {
+				throw new IllegalArgumentException();
+			}
+			break;
+		case SUBSTITUTE:
+			if (!bindings.isEmpty()) {
+				job.tree = Assignment.substitute(job.tree, bindings);
+			}
+			break;
+		case SIMPLIFY:
+			job.tree = fancy ? Assignment.simplifyFancy(job.tree) : Assignment.simplify(job.tree);
+			break;
+		case RENDER:
+			job.output = Assignment.tree2prefix(job.tree);
+			job.tree = null;
+			break;
+		}
+	}
+
+	private synchronized void checkSetting(int value) throws IllegalArgumentException, IllegalStateException {
+		if (value < 1) {
+			throw new IllegalArgumentException();
+		}
+		if (source != null) {
+			throw new IllegalStateException("Pipeline has started");
+		}
+	}
+
+	private static Thread daemon(Runnable task) {
+		Thread thread = new Thread(task);
+		thread.setDaemon(true);
+		return thread;
+	}
+
+	//---- nested Processor class ----
+	/**
+	 * One stage: takes up to one job per worker from upstream, and publishes
+	 * finished jobs into a bounded buffer for downstream. When its subscriber
+	 * cancels, it cancels upstream in turn.
+	 */
+	private final class Processor extends SubmissionPublisher<Job> implements Flow.Processor<Job, Job> {
+		private final Stage stage;
+		private final ExecutorService pool;
+		private final int count;
+		private final AtomicInteger running = new AtomicInteger();
+		private final AtomicBoolean finished = new AtomicBoolean();
+		private volatile boolean upstreamDone;
+		private Throwable upstreamError; // published by the write to upstreamDone
+		private final AtomicInteger subscribers = new AtomicInteger(); // downstream, not cancelled
+		private volatile boolean cancelled; // downstream has gone away
+		private volatile Flow.Subscription subscription;
+
+		Processor(Stage stage, int count, int buffer) {
+			super(DELIVERY, buffer);
+			this.stage = stage;
+			this.count = count;
+			pool = Executors.newFixedThreadPool(count, ExpressionPipeline::daemon);
+		}
+
+		/** Subscribes downstream, cancelling upstream when it cancels */
+		@Override
+		public void subscribe(Flow.Subscriber<? super Job> subscriber) {
+			subscribers.incrementAndGet();
+			super.subscribe(new Flow.Subscriber<Job>() {
+				public void onSubscribe(Flow.Subscription subscription) {
+					AtomicBoolean gone = new AtomicBoolean();
+					subscriber.onSubscribe(new Flow.Subscription() {
+						public void request(long n) {
+							subscription.request(n);
+						}
+
+						public void cancel() {
+							subscription.cancel();
+							// counted here, as the publisher drops the subscription later
+							if (gone.compareAndSet(false, true) && subscribers.decrementAndGet() == 0) {
+								cancelUpstream();
+							}
+						}
+					});
+				}
+
+				public void onNext(Job job) {
+					subscriber.onNext(job);
+				}
+
+				public void onError(Throwable throwable) {
+					subscriber.onError(throwable);
+				}
+
+				public void onComplete() {
+					subscriber.onComplete();
+				}
+			});
+		}
+
+		public void onSubscribe(Flow.Subscription subscription) {
+			this.subscription = subscription;
+			if (cancelled) {
+				subscription.cancel(); // downstream went away first
+			} else {
+				subscription.request(count);
+			}
+		}
+
+		public void onNext(Job job) {
+			running.incrementAndGet();
+			pool.execute(() -> {
+				try {
+					if (cancelled) {
+						return; // nobody is left to deliver to
+					}
+					if (job.error == null) {
+						try {
+							process(stage, job);
+						} catch (RuntimeException e) {
+							job.error = e;
+							job.tree = null;
+						}
+					}
+					submit(job); // blocks while downstream's buffer is full
+					subscription.request(1);
+				} finally {
+					// the last job out closes the stage, once upstream is done
+					if (running.decrementAndGet() == 0 && upstreamDone) {
+						finish();
+					}
+				}
+			});
+		}
+
+		public void onError(Throwable throwable) {
+			// jobs still being worked on are delivered before the error
+			upstreamError = throwable;
+			upstreamDone = true;
+			if (running.get() == 0) {
+				finish();
+			}
+		}
+
+		public void onComplete() {
+			upstreamDone = true;
+			if (running.get() == 0) {
+				finish();
+			}
+		}
+
+		/** Stops taking jobs, finishing once those being worked on are dropped */
+		private void cancelUpstream() {
+			cancelled = true;
+			Flow.Subscription subscription = this.subscription;
+			if (subscription != null) {
+				subscription.cancel();
+			}
+			upstreamDone = true;
+			if (running.get() == 0) {
+				finish();
+			}
+		}
+
+		private void finish() {
+			if (finished.compareAndSet(false, true)) {
+				if (upstreamError != null) {
+					closeExceptionally(upstreamError);
+				} else {
+					close();
+				}
+				pool.shutdown();
+			}
+		}
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length < 2) {
+			System.err.println("Usage: java ExpressionPipeline count size [file]");
+			return;
+		}
+		long count = Long.parseLong(args[0]);
+		int size = Integer.parseInt(args[1]);
+		Writer out = args.length > 2 ? new BufferedWriter(new FileWriter(args[2]))
+				: new BufferedWriter(new OutputStreamWriter(System.out));
+		HashMap<String, Integer> bindings = new HashMap<String, Integer>();
+		bindings.put("x", 1);
+		bindings.put("y", 2);
+		ExpressionPipeline pipeline = new ExpressionPipeline(bindings, true);
+		CountDownLatch done = new CountDownLatch(1);
+		pipeline.subscribe(new Flow.Subscriber<Job>() {
+			private Flow.Subscription subscription;
+
+			public void onSubscribe(Flow.Subscription subscription) {
+				this.subscription = subscription;
+				subscription.request(BUFFER);
+			}
+
+			public void onNext(Job job) {
+				try {
+					out.write(job.error == null ? job.output : "error: " + job.error);
+					out.write('\n');
+				} catch (IOException e) {
+					subscription.cancel();
+					done.countDown();
+					return;
+				}
+				subscription.request(1);
+			}
+
+			public void onError(Throwable throwable) {
+				throwable.printStackTrace();
+				done.countDown();
+			}
+
+			public void onComplete() {
+				done.countDown();
+			}
+		});
+
+		long start = System.nanoTime();
+		ExpressionGenerator generator = new ExpressionGenerator(count);
+		for (long i = 0; i < count; i++) {
+			pipeline.submit(generator.prefix(size | 1));
+		}
+		pipeline.close();
+		done.await();
+		out.close();
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.err.printf("%d expressions in %.2f s, %.0f expressions/s%n", count, seconds, count / seconds);
+	}
+}
@@ -0,0 +1,111 @@
+import jdk.jfr.FlightRecorder;
+
+import textbook.BinaryTree;
+import textbook.LinkedBinaryTree;
+
+/**
+ * Times one call of an Assignment method, feeding ExpressionMetrics and, once
+ * the flight recorder is running, an ExpressionEvent.
+ * 
+ * Usage inside an Assignment method:
+ * 
+ * <pre>
+ * ExpressionProbe probe = ExpressionProbe.start(ExpressionProbe.SIMPLIFY);
+ * ...
+ * probe.finish(tree, succeeded);
+ * </pre>
+ * 
+ * When neither the metrics nor the flight recorder are on, start returns a
+ * shared probe which does nothing, so the cost is two flag reads. The event
+ * class is not even loaded until the flight recorder has been started, as
+ * initialising it takes a noticeable time. An event records the size of the
+ * tree only when it is known without counting the nodes, so that recording
+ * does not change the cost of an operation.
+ */
+final class ExpressionProbe {
+
+	/** Operation numbers */
+	static final int PREFIX2TREE = 0, POSTFIX2TREE = 1, INFIX2TREE = 2, TREE2PREFIX = 3, TREE2POSTFIX = 4,
+			TREE2INFIX = 5, SIMPLIFY = 6, SIMPLIFY_FANCY = 7, SUBSTITUTE = 8, EQUALS = 9, IS_ARITHMETIC_EXPRESSION = 10,
+			EQUIVALENT = 11, NORMALIZE = 12, REBALANCE = 13,
+			PARTIAL_EVALUATE = 14, INDEX = 15, RENDERED = 16, FREE_VARIABLES = 17, OCCURRENCES = 18;
+
+	/** Operation names, indexed by operation number */
+	static final String[] OPERATIONS = { "prefix2tree", "postfix2tree", "infix2tree", "tree2prefix", "tree2postfix",
+			"tree2infix", "simplify", "simplifyFancy", "substitute", "equals", "isArithmeticExpression",
+			"equivalent", "normalize", "rebalance", "partialEvaluate", "index", "rendered", "freeVariables",
+			"occurrences" };
+
+	/** The probe handed out while nothing is listening */
+	private static final ExpressionProbe DISABLED = new ExpressionProbe(0, 0, null);
+
+	private final int operation;
+	private final long start; // 0 when the metrics are off
+	private final ExpressionEvent event; // null when the flight recorder is off
+
+	private ExpressionProbe(int operation, long start, ExpressionEvent event) {
+		this.operation = operation;
+		this.start = start;
+		this.event = event;
+	}
+
+	/**
+	 * Begins timing a call of the given operation
+	 * 
+	 * @param operation
+	 *            - one of the operation numbers
+	 * @return the probe to finish when the call returns
+	 */
+	static ExpressionProbe start(int operation) {
+		boolean metrics = ExpressionMetrics.recording();
+		boolean recorder = FlightRecorder.isInitialized();
+		if (!metrics && !recorder) {
+			return DISABLED;
+		}
+		ExpressionEvent event = null;
+		if (recorder) {
+			event = new ExpressionEvent();
+			event.begin();
+		}
+		return new ExpressionProbe(operation, metrics ? System.nanoTime() : 0, event);
+	}
+
+	/**
+	 * Ends timing the call, committing the event if it is being recorded
+	 * 
+	 * @param tree
+	 *            - the tree read or produced by the call (may be null)
+	 * @param ok
+	 *            - false if the call is ending with an exception
+	 */
+	void finish(BinaryTree<String> tree, boolean ok) {
+		if (start != 0) {
+			ExpressionMetrics.get().record(operation, System.nanoTime() - start, !ok);
+		}
+		if (event != null) {
+			event.end();
+			if (event.shouldCommit()) {
+				event.operation = OPERATIONS[operation];
+				event.succeeded = ok;
+				if (tree != null) {
+					event.nodes = knownSize(tree);
+				}
+				event.commit();
+			}
+		}
+	}
+
+	/**
+	 * Helper method to find the size of a tree only if it is known without
+	 * counting, so that recording does not make an O(1) operation O(n)
+	 */
+	private static int knownSize(BinaryTree<String> tree) {
+		if (tree instanceof LinkedBinaryTree) {
+			return ((LinkedBinaryTree<String>) tree).knownSize();
+		}
+		if (tree instanceof SuccinctExpressionTree || tree instanceof OffHeapExpressionTree) {
+			return tree.size(); // fixed when made
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,159 @@
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.UnaryOperator;
+
+import textbook.BinaryTree;
+import textbook.LinkedBinaryTree;
+
+/**
+ * A thread safe registry of named expressions, for many readers and a few
+ * writers.
+ *
+ * Each expression is kept as an immutable snapshot, a SuccinctExpressionTree,
+ * whose fields are all final and never written after construction, so a
+ * snapshot handed out by get can be read by any number of threads without
+ * locking. The name index is a ConcurrentHashMap: lookups never lock, and
+ * writers to different names mostly lock different bins.
+ *
+ * Updates are copy-on-write: update copies the current snapshot into a
+ * LinkedBinaryTree, lets the caller change the copy, encodes the result as a
+ * new snapshot, and installs it only if the name still maps to the snapshot
+ * it started from, trying again otherwise. Readers holding the old snapshot
+ * keep seeing the expression as it was.
+ */
+public class ExpressionRegistry {
+
+	private final ConcurrentHashMap<String, SuccinctExpressionTree> expressions;
+
+	/** Constructs an empty registry */
+	public ExpressionRegistry() {
+		expressions = new ConcurrentHashMap<String, SuccinctExpressionTree>();
+	}
+
+	/**
+	 * Constructs an empty registry sized for the given number of expressions
+	 *
+	 * @param capacity
+	 *            - the number of expressions expected
+	 */
+	public ExpressionRegistry(int capacity) {
+		expressions = new ConcurrentHashMap<String, SuccinctExpressionTree>(capacity);
+	}
+
+	/**
+	 * Returns the current snapshot of the named expression, without locking
+	 *
+	 * @param name
+	 * @return the expression, which cannot be changed, or null if there is
+	 *         none by that name
+	 * @throws IllegalArgumentException
+	 *             if name is null
+	 */
+	public BinaryTree<String> get(String name) throws IllegalArgumentException {
+		checkName(name);
+		return expressions.get(name);
+	}
+
+	/**
+	 * Registers an expression under a name, replacing any already there
+	 *
+	 * This runs in O(n) expected time, n being the size of the expression, to
+	 * make its snapshot
+	 *
+	 * @param name
+	 * @param tree
+	 *            - a tree representing an arithmetic expression
+	 * @return the snapshot previously registered under the name, or null
+	 * @throws IllegalArgumentException
+	 *             if name is null or tree was not a valid expression
+	 */
+	public BinaryTree<String> put(String name, BinaryTree<String> tree) throws IllegalArgumentException {
+		checkName(name);
+		return expressions.put(name, snapshot(tree));
+	}
+
+	/**
+	 * Removes the named expression
+	 *
+	 * @param name
+	 * @return the snapshot removed, or null if there was none
+	 * @throws IllegalArgumentException
+	 *             if name is null
+	 */
+	public BinaryTree<String> remove(String name) throws IllegalArgumentException {
+		checkName(name);
+		return expressions.remove(name);
+	}
+
+	/**
+	 * Changes the named expression, copy-on-write
+	 *
+	 * The change is given a new LinkedBinaryTree holding the current
+	 * expression, which it may modify in place or replace, returning the tree
+	 * to register. If another writer updates the same name in the meantime,
+	 * the change is run again on a copy of the newer expression, so it should
+	 * have no other side effects. Readers are never blocked.
+	 *
+	 * For example, registry.update("f", t -> Assignment.simplify(t))
+	 *
+	 * @param name
+	 * @param change
+	 *            - the change to make to a copy of the expression
+	 * @return the new snapshot, or null if there was no expression by that name
+	 * @throws IllegalArgumentException
+	 *             if name or change is null, or the change gives a tree which
+	 *             is not a valid expression, in which case nothing is changed
+	 */
+	public BinaryTree<String> update(String name, UnaryOperator<LinkedBinaryTree<String>> change)
+			throws IllegalArgumentException {
+		checkName(name);
+		if (change == null) {
+			throw new IllegalArgumentException();
+		}
+		while (true) {
+			SuccinctExpressionTree current = expressions.get(name);
+			if (current == null) {
+				return null;
+			}
+			LinkedBinaryTree<String> copy = Assignment.copy(current, new HashMap<String, Integer>(),
+					new LinkedBinaryTree<String>());
+			SuccinctExpressionTree next = snapshot(change.apply(copy));
+			// snapshots are compared by identity, so this fails if anyone else got in first
+			if (expressions.replace(name, current, next)) {
+				return next;
+			}
+		}
+	}
+
+	/**
+	 * @return the number of expressions registered
+	 */
+	public int size() {
+		return expressions.size();
+	}
+
+	/**
+	 * Returns the names registered, as a view which reflects later changes
+	 * and may be iterated while the registry is being updated
+	 *
+	 * @return the names registered
+	 */
+	public Set<String> names() {
+		return Collections.unmodifiableSet(expressions.keySet());
+	}
+
+	private static SuccinctExpressionTree snapshot(BinaryTree<String> tree) throws IllegalArgumentException {
+		if (tree instanceof SuccinctExpressionTree) {
+			return (SuccinctExpressionTree) tree; // already immutable
+		}
+		return new SuccinctExpressionTree(tree);
+	}
+
+	private static void checkName(String name) throws IllegalArgumentException {
+		if (name == null) {
+			throw new IllegalArgumentException();
+		}
+	}
+}
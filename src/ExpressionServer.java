@@ -0,0 +1,238 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import textbook.BinaryTree;
+
+/**
+ * A small TCP server evaluating expressions for local clients, one request
+ * per line.
+ *
+ * A request is an expression in prefix notation, optionally followed by
+ * " ; " and bindings of the form name=value separated by spaces, for example
+ *
+ * <pre>
+ * + * x 2 y ; x=3 y=4
+ * </pre>
+ *
+ * and the response is one line: the expression left after substituting the
+ * bindings and simplifying, as Assignment.partialEvaluate gives it (a single
+ * number when every variable is bound, here "10"), or "error: " and a reason.
+ *
+ * Each connection is served by its own thread: a virtual thread when the
+ * runtime has them (Java 21 and later), found by reflection so that the
+ * server still runs on older runtimes with a pool of platform threads.
+ * Clients may pipeline requests, sending more before reading the responses;
+ * responses to all the requests already received are written out together,
+ * with one flush per batch rather than one per request.
+ *
+ * Parsed expressions are cached by their text, so a client sending the same
+ * expression with different bindings only pays for evaluation. The cache
+ * holds each expression as a SuccinctExpressionTree rather than the
+ * LinkedBinaryTree it was parsed into: even reading a linked tree writes to
+ * it (validate stamps positions, and size may be counted lazily), whereas a
+ * succinct tree is never written after construction, so connections share
+ * it safely.
+ *
+ * Usage: java ExpressionServer [port] serves on localhost until killed
+ */
+public class ExpressionServer implements Closeable {
+
+	/** Default number of parsed expressions cached */
+	public static final int CACHE_SIZE = 10000;
+
+	private final ServerSocket socket;
+	private final ExecutorService connections;
+	private final ConcurrentHashMap<String, SuccinctExpressionTree> cache = new ConcurrentHashMap<String, SuccinctExpressionTree>();
+	private final int cacheSize;
+	private final boolean virtual;
+	private final Thread acceptor;
+	private volatile boolean closed;
+
+	/**
+	 * Starts a server on the loopback address
+	 *
+	 * @param port
+	 *            - the port to listen on, or 0 for any free port
+	 * @throws IOException
+	 *             if the port could not be bound
+	 */
+	public ExpressionServer(int port) throws IOException {
+		this(port, CACHE_SIZE);
+	}
+
+	/**
+	 * Starts a server on the loopback address
+	 *
+	 * @param port
+	 *            - the port to listen on, or 0 for any free port
+	 * @param cacheSize
+	 *            - the number of parsed expressions to cache
+	 * @throws IOException
+	 *             if the port could not be bound
+	 * @throws IllegalArgumentException
+	 *             if cacheSize is negative
+	 */
+	public ExpressionServer(int port, int cacheSize) throws IOException, IllegalArgumentException {
+		if (cacheSize < 0) {
+			throw new IllegalArgumentException();
+		}
+		this.cacheSize = cacheSize;
+		socket = new ServerSocket();
+		socket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1024);
+		ExecutorService executor = virtualThreadExecutor();
+		virtual = executor != null;
+		connections = virtual ? executor : Executors.newCachedThreadPool(task -> {
+			Thread thread = new Thread(task, "ExpressionServer connection");
+			thread.setDaemon(true);
+			return thread;
+		});
+		acceptor = new Thread(this::accept, "ExpressionServer acceptor");
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	/**
+	 * @return the port the server listens on
+	 */
+	public int port() {
+		return socket.getLocalPort();
+	}
+
+	/**
+	 * @return true if connections are served by virtual threads
+	 */
+	public boolean usesVirtualThreads() {
+		return virtual;
+	}
+
+	/**
+	 * Stops accepting connections. Connections already open are served until
+	 * their clients close them.
+	 */
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		socket.close();
+		connections.shutdown();
+	}
+
+	/**
+	 * Answers one request line
+	 *
+	 * @param request
+	 *            - an expression in prefix notation, optionally followed by
+	 *            " ; " and bindings
+	 * @return the response line, without its line terminator
+	 */
+	private String respond(String request) {
+		String expression = request;
+		HashMap<String, Integer> bindings = new HashMap<String, Integer>();
+		int split = request.indexOf(" ; ");
+		if (split >= 0) {
+			expression = request.substring(0, split);
+			for (String binding : request.substring(split + 3).split(" ")) {
+				int equals = binding.indexOf('=');
+				if (equals <= 0) {
+					return "error: binding " + binding + " is not name=value";
+				}
+				try {
+					bindings.put(binding.substring(0, equals), Integer.valueOf(binding.substring(equals + 1)));
+				} catch (NumberFormatException e) {
+					return "error: binding " + binding + " does not have an int value";
+				}
+			}
+		}
+		BinaryTree<String> tree;
+		try {
+			tree = parse(expression);
+		} catch (IllegalArgumentException e) {
+			return "error: not a valid expression in prefix notation";
+		}
+		try {
+			return Assignment.tree2prefix(Assignment.partialEvaluate(tree, bindings));
+		} catch (RuntimeException e) {
+			return "error: " + e;
+		}
+	}
+
+	/** Returns the parsed expression, from the cache if it is there */
+	private BinaryTree<String> parse(String expression) throws IllegalArgumentException {
+		SuccinctExpressionTree tree = cache.get(expression);
+		if (tree == null) {
+			if (cacheSize == 0) {
+				return Assignment.prefix2tree(expression); // not shared, so need not be immutable
+			}
+			tree = new SuccinctExpressionTree(Assignment.prefix2tree(expression));
+			if (cache.size() >= cacheSize) {
+				cache.clear(); // rare, and cheaper than tracking recency on every hit
+			}
+			cache.put(expression, tree);
+		}
+		return tree;
+	}
+
+	private void accept() {
+		while (!closed) {
+			try {
+				Socket client = socket.accept();
+				connections.execute(() -> serve(client));
+			} catch (IOException e) {
+				if (!closed) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/** Serves one connection, answering requests in batches */
+	private void serve(Socket client) {
+		try (Socket s = client;
+				BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8), 1 << 16);
+				Writer out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8), 1 << 16)) {
+			s.setTcpNoDelay(true);
+			String line;
+			while ((line = in.readLine()) != null) {
+				out.write(respond(line));
+				out.write('\n');
+				if (!in.ready()) {
+					out.flush(); // the batch of requests already received is answered
+				}
+			}
+		} catch (IOException e) {
+			// the client went away
+		}
+	}
+
+	/** Calls Executors.newVirtualThreadPerTaskExecutor, if the runtime has it */
+	private static ExecutorService virtualThreadExecutor() {
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch (ReflectiveOperationException | UnsupportedOperationException e) {
+			return null; // before Java 21, or a preview feature not enabled
+		}
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : 7070;
+		ExpressionServer server = new ExpressionServer(port);
+		System.err.println("Serving on localhost:" + server.port()
+				+ (server.usesVirtualThreads() ? " with virtual threads" : " with platform threads"));
+		server.acceptor.join();
+	}
+}
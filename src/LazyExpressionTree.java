@@ -0,0 +1,232 @@
+import java.util.Arrays;
+
+import textbook.LinkedBinaryTree;
+import textbook.Position;
+
+/**
+ * An expression tree over its prefix notation text, whose nodes are only
+ * created when they are reached.
+ *
+ * Construction makes one pass over the text, without creating any objects
+ * per token, recording where each token starts and, for each operator, which
+ * token starts its right operand (its left operand is always the next
+ * token). After that, only the root is a node. The children of a node are
+ * created when the node is first looked at through left, right, parent, set
+ * or any other method taking its position, so following one path from the
+ * root costs O(depth) nodes rather than O(n).
+ *
+ * The tree is an ordinary LinkedBinaryTree to the methods of Assignment.
+ * Methods which change its shape (addLeft, addRight, attach, remove,
+ * pruneSubtree and replaceSubtree) first create every remaining node, once.
+ */
+public class LazyExpressionTree extends LinkedBinaryTree<String> {
+
+	/** Marker for a token without a right operand */
+	private static final int NONE = -1;
+
+	private final CharSequence text;
+	private final int[] starts; // the offset in text of each token
+	private final int[] rights; // for an operator, the token of its right operand
+	private final int tokens;
+
+	private boolean complete; // every node has been created
+	private int created;
+
+	//---- nested LazyNode class ----
+	/** A node which knows its token, and whether its children exist yet */
+	private static class LazyNode extends Node<String> {
+		private final int token;
+		private boolean expanded;
+
+		LazyNode(String e, Node<String> parent, int token) {
+			super(e, parent, null, null);
+			this.token = token;
+		}
+	}
+
+	/**
+	 * Indexes an expression in prefix notation, creating only its root
+	 *
+	 * This runs in O(length of text) time, and creates no object per token
+	 *
+	 * @param text
+	 *            - an expression in prefix notation, tokens separated by
+	 *            whitespace; it must not change while the tree is in use
+	 * @throws IllegalArgumentException
+	 *             if the text was not a valid expression in prefix notation
+	 */
+	public LazyExpressionTree(CharSequence text) throws IllegalArgumentException {
+		this.text = text;
+		int[] starts = new int[16];
+		int[] rights = new int[16];
+		int[] pending = new int[16]; // operators still missing an operand
+		boolean[] hasLeft = new boolean[16];
+		int top = 0;
+		int count = 0;
+		int length = text.length();
+		for (int i = 0; i < length; i++) {
+			if (Character.isWhitespace(text.charAt(i))) {
+				continue;
+			}
+			if (count > 0 && top == 0) {
+				throw new IllegalArgumentException("String was not a valid arithmetic expression in prefix notation");
+			}
+			int start = i;
+			while (i + 1 < length && !Character.isWhitespace(text.charAt(i + 1))) {
+				i++;
+			}
+			if (count == starts.length) {
+				starts = Arrays.copyOf(starts, 2 * count);
+				rights = Arrays.copyOf(rights, 2 * count);
+			}
+			int t = count++;
+			starts[t] = start;
+			rights[t] = NONE;
+			// this token is the next operand of the innermost pending operator
+			if (top > 0) {
+				if (hasLeft[top - 1]) {
+					rights[pending[--top]] = t;
+				} else {
+					hasLeft[top - 1] = true;
+				}
+			}
+			if (i == start && isOperator(text.charAt(start))) {
+				if (top == pending.length) {
+					pending = Arrays.copyOf(pending, 2 * top);
+					hasLeft = Arrays.copyOf(hasLeft, 2 * top);
+				}
+				pending[top] = t;
+				hasLeft[top++] = false;
+			}
+		}
+		if (count == 0 || top != 0) {
+			throw new IllegalArgumentException("String was not a valid arithmetic expression in prefix notation");
+		}
+		this.starts = starts;
+		this.rights = rights;
+		tokens = count;
+		root = new LazyNode(token(0), null, 0);
+		created = 1;
+	}
+
+	/**
+	 * @return the number of nodes created so far
+	 */
+	public int created() {
+		return created;
+	}
+
+	@Override
+	public int size() {
+		return complete ? super.size() : tokens;
+	}
+
+	@Override
+	public int knownSize() {
+		return complete ? super.knownSize() : tokens;
+	}
+
+	/** Creates the children of every position it is given */
+	@Override
+	protected Node<String> validate(Position<String> p) throws IllegalArgumentException {
+		Node<String> node = super.validate(p);
+		if (!complete && node instanceof LazyNode) {
+			expand((LazyNode) node);
+		}
+		return node;
+	}
+
+	@Override
+	public Position<String> addLeft(Position<String> p, String e) throws IllegalArgumentException {
+		complete();
+		return super.addLeft(p, e);
+	}
+
+	@Override
+	public Position<String> addRight(Position<String> p, String e) throws IllegalArgumentException {
+		complete();
+		return super.addRight(p, e);
+	}
+
+	@Override
+	public void attach(Position<String> p, LinkedBinaryTree<String> t1, LinkedBinaryTree<String> t2)
+			throws IllegalArgumentException {
+		complete();
+		super.attach(p, t1, t2);
+	}
+
+	@Override
+	public String remove(Position<String> p) throws IllegalArgumentException {
+		complete();
+		return super.remove(p);
+	}
+
+	@Override
+	public LinkedBinaryTree<String> pruneSubtree(Position<String> p) throws IllegalArgumentException {
+		complete();
+		return super.pruneSubtree(p);
+	}
+
+	@Override
+	public LinkedBinaryTree<String> replaceSubtree(Position<String> p, LinkedBinaryTree<String> t)
+			throws IllegalArgumentException {
+		complete();
+		return super.replaceSubtree(p, t);
+	}
+
+	/** Helper method to create the children of a node, if it has any */
+	private void expand(LazyNode node) {
+		if (node.expanded) {
+			return;
+		}
+		node.expanded = true;
+		int t = node.token;
+		if (rights[t] != NONE) {
+			LazyNode left = new LazyNode(token(t + 1), node, t + 1);
+			LazyNode right = new LazyNode(token(rights[t]), node, rights[t]);
+			left.setEpoch(node.getEpoch());
+			right.setEpoch(node.getEpoch());
+			node.setLeft(left);
+			node.setRight(right);
+			created += 2;
+		}
+	}
+
+	/** Helper method to create every node not yet created, without recursion */
+	private void complete() {
+		if (complete) {
+			return;
+		}
+		@SuppressWarnings("unchecked")
+		Node<String>[] stack = (Node<String>[]) new Node<?>[16];
+		int top = 0;
+		stack[top++] = root;
+		while (top > 0) {
+			Node<String> node = stack[--top];
+			expand((LazyNode) node);
+			if (node.getLeft() != null) {
+				if (top + 2 > stack.length) {
+					stack = Arrays.copyOf(stack, 2 * stack.length);
+				}
+				stack[top++] = node.getRight();
+				stack[top++] = node.getLeft();
+			}
+		}
+		complete = true;
+		sizeChanged();
+	}
+
+	/** Helper method to read token t */
+	private String token(int t) {
+		int start = starts[t];
+		int end = start + 1;
+		while (end < text.length() && !Character.isWhitespace(text.charAt(end))) {
+			end++;
+		}
+		return text.subSequence(start, end).toString();
+	}
+
+	private static boolean isOperator(char c) {
+		return c == '+' || c == '-' || c == '*';
+	}
+}
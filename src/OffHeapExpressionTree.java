@@ -0,0 +1,646 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import textbook.AbstractBinaryTree;
+import textbook.Position;
+
+/**
+ * An expression tree whose nodes are stored outside the Java heap, for
+ * expressions too large for linked nodes, up to about two billion nodes.
+ *
+ * Each node is a 16 byte record holding its element's symbol number and the
+ * record numbers of its parent and children, in chunks of direct or
+ * memory-mapped ByteBuffers. Distinct elements are stored once each, on the
+ * heap, in a symbol table. Positions are record numbers wrapped in small
+ * objects made on demand, so two positions for the same node are equal but
+ * not necessarily identical.
+ *
+ * Nothing here uses recursion or a stack proportional to the height: the
+ * parser and the traversals move through parent links instead. A tree can be
+ * saved to a file and mapped back, read only, without reading it in. Trees
+ * created on a file keep their records in that file, so they are limited by
+ * disk space rather than by -XX:MaxDirectMemorySize.
+ *
+ * Nodes can be added and changed, but not removed.
+ */
+public class OffHeapExpressionTree extends AbstractBinaryTree<String> implements Closeable {
+
+	/** Record number for a missing node */
+	private static final int NONE = -1;
+
+	// record layout, in bytes
+	private static final int SYMBOL = 0, PARENT = 4, LEFT = 8, RIGHT = 12, RECORD = 16;
+
+	/** Records per chunk (256 MB), the first chunk grows up to this size */
+	private static final int SHIFT = 24, CHUNK = 1 << SHIFT, MASK = CHUNK - 1;
+
+	// file layout: a header, the records, then the symbols
+	private static final int MAGIC = 0x4F484554, VERSION = 1, HEADER = 32;
+
+	private ByteBuffer[] chunks = new ByteBuffer[1];
+	private int capacity; // records which fit in the chunks
+	private int size;
+	private int root = NONE;
+
+	private final ArrayList<String> symbols = new ArrayList<String>();
+	private final HashMap<String, Integer> numbers = new HashMap<String, Integer>();
+
+	private final FileChannel file; // the backing file, or null
+	private final Path path;
+	private final boolean readOnly;
+
+	/** Constructs an empty tree in direct (off-heap) memory */
+	public OffHeapExpressionTree() {
+		file = null;
+		path = null;
+		readOnly = false;
+	}
+
+	/**
+	 * Constructs an empty tree whose records are kept in the given file,
+	 * which is created or overwritten. Call save with the same file to make
+	 * it loadable by map.
+	 *
+	 * @param path
+	 *            - the backing file
+	 * @throws IOException
+	 *             if the file cannot be opened
+	 */
+	public OffHeapExpressionTree(Path path) throws IOException {
+		file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		this.path = path;
+		readOnly = false;
+	}
+
+	/** Constructs a read-only tree over records mapped from a file */
+	private OffHeapExpressionTree(FileChannel file, Path path) {
+		this.file = file;
+		this.path = path;
+		readOnly = true;
+	}
+
+	//---- nested Slot class ----
+	/** A position: a record number in a particular tree */
+	private static final class Slot implements Position<String> {
+		private final OffHeapExpressionTree tree;
+		private final int index;
+
+		Slot(OffHeapExpressionTree tree, int index) {
+			this.tree = tree;
+			this.index = index;
+		}
+
+		public String getElement() {
+			return tree.symbols.get(tree.getInt(index, SYMBOL));
+		}
+
+		public boolean equals(Object o) {
+			return o instanceof Slot && ((Slot) o).tree == tree && ((Slot) o).index == index;
+		}
+
+		public int hashCode() {
+			return index;
+		}
+	}
+
+	/**
+	 * Parses an expression in prefix notation straight into a new tree in
+	 * direct memory
+	 *
+	 * This runs in O(n) time, and uses heap space only for the distinct
+	 * elements and a buffer
+	 *
+	 * @param in
+	 *            - the expression, tokens separated by whitespace
+	 * @return the tree
+	 * @throws IOException
+	 *             if reading fails
+	 * @throws IllegalArgumentException
+	 *             if the text was not a valid expression in prefix notation
+	 */
+	public static OffHeapExpressionTree fromPrefix(Readable in) throws IOException, IllegalArgumentException {
+		OffHeapExpressionTree tree = new OffHeapExpressionTree();
+		tree.readPrefix(in);
+		return tree;
+	}
+
+	/**
+	 * Parses an expression in prefix notation into this empty tree
+	 *
+	 * This runs in O(n) time, and uses heap space only for the distinct
+	 * elements and a buffer
+	 *
+	 * @param in
+	 *            - the expression, tokens separated by whitespace
+	 * @throws IOException
+	 *             if reading fails
+	 * @throws IllegalArgumentException
+	 *             if the text was not a valid expression in prefix notation
+	 * @throws IllegalStateException
+	 *             if the tree is not empty, or is read only
+	 */
+	public void readPrefix(Readable in) throws IOException, IllegalArgumentException, IllegalStateException {
+		if (readOnly || size > 0) {
+			throw new IllegalStateException("Tree must be empty and writable");
+		}
+		CharBuffer buffer = CharBuffer.allocate(8192);
+		StringBuilder token = new StringBuilder();
+		// the deepest operator still waiting for a child, found again after
+		// each leaf by climbing parent links instead of keeping a stack
+		int open = NONE;
+		boolean done = false;
+		while (true) {
+			buffer.clear();
+			int read = in.read(buffer);
+			buffer.flip();
+			for (int j = 0; j <= buffer.limit(); j++) {
+				char c = j < buffer.limit() ? buffer.get(j) : ' ';
+				if (j == buffer.limit() && read >= 0) {
+					break; // a token may continue into the next buffer
+				}
+				if (!Character.isWhitespace(c)) {
+					token.append(c);
+					continue;
+				}
+				if (token.length() == 0) {
+					continue;
+				}
+				if (done) {
+					throw new IllegalArgumentException("String was not a valid arithmetic expression in prefix notation");
+				}
+				String element = token.toString();
+				token.setLength(0);
+				int i = append(element, open);
+				if (open == NONE) {
+					root = i;
+				} else if (getInt(open, LEFT) == NONE) {
+					putInt(open, LEFT, i);
+				} else {
+					putInt(open, RIGHT, i);
+				}
+				if (Assignment.isOperator(element)) {
+					open = i;
+				} else {
+					while (open != NONE && getInt(open, RIGHT) != NONE) {
+						open = getInt(open, PARENT);
+					}
+					done = open == NONE;
+				}
+			}
+			if (read < 0) {
+				break;
+			}
+		}
+		if (!done) {
+			throw new IllegalArgumentException("String was not a valid arithmetic expression in prefix notation");
+		}
+	}
+
+	/**
+	 * Writes the expression in prefix notation
+	 *
+	 * This runs in O(n) time, with constant heap space
+	 *
+	 * @param out
+	 *            - where to write the expression
+	 * @throws IOException
+	 *             if writing fails
+	 */
+	public void writePrefix(Appendable out) throws IOException {
+		for (int i = root; i != NONE; i = next(i)) {
+			if (i != root) {
+				out.append(' ');
+			}
+			out.append(symbols.get(getInt(i, SYMBOL)));
+		}
+	}
+
+	/**
+	 * Saves the tree to a file, from which map can load it again. If the tree
+	 * is kept in that file already, only the header and symbols are written.
+	 *
+	 * This runs in O(n) time, or O(symbols) for the tree's own file
+	 *
+	 * @param path
+	 *            - the file to write
+	 * @throws IOException
+	 *             if writing fails
+	 */
+	public void save(Path path) throws IOException {
+		boolean inPlace = file != null && !readOnly && path.equals(this.path);
+		FileChannel out = inPlace ? file
+				: FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+						StandardOpenOption.WRITE);
+		try {
+			long records = HEADER + (long) size * RECORD;
+			if (!inPlace) {
+				out.position(HEADER);
+				for (int k = 0; (long) k * CHUNK < size; k++) {
+					ByteBuffer chunk = chunks[k].duplicate();
+					chunk.clear().limit(Math.min(size - k * CHUNK, CHUNK) * RECORD);
+					while (chunk.hasRemaining()) {
+						out.write(chunk);
+					}
+				}
+			}
+			out.position(records);
+			DataOutputStream symbolsOut = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(out)));
+			for (String symbol : symbols) {
+				symbolsOut.writeUTF(symbol);
+			}
+			symbolsOut.flush();
+			ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(MAGIC).putInt(VERSION).putInt(size).putInt(root).putInt(symbols.size()).putLong(records);
+			header.clear();
+			out.write(header, 0);
+			out.force(false);
+		} finally {
+			if (!inPlace) {
+				out.close();
+			}
+		}
+	}
+
+	/**
+	 * Maps a tree saved by save, read only. The records are not read but
+	 * mapped, so this takes time only for the symbols, and pages of the file
+	 * are brought in as the tree is traversed.
+	 *
+	 * @param path
+	 *            - a file written by save
+	 * @return the tree
+	 * @throws IOException
+	 *             if the file cannot be read, or was not written by save
+	 */
+	public static OffHeapExpressionTree map(Path path) throws IOException {
+		FileChannel in = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+			if (in.read(header, 0) < HEADER || header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+				throw new IOException("Not a saved expression tree: " + path);
+			}
+			OffHeapExpressionTree tree = new OffHeapExpressionTree(in, path);
+			tree.size = header.getInt(8);
+			tree.root = header.getInt(12);
+			int count = header.getInt(16);
+			long records = header.getLong(20);
+			int chunkCount = (int) ((tree.size + (long) CHUNK - 1) >>> SHIFT);
+			tree.chunks = new ByteBuffer[Math.max(1, chunkCount)];
+			for (int k = 0; k < chunkCount; k++) {
+				long length = Math.min(tree.size - (long) k * CHUNK, CHUNK) * RECORD;
+				tree.chunks[k] = in.map(FileChannel.MapMode.READ_ONLY, HEADER + ((long) k << SHIFT) * RECORD, length)
+						.order(ByteOrder.LITTLE_ENDIAN);
+			}
+			tree.capacity = tree.size;
+			in.position(records);
+			DataInputStream symbolsIn = new DataInputStream(new BufferedInputStream(Channels.newInputStream(in)));
+			for (int s = 0; s < count; s++) {
+				String symbol = symbolsIn.readUTF();
+				tree.numbers.put(symbol, s);
+				tree.symbols.add(symbol);
+			}
+			return tree;
+		} catch (IOException | RuntimeException e) {
+			in.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Closes the backing file, if any. Mapped records stay readable until the
+	 * tree is garbage collected, but a tree kept in a file can no longer
+	 * grow or be saved in place.
+	 *
+	 * @throws IOException
+	 *             if closing fails
+	 */
+	public void close() throws IOException {
+		if (file != null) {
+			file.close();
+		}
+	}
+
+	//---- accessors ----
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	@Override
+	public Position<String> root() {
+		return position(root);
+	}
+
+	@Override
+	public Position<String> parent(Position<String> p) throws IllegalArgumentException {
+		return position(getInt(validate(p), PARENT));
+	}
+
+	@Override
+	public Position<String> left(Position<String> p) throws IllegalArgumentException {
+		return position(getInt(validate(p), LEFT));
+	}
+
+	@Override
+	public Position<String> right(Position<String> p) throws IllegalArgumentException {
+		return position(getInt(validate(p), RIGHT));
+	}
+
+	@Override
+	public Position<String> sibling(Position<String> p) throws IllegalArgumentException {
+		int i = validate(p);
+		int parent = getInt(i, PARENT);
+		if (parent == NONE) {
+			return null;
+		}
+		int left = getInt(parent, LEFT);
+		return position(left == i ? getInt(parent, RIGHT) : left);
+	}
+
+	@Override
+	public boolean isRoot(Position<String> p) throws IllegalArgumentException {
+		return validate(p) == root;
+	}
+
+	/**
+	 * Returns the height of the subtree rooted at p, without recursion
+	 *
+	 * This runs in O(size of the subtree) time, with constant heap space
+	 */
+	@Override
+	public int height(Position<String> p) throws IllegalArgumentException {
+		int top = validate(p);
+		int height = 0;
+		int depth = 0;
+		int i = top;
+		while (true) {
+			int left = getInt(i, LEFT);
+			if (left != NONE) {
+				i = left;
+				height = Math.max(height, ++depth);
+				continue;
+			}
+			// climb to the first ancestor whose right subtree is unvisited
+			while (i != top) {
+				int parent = getInt(i, PARENT);
+				depth--;
+				int right = getInt(parent, RIGHT);
+				if (right != i && right != NONE) {
+					i = right;
+					height = Math.max(height, ++depth);
+					break;
+				}
+				i = parent;
+			}
+			if (i == top) {
+				return height;
+			}
+		}
+	}
+
+	/** Returns the positions of the tree, in preorder, made on demand */
+	@Override
+	public Iterable<Position<String>> positions() {
+		return new Iterable<Position<String>>() {
+			public Iterator<Position<String>> iterator() {
+				return new Iterator<Position<String>>() {
+					private int i = root;
+
+					public boolean hasNext() {
+						return i != NONE;
+					}
+
+					public Position<String> next() {
+						if (i == NONE) {
+							throw new NoSuchElementException();
+						}
+						Position<String> p = position(i);
+						i = OffHeapExpressionTree.this.next(i);
+						return p;
+					}
+				};
+			}
+		};
+	}
+
+	/** Returns the elements of the tree, in preorder */
+	@Override
+	public Iterator<String> iterator() {
+		final Iterator<Position<String>> positions = positions().iterator();
+		return new Iterator<String>() {
+			public boolean hasNext() {
+				return positions.hasNext();
+			}
+
+			public String next() {
+				return positions.next().getElement();
+			}
+		};
+	}
+
+	//---- update methods ----
+
+	/**
+	 * Places element e at the root of an empty tree
+	 *
+	 * @return the position of the new root
+	 * @throws IllegalStateException
+	 *             if the tree is not empty, or is read only
+	 */
+	public Position<String> addRoot(String e) throws IllegalStateException {
+		checkWritable();
+		if (size > 0) {
+			throw new IllegalStateException("Tree is not empty");
+		}
+		root = append(e, NONE);
+		return position(root);
+	}
+
+	/**
+	 * Creates a new left child of Position p storing element e
+	 *
+	 * @return the position of the new node
+	 * @throws IllegalArgumentException
+	 *             if p is not valid, or already has a left child
+	 * @throws IllegalStateException
+	 *             if the tree is read only
+	 */
+	public Position<String> addLeft(Position<String> p, String e) throws IllegalArgumentException, IllegalStateException {
+		return addChild(p, e, LEFT);
+	}
+
+	/**
+	 * Creates a new right child of Position p storing element e
+	 *
+	 * @return the position of the new node
+	 * @throws IllegalArgumentException
+	 *             if p is not valid, or already has a right child
+	 * @throws IllegalStateException
+	 *             if the tree is read only
+	 */
+	public Position<String> addRight(Position<String> p, String e) throws IllegalArgumentException, IllegalStateException {
+		return addChild(p, e, RIGHT);
+	}
+
+	/**
+	 * Replaces the element at Position p with e
+	 *
+	 * @return the replaced element
+	 * @throws IllegalArgumentException
+	 *             if p is not valid
+	 * @throws IllegalStateException
+	 *             if the tree is read only
+	 */
+	public String set(Position<String> p, String e) throws IllegalArgumentException, IllegalStateException {
+		int i = validate(p);
+		checkWritable();
+		String old = symbols.get(getInt(i, SYMBOL));
+		putInt(i, SYMBOL, symbol(e));
+		return old;
+	}
+
+	//---- helpers ----
+
+	private Position<String> addChild(Position<String> p, String e, int side) {
+		int parent = validate(p);
+		checkWritable();
+		if (getInt(parent, side) != NONE) {
+			throw new IllegalArgumentException("p already has a child there");
+		}
+		int i = append(e, parent);
+		putInt(parent, side, i);
+		return position(i);
+	}
+
+	/** Helper method to find the record after i in preorder */
+	private int next(int i) {
+		int left = getInt(i, LEFT);
+		if (left != NONE) {
+			return left;
+		}
+		while (i != root) {
+			int parent = getInt(i, PARENT);
+			int right = getInt(parent, RIGHT);
+			if (right != i && right != NONE) {
+				return right;
+			}
+			i = parent;
+		}
+		return NONE;
+	}
+
+	/** Helper method to add a record without children */
+	private int append(String e, int parent) {
+		if (size == Integer.MAX_VALUE) {
+			throw new IllegalStateException("Tree is full");
+		}
+		if (size == capacity) {
+			grow();
+		}
+		int i = size++;
+		putInt(i, SYMBOL, symbol(e));
+		putInt(i, PARENT, parent);
+		putInt(i, LEFT, NONE);
+		putInt(i, RIGHT, NONE);
+		return i;
+	}
+
+	/** Helper method to make room for more records */
+	private void grow() {
+		int k = capacity >>> SHIFT;
+		try {
+			if (k == 0 && capacity < CHUNK) {
+				// the first chunk doubles until it is full size
+				int records = Math.max(1024, 2 * capacity);
+				ByteBuffer chunk = allocate(0, records);
+				if (file == null && chunks[0] != null) {
+					chunk.put(chunks[0].duplicate().clear()).clear();
+				}
+				chunks[0] = chunk;
+				capacity = records;
+			} else {
+				if (k == chunks.length) {
+					chunks = Arrays.copyOf(chunks, 2 * k);
+				}
+				chunks[k] = allocate(k, CHUNK);
+				capacity += CHUNK;
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Cannot extend the backing file", e);
+		}
+	}
+
+	/** Helper method to allocate a chunk, in memory or in the file */
+	private ByteBuffer allocate(int k, int records) throws IOException {
+		ByteBuffer chunk;
+		if (file == null) {
+			chunk = ByteBuffer.allocateDirect(records * RECORD);
+		} else {
+			chunk = file.map(FileChannel.MapMode.READ_WRITE, HEADER + ((long) k << SHIFT) * RECORD, (long) records * RECORD);
+		}
+		return chunk.order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/** Helper method to find or add the symbol number of an element */
+	private int symbol(String e) {
+		if (e == null) {
+			throw new IllegalArgumentException("Elements cannot be null");
+		}
+		Integer number = numbers.get(e);
+		if (number == null) {
+			number = symbols.size();
+			symbols.add(e);
+			numbers.put(e, number);
+		}
+		return number;
+	}
+
+	private int getInt(int i, int field) {
+		return chunks[i >>> SHIFT].getInt((i & MASK) * RECORD + field);
+	}
+
+	private void putInt(int i, int field, int value) {
+		chunks[i >>> SHIFT].putInt((i & MASK) * RECORD + field, value);
+	}
+
+	private Position<String> position(int i) {
+		return i == NONE ? null : new Slot(this, i);
+	}
+
+	private void checkWritable() {
+		if (readOnly) {
+			throw new IllegalStateException("Tree is read only");
+		}
+	}
+
+	/** Validates a position, returning its record number */
+	private int validate(Position<String> p) throws IllegalArgumentException {
+		if (!(p instanceof Slot) || ((Slot) p).tree != this) {
+			throw new IllegalArgumentException("Not valid position type");
+		}
+		return ((Slot) p).index;
+	}
+}
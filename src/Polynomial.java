@@ -0,0 +1,413 @@
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+
+import textbook.BinaryTree;
+import textbook.LinkedBinaryTree;
+import textbook.Position;
+
+/**
+ * An arithmetic expression expanded into its canonical form: a sum of
+ * monomials with integer coefficients, where equal expressions (as
+ * polynomials) have equal forms.
+ *
+ * Each monomial is a vector of exponents, one per variable, packed into as
+ * few longs as the largest possible exponent allows, so multiplying two
+ * monomials is adding their words. The terms are kept in an open-addressing
+ * hash table over primitive arrays of packed monomials and long
+ * coefficients, so no object is allocated per term.
+ *
+ * Expansion works bottom up: sums merge the smaller table into the larger,
+ * negation is a flag, and products multiply every pair of terms. Terms which
+ * cancel are dropped whenever a table grows, so a table holds at most about
+ * twice as many entries as it has live terms.
+ *
+ * Coefficients are longs: an ArithmeticException is thrown if one overflows,
+ * as in Arithmetic.CHECKED.
+ */
+public final class Polynomial {
+
+	/** The variables, in alphabetical order */
+	private final String[] variables;
+
+	/** Bits per exponent, and exponents per packed word */
+	private final int bits, lanes;
+
+	/** The terms */
+	private final Terms terms;
+
+	private Polynomial(String[] variables, int bits, int lanes, Terms terms) {
+		this.variables = variables;
+		this.bits = bits;
+		this.lanes = lanes;
+		this.terms = terms;
+	}
+
+	/**
+	 * Expands an expression into its canonical form
+	 *
+	 * This runs in O(n) expected time plus the time for the products, which
+	 * is the product of the numbers of terms of their operands, and may be
+	 * exponential in n for expressions such as (x+1)(y+1)(z+1)...
+	 *
+	 * @param tree
+	 *            - a tree representing an arithmetic expression
+	 * @return the expanded form of the expression
+	 * @throws IllegalArgumentException
+	 *             if tree was not a valid expression
+	 * @throws ArithmeticException
+	 *             if a constant or a coefficient does not fit in a long
+	 */
+	public static Polynomial of(BinaryTree<String> tree) throws IllegalArgumentException, ArithmeticException {
+		if (tree == null || tree.isEmpty()) {
+			throw new IllegalArgumentException();
+		}
+		int n = tree.size();
+		String[] tokens = new String[n];
+		boolean[] operator = new boolean[n];
+		HashMap<String, Integer> slots = new HashMap<String, Integer>();
+		long occurrences = 0;
+
+		// copy the tree in preorder with an array-backed stack, checking it
+		@SuppressWarnings("unchecked")
+		Position<String>[] stack = (Position<String>[]) new Position<?>[16];
+		int top = 0;
+		int i = 0;
+		stack[top++] = tree.root();
+		while (top > 0) {
+			Position<String> p = stack[--top];
+			Position<String> left = tree.left(p);
+			Position<String> right = tree.right(p);
+			String element = p.getElement();
+			if (element == null || (left == null) != (right == null)
+					|| Assignment.isOperator(element) != (left != null)) {
+				throw new IllegalArgumentException();
+			}
+			if (left != null) {
+				operator[i] = true;
+				if (top + 2 > stack.length) {
+					stack = Arrays.copyOf(stack, 2 * stack.length);
+				}
+				stack[top++] = right;
+				stack[top++] = left;
+			} else if (!Arithmetic.isDigits(element)) {
+				slots.put(element, 0);
+				occurrences++;
+			}
+			tokens[i++] = element;
+		}
+
+		// number the variables alphabetically; no exponent can exceed the
+		// number of variable leaves, which fixes the packing
+		String[] variables = slots.keySet().toArray(new String[slots.size()]);
+		Arrays.sort(variables);
+		for (int v = 0; v < variables.length; v++) {
+			slots.put(variables[v], v);
+		}
+		int bits = Math.max(1, 64 - Long.numberOfLeadingZeros(occurrences));
+		int lanes = 64 / bits;
+		int words = Math.max(1, (variables.length + lanes - 1) / lanes);
+
+		// run the prefix order backwards: operators pop their left operand,
+		// then their right one
+		Terms[] operands = new Terms[16];
+		long[] key = new long[words];
+		top = 0;
+		for (i = n - 1; i >= 0; i--) {
+			Terms result;
+			if (!operator[i]) {
+				result = new Terms(words, 1);
+				if (Arithmetic.isDigits(tokens[i])) {
+					result.add(key, 0, Arithmetic.parseLong(tokens[i]));
+				} else {
+					int v = slots.get(tokens[i]);
+					key[v / lanes] = 1L << (v % lanes * bits);
+					result.add(key, 0, 1);
+					key[v / lanes] = 0;
+				}
+			} else {
+				Terms a = operands[--top];
+				Terms b = operands[--top];
+				char op = tokens[i].charAt(0);
+				if (op == '*') {
+					result = Terms.multiply(a, b, key);
+				} else {
+					result = Terms.sum(a, b, op == '-');
+				}
+			}
+			if (top == operands.length) {
+				operands = Arrays.copyOf(operands, 2 * top);
+			}
+			operands[top++] = result;
+		}
+		return new Polynomial(variables, bits, lanes, operands[0]);
+	}
+
+	/**
+	 * @return the number of terms, with nonzero coefficients
+	 */
+	public int size() {
+		return terms.live();
+	}
+
+	/**
+	 * Writes the canonical form as a tree with as few nodes as possible
+	 *
+	 * Terms are sorted by decreasing degree, then by decreasing powers of the
+	 * variables in alphabetical order, and joined left to right with + or -.
+	 * Each term is its coefficient, left out if it is 1, times each variable
+	 * as many times as its exponent.
+	 *
+	 * e.g. (x+y)(x+y) is "+ + * x x * * 2 x y * y y", and x-x is "0"
+	 *
+	 * This runs in O(t log t + n) time, for t terms and n nodes in the result
+	 *
+	 * @return a new tree representing the expression
+	 */
+	public LinkedBinaryTree<String> toTree() {
+		final int words = terms.words;
+		final long mask = bits == 64 ? -1 : (1L << bits) - 1;
+		final long[] keys = terms.keys;
+
+		// the live terms, and their degrees
+		Integer[] order = new Integer[terms.live()];
+		final int[] degree = new int[terms.count];
+		int t = 0;
+		for (int e = 0; e < terms.count; e++) {
+			if (terms.coefficients[e] != 0) {
+				order[t++] = e;
+				for (int w = 0; w < words; w++) {
+					for (long word = keys[e * words + w]; word != 0; word >>>= bits) {
+						degree[e] += (int) (word & mask);
+					}
+				}
+			}
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				if (degree[a] != degree[b]) {
+					return degree[a] > degree[b] ? -1 : 1;
+				}
+				// lower lanes hold earlier variables: find the first which differs
+				for (int w = 0; w < words; w++) {
+					long x = keys[a * words + w];
+					long y = keys[b * words + w];
+					if (x != y) {
+						int shift = Long.numberOfTrailingZeros(x ^ y) / bits * bits;
+						return ((x >>> shift) & mask) > ((y >>> shift) & mask) ? -1 : 1;
+					}
+				}
+				return 0;
+			}
+		});
+
+		LinkedBinaryTree.TreeBuilder<String> builder = new LinkedBinaryTree<String>().builder();
+		if (order.length == 0) {
+			return builder.build(builder.node("0"));
+		}
+		Position<String> sum = null;
+		for (int e : order) {
+			String coefficient = Long.toString(terms.coefficient(e));
+			if (sum == null) {
+				sum = term(builder, e, coefficient);
+			} else if (coefficient.charAt(0) == '-') {
+				sum = builder.node("-", sum, term(builder, e, coefficient.substring(1)));
+			} else {
+				sum = builder.node("+", sum, term(builder, e, coefficient));
+			}
+		}
+		return builder.build(sum);
+	}
+
+	/** Helper method to build one term, as a left to right product */
+	private Position<String> term(LinkedBinaryTree.TreeBuilder<String> builder, int e, String coefficient) {
+		long mask = bits == 64 ? -1 : (1L << bits) - 1;
+		Position<String> product = null;
+		if (!coefficient.equals("1")) {
+			product = builder.node(coefficient);
+		}
+		for (int w = 0; w < terms.words; w++) {
+			// visit only the lanes with a nonzero exponent
+			for (long word = terms.keys[e * terms.words + w]; word != 0;) {
+				int lane = Long.numberOfTrailingZeros(word) / bits;
+				long exponent = (word >>> (lane * bits)) & mask;
+				word &= ~(mask << (lane * bits));
+				String variable = variables[w * lanes + lane];
+				for (long k = 0; k < exponent; k++) {
+					Position<String> factor = builder.node(variable);
+					product = product == null ? factor : builder.node("*", product, factor);
+				}
+			}
+		}
+		return product == null ? builder.node(coefficient) : product;
+	}
+
+	/**
+	 * @return the canonical form in prefix notation
+	 */
+	public String toString() {
+		return Assignment.tree2prefix(toTree());
+	}
+
+	//---- nested Terms class ----
+	/**
+	 * An open-addressing map from packed monomials to coefficients. Entries
+	 * are stored densely in insertion order, and the table holds entry
+	 * numbers plus one, or 0 for a free slot.
+	 */
+	private static final class Terms {
+		final int words;
+		long[] keys; // words longs per entry
+		long[] coefficients; // 0 once a term has cancelled
+		int count;
+		int zeros; // entries which have cancelled
+		boolean negated; // every stored coefficient is negated
+		int[] table;
+
+		Terms(int words, int expected) {
+			this.words = words;
+			int capacity = Math.max(1, expected);
+			keys = new long[capacity * words];
+			coefficients = new long[capacity];
+			table = new int[Integer.highestOneBit(Math.max(2, 2 * capacity - 1)) << 1];
+		}
+
+		int live() {
+			return count - zeros;
+		}
+
+		long coefficient(int e) {
+			return negated ? Math.negateExact(coefficients[e]) : coefficients[e];
+		}
+
+		/** Adds c times the monomial at key[offset...] */
+		void add(long[] key, int offset, long c) {
+			if (c != 0) {
+				put(key, offset, negated ? Math.negateExact(c) : c);
+			}
+		}
+
+		/** Adds a stored (possibly negated) coefficient to a monomial */
+		private void put(long[] key, int offset, long c) {
+			int mask = table.length - 1;
+			int slot = hash(key, offset) & mask;
+			for (int entry; (entry = table[slot]) != 0; slot = (slot + 1) & mask) {
+				int e = entry - 1;
+				if (sameKey(e, key, offset)) {
+					long old = coefficients[e];
+					long sum = Math.addExact(old, c);
+					coefficients[e] = sum;
+					if (sum == 0) {
+						zeros++;
+					} else if (old == 0) {
+						zeros--;
+					}
+					return;
+				}
+			}
+			if (2 * (count + 1) > table.length) {
+				grow();
+				put(key, offset, c);
+				return;
+			}
+			if (count == coefficients.length) {
+				coefficients = Arrays.copyOf(coefficients, 2 * count);
+				keys = Arrays.copyOf(keys, 2 * count * words);
+			}
+			System.arraycopy(key, offset, keys, count * words, words);
+			coefficients[count] = c;
+			table[slot] = ++count;
+		}
+
+		/** Drops cancelled terms, and doubles the table if still half full */
+		private void grow() {
+			int kept = 0;
+			for (int e = 0; e < count; e++) {
+				if (coefficients[e] != 0) {
+					System.arraycopy(keys, e * words, keys, kept * words, words);
+					coefficients[kept++] = coefficients[e];
+				}
+			}
+			count = kept;
+			zeros = 0;
+			int capacity = table.length;
+			while (2 * (count + 1) > capacity) {
+				capacity *= 2;
+			}
+			table = new int[capacity];
+			int mask = capacity - 1;
+			for (int e = 0; e < count; e++) {
+				int slot = hash(keys, e * words) & mask;
+				while (table[slot] != 0) {
+					slot = (slot + 1) & mask;
+				}
+				table[slot] = e + 1;
+			}
+		}
+
+		private boolean sameKey(int e, long[] key, int offset) {
+			for (int w = 0; w < words; w++) {
+				if (keys[e * words + w] != key[offset + w]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private int hash(long[] key, int offset) {
+			long h = 0;
+			for (int w = 0; w < words; w++) {
+				h = (h + key[offset + w]) * 0x9E3779B97F4A7C15L;
+			}
+			return (int) (h ^ (h >>> 29) ^ (h >>> 47));
+		}
+
+		/** Returns a + b or a - b, reusing the larger of the two */
+		static Terms sum(Terms a, Terms b, boolean subtract) {
+			if (a.count >= b.count) {
+				a.addAll(b, subtract);
+				return a;
+			}
+			if (subtract) {
+				b.negated = !b.negated;
+			}
+			b.addAll(a, false);
+			return b;
+		}
+
+		/** Adds (or subtracts) every term of other */
+		private void addAll(Terms other, boolean subtract) {
+			for (int e = 0; e < other.count; e++) {
+				if (other.coefficients[e] != 0) {
+					long c = other.coefficient(e);
+					add(other.keys, e * words, subtract ? Math.negateExact(c) : c);
+				}
+			}
+		}
+
+		/** Returns a * b, using scratch for one packed monomial */
+		static Terms multiply(Terms a, Terms b, long[] scratch) {
+			int words = a.words;
+			long pairs = (long) a.live() * b.live();
+			Terms product = new Terms(words, (int) Math.min(pairs, 1 << 16));
+			for (int i = 0; i < a.count; i++) {
+				if (a.coefficients[i] == 0) {
+					continue;
+				}
+				long ca = a.coefficient(i);
+				for (int j = 0; j < b.count; j++) {
+					if (b.coefficients[j] == 0) {
+						continue;
+					}
+					// exponents never carry into the next lane
+					for (int w = 0; w < words; w++) {
+						scratch[w] = a.keys[i * words + w] + b.keys[j * words + w];
+					}
+					product.add(scratch, 0, Math.multiplyExact(ca, b.coefficient(j)));
+				}
+			}
+			Arrays.fill(scratch, 0);
+			return product;
+		}
+	}
+}
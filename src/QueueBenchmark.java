@@ -0,0 +1,149 @@
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import textbook.ConcurrentArrayQueue;
+import textbook.LinkedQueue;
+import textbook.LockFreeQueue;
+import textbook.Queue;
+
+/**
+ * Benchmarks queues shared between producer and consumer threads: the lock
+ * free LockFreeQueue and ConcurrentArrayQueue, java.util.concurrent's
+ * ConcurrentLinkedQueue, and a LinkedQueue behind a single lock.
+ *
+ * Each producer enqueues its share of the messages, and consumers dequeue
+ * until all have been seen, yielding when the queue is empty or, for the
+ * bounded queue, full (spinning instead starves the other side when there
+ * are more threads than processors).
+ *
+ * Usage: java QueueBenchmark [-producers 4] [-consumers 4] [-messages
+ * 10000000] [-capacity 1024]
+ */
+public class QueueBenchmark {
+
+	public static void main(String[] args) throws InterruptedException {
+		int producers = 4, consumers = 4, capacity = 1024;
+		long messages = 10000000;
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			long value = Long.parseLong(args[i + 1]);
+			if (args[i].equals("-producers")) {
+				producers = (int) value;
+			} else if (args[i].equals("-consumers")) {
+				consumers = (int) value;
+			} else if (args[i].equals("-messages")) {
+				messages = value;
+			} else if (args[i].equals("-capacity")) {
+				capacity = (int) value;
+			} else {
+				throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+		}
+
+		System.out.printf("%-22s %10s %10s %16s%n", "queue", "producers", "consumers", "messages/s");
+		for (int round = 0; round < 2; round++) { // the first round warms up
+			report("LockFreeQueue", new LockFreeQueue<Long>(), producers, consumers, messages);
+			report("ConcurrentArrayQueue", new ConcurrentArrayQueue<Long>(capacity), producers, consumers, messages);
+			report("ConcurrentLinkedQueue", new Adapter(), producers, consumers, messages);
+			report("synchronized", new Locked(), producers, consumers, messages);
+		}
+	}
+
+	private static void report(String name, Queue<Long> queue, int producers, int consumers, long messages)
+			throws InterruptedException {
+		System.out.printf("%-22s %10d %10d %16.0f%n", name, producers, consumers,
+				run(queue, producers, consumers, messages));
+	}
+
+	/** Passes the messages through the queue, returning messages per second */
+	private static double run(final Queue<Long> queue, int producers, int consumers, final long messages)
+			throws InterruptedException {
+		final AtomicLong received = new AtomicLong();
+		final CountDownLatch done = new CountDownLatch(producers + consumers);
+		long start = System.nanoTime();
+		for (int p = 0; p < producers; p++) {
+			final long share = messages / producers + (p < messages % producers ? 1 : 0);
+			new Thread(() -> {
+				Long message = 1L;
+				for (long i = 0; i < share; i++) {
+					while (!offer(queue, message)) {
+						Thread.yield();
+					}
+				}
+				done.countDown();
+			}).start();
+		}
+		for (int c = 0; c < consumers; c++) {
+			new Thread(() -> {
+				while (received.get() < messages) {
+					if (queue.dequeue() != null) {
+						received.incrementAndGet();
+					} else {
+						Thread.yield();
+					}
+				}
+				done.countDown();
+			}).start();
+		}
+		done.await();
+		return messages * 1e9 / (System.nanoTime() - start);
+	}
+
+	private static boolean offer(Queue<Long> queue, Long message) {
+		if (queue instanceof ConcurrentArrayQueue) {
+			return ((ConcurrentArrayQueue<Long>) queue).offer(message);
+		}
+		queue.enqueue(message);
+		return true;
+	}
+
+	/** ConcurrentLinkedQueue seen as a textbook Queue */
+	private static class Adapter implements Queue<Long> {
+		private final ConcurrentLinkedQueue<Long> queue = new ConcurrentLinkedQueue<Long>();
+
+		public int size() {
+			return queue.size();
+		}
+
+		public boolean isEmpty() {
+			return queue.isEmpty();
+		}
+
+		public void enqueue(Long e) {
+			queue.offer(e);
+		}
+
+		public Long first() {
+			return queue.peek();
+		}
+
+		public Long dequeue() {
+			return queue.poll();
+		}
+	}
+
+	/** A LinkedQueue behind a single lock */
+	private static class Locked implements Queue<Long> {
+		private final LinkedQueue<Long> queue = new LinkedQueue<Long>();
+
+		public synchronized int size() {
+			return queue.size();
+		}
+
+		public synchronized boolean isEmpty() {
+			return queue.isEmpty();
+		}
+
+		public synchronized void enqueue(Long e) {
+			queue.enqueue(e);
+		}
+
+		public synchronized Long first() {
+			return queue.first();
+		}
+
+		public synchronized Long dequeue() {
+			return queue.dequeue();
+		}
+	}
+}
@@ -0,0 +1,134 @@
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import textbook.LinkedBinaryTree;
+
+/**
+ * Benchmarks an ExpressionRegistry under many concurrent readers and a few
+ * writers, against a HashMap of LinkedBinaryTrees guarded by a single lock.
+ *
+ * Readers look up a random name and write its expression out in prefix
+ * notation. Writers, the given percentage of operations, alternately
+ * register a new expression under a random name and simplify one in place.
+ *
+ * Usage: java RegistryBenchmark [-threads 64] [-names 20000] [-size 31]
+ * [-writes 1] [-millis 2000]
+ */
+public class RegistryBenchmark {
+
+	/** Prevents the JIT from discarding results */
+	static volatile Object sink;
+
+	/** A store of named expressions under measurement */
+	private interface Store {
+		String read(String name);
+
+		void put(String name, LinkedBinaryTree<String> tree);
+
+		void simplify(String name);
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		int threads = 64, names = 20000, size = 31, writes = 1;
+		long millis = 2000;
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			int value = Integer.parseInt(args[i + 1]);
+			if (args[i].equals("-threads")) {
+				threads = value;
+			} else if (args[i].equals("-names")) {
+				names = value;
+			} else if (args[i].equals("-size")) {
+				size = value;
+			} else if (args[i].equals("-writes")) {
+				writes = value;
+			} else if (args[i].equals("-millis")) {
+				millis = value;
+			} else {
+				throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+		}
+
+		String[] prefixes = new String[names];
+		ExpressionGenerator generator = new ExpressionGenerator(names);
+		for (int i = 0; i < names; i++) {
+			prefixes[i] = generator.prefix(size | 1);
+		}
+
+		final ExpressionRegistry registry = new ExpressionRegistry(names);
+		Store concurrent = new Store() {
+			public String read(String name) {
+				return Assignment.tree2prefix(registry.get(name));
+			}
+
+			public void put(String name, LinkedBinaryTree<String> tree) {
+				registry.put(name, tree);
+			}
+
+			public void simplify(String name) {
+				registry.update(name, t -> Assignment.simplify(t));
+			}
+		};
+
+		final HashMap<String, LinkedBinaryTree<String>> map = new HashMap<String, LinkedBinaryTree<String>>();
+		Store locked = new Store() {
+			public synchronized String read(String name) {
+				return Assignment.tree2prefix(map.get(name));
+			}
+
+			public synchronized void put(String name, LinkedBinaryTree<String> tree) {
+				map.put(name, tree);
+			}
+
+			public synchronized void simplify(String name) {
+				Assignment.simplify(map.get(name));
+			}
+		};
+
+		System.out.printf("%-14s %8s %8s %8s %16s%n", "store", "threads", "names", "writes%", "ops/s");
+		for (int round = 0; round < 2; round++) { // the first round warms up
+			System.out.printf("%-14s %8d %8d %8d %16.0f%n", "registry", threads, names, writes,
+					run(concurrent, prefixes, threads, writes, millis));
+			System.out.printf("%-14s %8d %8d %8d %16.0f%n", "synchronized", threads, names, writes,
+					run(locked, prefixes, threads, writes, millis));
+		}
+	}
+
+	/** Runs the mix of operations on a freshly filled store, returning operations per second */
+	private static double run(final Store store, final String[] prefixes, int threads, final int writes, long millis)
+			throws InterruptedException {
+		for (int i = 0; i < prefixes.length; i++) {
+			store.put("e" + i, Assignment.prefix2tree(prefixes[i]));
+		}
+		final LongAdder operations = new LongAdder();
+		final AtomicBoolean stop = new AtomicBoolean();
+		final CountDownLatch done = new CountDownLatch(threads);
+		for (int t = 0; t < threads; t++) {
+			new Thread(() -> {
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				long count = 0;
+				while (!stop.get()) {
+					int i = random.nextInt(prefixes.length);
+					String name = "e" + i;
+					if (random.nextInt(100) >= writes) {
+						sink = store.read(name);
+					} else if (random.nextBoolean()) {
+						store.put(name, Assignment.prefix2tree(prefixes[random.nextInt(prefixes.length)]));
+					} else {
+						store.simplify(name);
+					}
+					count++;
+				}
+				operations.add(count);
+				done.countDown();
+			}).start();
+		}
+		long start = System.nanoTime();
+		Thread.sleep(millis);
+		stop.set(true);
+		done.await();
+		return operations.sum() * 1e9 / (System.nanoTime() - start);
+	}
+}
@@ -0,0 +1,223 @@
+import java.util.Arrays;
+
+import textbook.LinkedBinaryTree;
+import textbook.Position;
+
+/**
+ * An expression tree in which every node caches its subtree written out in
+ * prefix and infix notation, as ropes joining the text of its children.
+ *
+ * The text is made when it is first asked for, and every update method
+ * (set, addLeft, addRight, attach, remove, pruneSubtree and replaceSubtree)
+ * forgets it along the path from the change to the root, so writing the tree
+ * out again after a point edit, such as substituting one leaf, costs O(depth)
+ * rather than O(n). prefix and infix return the text as a CharSequence
+ * without copying it.
+ *
+ * A node's text is only ever forgotten together with that of its ancestors,
+ * so the nodes to write out again are always those at the top of the tree.
+ *
+ * Trees attached or grafted into a rendered tree must themselves be rendered
+ * trees.
+ */
+public class RenderedBinaryTree extends LinkedBinaryTree<String> {
+
+	/** Notations cached by each node */
+	private static final int PREFIX = 0, INFIX = 1;
+
+	private static final Rope SPACE = Rope.of(" "), OPEN = Rope.of("("), CLOSE = Rope.of(")");
+
+	//---- nested RenderedNode class ----
+	/** A node which also caches its subtree in each notation */
+	private static class RenderedNode extends Node<String> {
+		private final Rope[] text = new Rope[2]; // null until made, or after a change
+
+		RenderedNode(String e, Node<String> parent, Node<String> left, Node<String> right) {
+			super(e, parent, left, right);
+		}
+	}
+
+	/** Constructs an empty rendered tree */
+	public RenderedBinaryTree() {
+	}
+
+	@Override
+	protected Node<String> createNode(String e, Node<String> parent, Node<String> left, Node<String> right) {
+		return new RenderedNode(e, parent, left, right);
+	}
+
+	@Override
+	protected LinkedBinaryTree<String> createTree() {
+		return new RenderedBinaryTree();
+	}
+
+	/**
+	 * Returns the expression in prefix notation, as for Assignment.tree2prefix
+	 *
+	 * This runs in time proportional to the number of nodes changed since the
+	 * last call, and their depths
+	 *
+	 * @return prefix notation expression of the tree
+	 * @throws IllegalArgumentException
+	 *             if the tree was not a valid expression
+	 */
+	public Rope prefix() throws IllegalArgumentException {
+		return render(PREFIX);
+	}
+
+	/**
+	 * Returns the expression in infix notation, as for Assignment.tree2infix
+	 *
+	 * This runs in time proportional to the number of nodes changed since the
+	 * last call, and their depths
+	 *
+	 * @return infix notation expression of the tree
+	 * @throws IllegalArgumentException
+	 *             if the tree was not a valid expression
+	 */
+	public Rope infix() throws IllegalArgumentException {
+		return render(INFIX);
+	}
+
+	//---- update methods ----
+
+	@Override
+	public String set(Position<String> p, String e) throws IllegalArgumentException {
+		String old = super.set(p, e);
+		forget(validate(p));
+		return old;
+	}
+
+	@Override
+	public Position<String> addLeft(Position<String> p, String e) throws IllegalArgumentException {
+		Position<String> child = super.addLeft(p, e);
+		forget(validate(p));
+		return child;
+	}
+
+	@Override
+	public Position<String> addRight(Position<String> p, String e) throws IllegalArgumentException {
+		Position<String> child = super.addRight(p, e);
+		forget(validate(p));
+		return child;
+	}
+
+	@Override
+	public void attach(Position<String> p, LinkedBinaryTree<String> t1, LinkedBinaryTree<String> t2)
+			throws IllegalArgumentException {
+		checkRendered(t1);
+		checkRendered(t2);
+		super.attach(p, t1, t2);
+		forget(validate(p));
+	}
+
+	@Override
+	public String remove(Position<String> p) throws IllegalArgumentException {
+		Node<String> parent = validate(p).getParent();
+		String old = super.remove(p);
+		forget(parent);
+		return old;
+	}
+
+	@Override
+	public LinkedBinaryTree<String> pruneSubtree(Position<String> p) throws IllegalArgumentException {
+		Node<String> parent = validate(p).getParent();
+		LinkedBinaryTree<String> subtree = super.pruneSubtree(p);
+		forget(parent);
+		return subtree;
+	}
+
+	@Override
+	public LinkedBinaryTree<String> replaceSubtree(Position<String> p, LinkedBinaryTree<String> t)
+			throws IllegalArgumentException {
+		checkRendered(t);
+		Node<String> parent = validate(p).getParent();
+		LinkedBinaryTree<String> old = super.replaceSubtree(p, t);
+		forget(parent);
+		return old;
+	}
+
+	//---- helpers ----
+
+	/**
+	 * Forgets the text of node and its ancestors, stopping at the first which
+	 * has none, as its ancestors have none either
+	 */
+	private void forget(Node<String> node) {
+		while (node != null) {
+			Rope[] text = ((RenderedNode) node).text;
+			if (text[PREFIX] == null && text[INFIX] == null) {
+				return;
+			}
+			text[PREFIX] = null;
+			text[INFIX] = null;
+			node = node.getParent();
+		}
+	}
+
+	private void checkRendered(LinkedBinaryTree<String> t) throws IllegalArgumentException {
+		if (!(t instanceof RenderedBinaryTree)) {
+			throw new IllegalArgumentException("Tree must be a RenderedBinaryTree");
+		}
+	}
+
+	/**
+	 * Iterative helper method to make the text of every node missing it in the
+	 * given notation, in postorder, visiting only those nodes
+	 */
+	private Rope render(int notation) throws IllegalArgumentException {
+		if (root == null) {
+			throw new IllegalArgumentException();
+		}
+		RenderedNode top = (RenderedNode) root;
+		if (top.text[notation] != null) {
+			return top.text[notation];
+		}
+		RenderedNode[] stack = new RenderedNode[16];
+		boolean[] expanded = new boolean[16];
+		int size = 0;
+		stack[size] = top;
+		expanded[size++] = false;
+		while (size > 0) {
+			RenderedNode node = stack[size - 1];
+			RenderedNode left = (RenderedNode) node.getLeft();
+			RenderedNode right = (RenderedNode) node.getRight();
+			String element = node.getElement();
+			if (!expanded[size - 1]) {
+				// operators need two operands, operands must be leaves
+				if (element == null || (left == null) != (right == null)
+						|| Assignment.isOperator(element) != (left != null)) {
+					throw new IllegalArgumentException();
+				}
+				expanded[size - 1] = true;
+				if (left != null) {
+					if (size + 2 > stack.length) {
+						stack = Arrays.copyOf(stack, 2 * stack.length);
+						expanded = Arrays.copyOf(expanded, stack.length);
+					}
+					// only children without text need visiting
+					if (right.text[notation] == null) {
+						stack[size] = right;
+						expanded[size++] = false;
+					}
+					if (left.text[notation] == null) {
+						stack[size] = left;
+						expanded[size++] = false;
+					}
+					continue;
+				}
+			}
+			size--;
+			if (left == null) {
+				// a leaf reads the same in both notations
+				Rope other = node.text[1 - notation];
+				node.text[notation] = other != null ? other : Rope.of(element);
+			} else if (notation == PREFIX) {
+				node.text[PREFIX] = Rope.join(Rope.of(element + " "), left.text[PREFIX], SPACE, right.text[PREFIX]);
+			} else {
+				node.text[INFIX] = Rope.join(OPEN, left.text[INFIX], Rope.of(element), right.text[INFIX], CLOSE);
+			}
+		}
+		return top.text[notation];
+	}
+}
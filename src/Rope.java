@@ -0,0 +1,151 @@
+import java.util.Arrays;
+
+/**
+ * An immutable character sequence made by joining other sequences without
+ * copying them.
+ *
+ * A rope is either a leaf wrapping a String, or a join of a few smaller
+ * ropes. Joining takes time proportional to the number of parts, whatever
+ * their lengths, so a rope for a large text can be rebuilt after a small
+ * change by joining mostly unchanged parts. charAt descends from the top,
+ * taking time proportional to the depth of the rope, and toString copies
+ * each character once.
+ */
+public final class Rope implements CharSequence {
+
+	private final String leaf; // null for a join
+	private final Rope[] parts; // null for a leaf
+	private final int[] ends; // the offset at which each part ends
+	private final int length;
+
+	private Rope(String leaf) {
+		this.leaf = leaf;
+		parts = null;
+		ends = null;
+		length = leaf.length();
+	}
+
+	private Rope(Rope[] parts) {
+		leaf = null;
+		this.parts = parts;
+		ends = new int[parts.length];
+		long total = 0;
+		for (int i = 0; i < parts.length; i++) {
+			total += parts[i].length;
+			if (total > Integer.MAX_VALUE) {
+				throw new IllegalArgumentException("Rope would be too long");
+			}
+			ends[i] = (int) total;
+		}
+		length = (int) total;
+	}
+
+	/**
+	 * @param text
+	 * @return a rope for the given text
+	 */
+	public static Rope of(String text) {
+		return new Rope(text);
+	}
+
+	/**
+	 * Joins ropes, in order, in O(number of parts) time
+	 *
+	 * @param parts
+	 * @return a rope for the parts one after another
+	 */
+	public static Rope join(Rope... parts) {
+		return new Rope(parts.clone());
+	}
+
+	@Override
+	public int length() {
+		return length;
+	}
+
+	/**
+	 * Returns the character at the given index, in O(depth) time
+	 */
+	@Override
+	public char charAt(int index) {
+		if (index < 0 || index >= length) {
+			throw new IndexOutOfBoundsException("index " + index + ", length " + length);
+		}
+		Rope rope = this;
+		while (rope.leaf == null) {
+			int i = 0;
+			while (rope.ends[i] <= index) {
+				i++;
+			}
+			if (i > 0) {
+				index -= rope.ends[i - 1];
+			}
+			rope = rope.parts[i];
+		}
+		return rope.leaf.charAt(index);
+	}
+
+	/**
+	 * Returns a copy of the characters from start to end, in O(depth + end -
+	 * start) time
+	 */
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		if (start < 0 || end > length || start > end) {
+			throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", length " + length);
+		}
+		StringBuilder out = new StringBuilder(end - start);
+		appendRange(out, start, end);
+		return out.toString();
+	}
+
+	/**
+	 * Appends the whole rope to out, without recursion
+	 *
+	 * @param out
+	 */
+	public void appendTo(StringBuilder out) {
+		appendRange(out, 0, length);
+	}
+
+	@Override
+	public String toString() {
+		if (leaf != null) {
+			return leaf;
+		}
+		StringBuilder out = new StringBuilder(length);
+		appendTo(out);
+		return out.toString();
+	}
+
+	/** Helper method to append the characters from start to end */
+	private void appendRange(StringBuilder out, int start, int end) {
+		// ropes still to visit, with the offset at which each begins
+		Rope[] stack = new Rope[16];
+		int[] offsets = new int[16];
+		int top = 0;
+		stack[top] = this;
+		offsets[top++] = 0;
+		while (top > 0) {
+			top--;
+			Rope rope = stack[top];
+			int offset = offsets[top];
+			if (offset >= end || offset + rope.length <= start) {
+				continue; // outside the range
+			}
+			if (rope.leaf != null) {
+				out.append(rope.leaf, Math.max(start - offset, 0), Math.min(end - offset, rope.length));
+				continue;
+			}
+			if (top + rope.parts.length > stack.length) {
+				stack = Arrays.copyOf(stack, 2 * (top + rope.parts.length));
+				offsets = Arrays.copyOf(offsets, stack.length);
+			}
+			// push the parts last to first, so the first is visited first
+			for (int i = rope.parts.length - 1; i >= 0; i--) {
+				stack[top] = rope.parts[i];
+				offsets[top++] = offset + (i == 0 ? 0 : rope.ends[i - 1]);
+			}
+		}
+	}
+}
@@ -0,0 +1,347 @@
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import textbook.AbstractBinaryTree;
+import textbook.BinaryTree;
+import textbook.Position;
+
+/**
+ * A read-only expression tree in a succinct form: the shape takes a little
+ * over one bit per node, and each element a few bits more.
+ *
+ * An expression tree is a full binary tree, every node having no children
+ * or two, so its shape is fixed by which nodes are operators. The nodes are
+ * numbered in level order (root 0, then its children, then theirs), and bit
+ * i of the shape is set if node i is an operator. The children of the k-th
+ * operator in that order are then nodes 2k+1 and 2k+2, so
+ *
+ * <pre>
+ * left(i)   = 2 rank(i) + 1     rank(i): operators before node i
+ * right(i)  = 2 rank(i) + 2
+ * parent(i) = select((i-1)/2)   select(k): position of the k-th operator
+ * </pre>
+ *
+ * rank is answered in constant time from a count of set bits before every
+ * block of 512 bits. select starts from the block holding every 512th set
+ * bit, and looks among the blocks up to the one holding the next such bit:
+ * it scans them when there are a few, as where operators are dense, and
+ * otherwise, as after a long run of leaves, finds the block by binary search
+ * of the counts, so it takes O(log n) time at worst.
+ *
+ * Elements are numbered in a symbol table of the distinct elements, and the
+ * numbers are packed into just enough bits each.
+ *
+ * Positions are node numbers wrapped in small objects made on demand, so two
+ * positions for the same node are equal but not necessarily identical.
+ */
+public class SuccinctExpressionTree extends AbstractBinaryTree<String> {
+
+	/** log2 of the bits per rank block, and of the set bits per select sample */
+	private static final int BLOCK = 9, SAMPLE = 9;
+
+	/** The most blocks select scans one by one before searching them instead */
+	private static final int SCAN = 8;
+
+	private final int size;
+
+	// the shape, and its rank and select directories
+	private final long[] shape;
+	private final int[] ranks; // set bits before each block
+	private final int[] samples; // block holding set bit number j << SAMPLE
+
+	// the elements, packed
+	private final String[] symbols;
+	private final long[] tokens;
+	private final int width;
+
+	/**
+	 * Encodes a tree representing an arithmetic expression
+	 *
+	 * This runs in O(n) expected time
+	 *
+	 * @param tree
+	 *            - a tree representing an arithmetic expression
+	 * @throws IllegalArgumentException
+	 *             if tree was not a valid expression
+	 */
+	public SuccinctExpressionTree(BinaryTree<String> tree) throws IllegalArgumentException {
+		if (tree == null || tree.isEmpty()) {
+			throw new IllegalArgumentException();
+		}
+		size = tree.size();
+		shape = new long[(size + 63) >>> 6];
+		int[] codes = new int[size];
+		HashMap<String, Integer> numbers = new HashMap<String, Integer>();
+
+		// breadth first walk, the queue being the level order itself
+		@SuppressWarnings("unchecked")
+		Position<String>[] order = (Position<String>[]) new Position<?>[size];
+		int tail = 0;
+		order[tail++] = tree.root();
+		for (int i = 0; i < size; i++) {
+			Position<String> p = order[i];
+			order[i] = null;
+			if (p == null) {
+				throw new IllegalArgumentException(); // size was wrong
+			}
+			Position<String> left = tree.left(p);
+			Position<String> right = tree.right(p);
+			String element = p.getElement();
+			if (element == null || (left == null) != (right == null)
+					|| Assignment.isOperator(element) != (left != null)) {
+				throw new IllegalArgumentException();
+			}
+			if (left != null) {
+				if (tail + 2 > size) {
+					throw new IllegalArgumentException(); // size was wrong
+				}
+				shape[i >>> 6] |= 1L << i;
+				order[tail++] = left;
+				order[tail++] = right;
+			}
+			Integer number = numbers.get(element);
+			if (number == null) {
+				number = numbers.size();
+				numbers.put(element, number);
+			}
+			codes[i] = number;
+		}
+
+		symbols = new String[numbers.size()];
+		for (Map.Entry<String, Integer> entry : numbers.entrySet()) {
+			symbols[entry.getValue()] = entry.getKey();
+		}
+		width = Math.max(1, 32 - Integer.numberOfLeadingZeros(symbols.length - 1));
+		tokens = new long[(int) (((long) size * width + 63) >>> 6)];
+		for (int i = 0; i < size; i++) {
+			long bit = (long) i * width;
+			int word = (int) (bit >>> 6);
+			int offset = (int) (bit & 63);
+			tokens[word] |= (long) codes[i] << offset;
+			if (offset + width > 64) {
+				tokens[word + 1] |= (long) codes[i] >>> (64 - offset);
+			}
+		}
+
+		// rank directory, then select samples
+		int blocks = (size >>> BLOCK) + 1;
+		ranks = new int[blocks + 1];
+		int ones = 0;
+		for (int b = 0; b < blocks; b++) {
+			ranks[b] = ones;
+			int end = Math.min(shape.length, (b + 1) << (BLOCK - 6));
+			for (int w = b << (BLOCK - 6); w < end; w++) {
+				ones += Long.bitCount(shape[w]);
+			}
+		}
+		ranks[blocks] = ones;
+		samples = new int[(ones >>> SAMPLE) + 1];
+		for (int b = 0, j = 0; j << SAMPLE < ones; j++) {
+			while (ranks[b + 1] <= j << SAMPLE) {
+				b++;
+			}
+			samples[j] = b;
+		}
+	}
+
+	//---- nested Slot class ----
+	/** A position: a node number in a particular tree */
+	private static final class Slot implements Position<String> {
+		private final SuccinctExpressionTree tree;
+		private final int index;
+
+		Slot(SuccinctExpressionTree tree, int index) {
+			this.tree = tree;
+			this.index = index;
+		}
+
+		public String getElement() {
+			return tree.element(index);
+		}
+
+		public boolean equals(Object o) {
+			return o instanceof Slot && ((Slot) o).tree == tree && ((Slot) o).index == index;
+		}
+
+		public int hashCode() {
+			return index;
+		}
+	}
+
+	/**
+	 * Returns the approximate number of bytes used, not counting the symbols
+	 * themselves
+	 *
+	 * @return bytes used by the encoding
+	 */
+	public long footprint() {
+		return 8L * (shape.length + tokens.length) + 4L * (ranks.length + samples.length) + 8L * symbols.length;
+	}
+
+	//---- accessors ----
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return false;
+	}
+
+	@Override
+	public Position<String> root() {
+		return position(0);
+	}
+
+	@Override
+	public Position<String> parent(Position<String> p) throws IllegalArgumentException {
+		int i = validate(p);
+		return i == 0 ? null : position(select((i - 1) >>> 1));
+	}
+
+	@Override
+	public Position<String> left(Position<String> p) throws IllegalArgumentException {
+		int i = validate(p);
+		return isOperator(i) ? position(2 * rank(i) + 1) : null;
+	}
+
+	@Override
+	public Position<String> right(Position<String> p) throws IllegalArgumentException {
+		int i = validate(p);
+		return isOperator(i) ? position(2 * rank(i) + 2) : null;
+	}
+
+	@Override
+	public Position<String> sibling(Position<String> p) throws IllegalArgumentException {
+		int i = validate(p);
+		// the left child of an operator is odd, the right even
+		return i == 0 ? null : position(i % 2 == 1 ? i + 1 : i - 1);
+	}
+
+	@Override
+	public int numChildren(Position<String> p) throws IllegalArgumentException {
+		return isOperator(validate(p)) ? 2 : 0;
+	}
+
+	@Override
+	public boolean isRoot(Position<String> p) throws IllegalArgumentException {
+		return validate(p) == 0;
+	}
+
+	/** Returns the positions of the tree, in level order, made on demand */
+	@Override
+	public Iterable<Position<String>> positions() {
+		return new Iterable<Position<String>>() {
+			public Iterator<Position<String>> iterator() {
+				return new Iterator<Position<String>>() {
+					private int i = 0;
+
+					public boolean hasNext() {
+						return i < size;
+					}
+
+					public Position<String> next() {
+						if (i == size) {
+							throw new NoSuchElementException();
+						}
+						return position(i++);
+					}
+				};
+			}
+		};
+	}
+
+	/** Returns the elements of the tree, in level order */
+	@Override
+	public Iterator<String> iterator() {
+		return new Iterator<String>() {
+			private int i = 0;
+
+			public boolean hasNext() {
+				return i < size;
+			}
+
+			public String next() {
+				if (i == size) {
+					throw new NoSuchElementException();
+				}
+				return element(i++);
+			}
+		};
+	}
+
+	//---- helpers ----
+
+	private boolean isOperator(int i) {
+		return (shape[i >>> 6] & (1L << i)) != 0;
+	}
+
+	/** Returns the number of operators before node i */
+	private int rank(int i) {
+		int count = ranks[i >>> BLOCK];
+		for (int w = (i >>> BLOCK) << (BLOCK - 6); w < i >>> 6; w++) {
+			count += Long.bitCount(shape[w]);
+		}
+		return count + Long.bitCount(shape[i >>> 6] & ((1L << i) - 1));
+	}
+
+	/** Returns the node number of the k-th operator, counting from 0 */
+	private int select(int k) {
+		int j = k >>> SAMPLE;
+		int b = samples[j];
+		// the block is no later than the one holding the next sampled bit
+		int last = j + 1 < samples.length ? samples[j + 1] : ranks.length - 2;
+		if (last - b <= SCAN) {
+			while (ranks[b + 1] <= k) {
+				b++;
+			}
+		} else {
+			// the last block with at most k set bits before it
+			while (b < last) {
+				int middle = (b + last + 1) >>> 1;
+				if (ranks[middle] <= k) {
+					b = middle;
+				} else {
+					last = middle - 1;
+				}
+			}
+		}
+		k -= ranks[b];
+		int w = b << (BLOCK - 6);
+		for (int ones; (ones = Long.bitCount(shape[w])) <= k; w++) {
+			k -= ones;
+		}
+		long word = shape[w];
+		for (; k > 0; k--) {
+			word &= word - 1; // clear the lowest set bit
+		}
+		return (w << 6) + Long.numberOfTrailingZeros(word);
+	}
+
+	private String element(int i) {
+		long bit = (long) i * width;
+		int word = (int) (bit >>> 6);
+		int offset = (int) (bit & 63);
+		long code = tokens[word] >>> offset;
+		if (offset + width > 64) {
+			code |= tokens[word + 1] << (64 - offset);
+		}
+		return symbols[(int) (code & ((1L << width) - 1))];
+	}
+
+	private Position<String> position(int i) {
+		return new Slot(this, i);
+	}
+
+	/** Validates a position, returning its node number */
+	private int validate(Position<String> p) throws IllegalArgumentException {
+		if (!(p instanceof Slot) || ((Slot) p).tree != this) {
+			throw new IllegalArgumentException("Not valid position type");
+		}
+		return ((Slot) p).index;
+	}
+}
@@ -1,12 +1,30 @@
 import static org.junit.Assert.*;
 
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
+import textbook.AnnotatedBinaryTree;
+import textbook.ArrayQueue;
+import textbook.BinaryTree;
+import textbook.ConcurrentArrayQueue;
+import textbook.IndexedBinaryTree;
+import textbook.IntArrayQueue;
 import textbook.LinkedBinaryTree;
+import textbook.LockFreeQueue;
+import textbook.LongArrayQueue;
+import textbook.Position;
+import textbook.Queue;
 
 public class TestAssignment {
 	
@@ -316,5 +334,816 @@ public class TestAssignment {
 			tree = Assignment.prefix2tree("* + c c - a b");
 			assertEquals("* + 3 3 - 1 5", Assignment.tree2prefix(Assignment.substitute(tree, hm2)));
 		}
+
+	// Some testing of postfix2tree
+	@Test(timeout = 100)
+	public void testPostfix2tree() {
+		LinkedBinaryTree<String> tree;
+
+		tree = Assignment.postfix2tree("hi");
+		assertEquals(1, tree.size());
+		assertEquals("hi", tree.root().getElement());
+
+		tree = Assignment.postfix2tree("5 10 -");
+		assertEquals(3, tree.size());
+		assertEquals("-", tree.root().getElement());
+		assertEquals("5", tree.left(tree.root()).getElement());
+		assertEquals("10", tree.right(tree.root()).getElement());
+
+		tree = Assignment.postfix2tree("5 4 3 - +");
+		assertTrue(Assignment.equals(tree, Assignment.prefix2tree("+ 5 - 4 3")));
+
+		tree = Assignment.postfix2tree("1 b 3 + - d *");
+		assertTrue(Assignment.equals(tree, Assignment.prefix2tree("* - 1 + b 3 d")));
+
+		thrown.expect(IllegalArgumentException.class);
+		tree = Assignment.postfix2tree("5 4 3 -");
+	}
+
+	// Some testing of tree2postfix
+	@Test(timeout = 100)
+	public void testTree2postfix() {
+		LinkedBinaryTree<String> tree;
+
+		tree = Assignment.prefix2tree("x");
+		assertEquals("x", Assignment.tree2postfix(tree));
+
+		tree = Assignment.prefix2tree("+ 1 2");
+		assertEquals("1 2 +", Assignment.tree2postfix(tree));
+
+		tree = Assignment.prefix2tree("* - 1 + b 3 d");
+		assertEquals("1 b 3 + - d *", Assignment.tree2postfix(tree));
+
+		tree = Assignment.prefix2tree("- + 20 15 - c 100");
+		assertEquals("20 15 + c 100 - -", Assignment.tree2postfix(Assignment.postfix2tree(Assignment.tree2postfix(tree))));
+
+		thrown.expect(IllegalArgumentException.class);
+		Assignment.tree2postfix(new LinkedBinaryTree<String>());
+	}
+
+	// Some testing of infix2tree
+	@Test(timeout = 100)
+	public void testInfix2tree() {
+		LinkedBinaryTree<String> tree;
+
+		tree = Assignment.infix2tree("x");
+		assertEquals(1, tree.size());
+		assertEquals("x", tree.root().getElement());
+
+		tree = Assignment.infix2tree("(2+15)");
+		assertTrue(Assignment.equals(tree, Assignment.prefix2tree("+ 2 15")));
+
+		tree = Assignment.infix2tree("1 - b + 3 * d");
+		assertTrue(Assignment.equals(tree, Assignment.prefix2tree("+ - 1 b * 3 d")));
+
+		tree = Assignment.infix2tree("a*(b-c)*-4");
+		assertTrue(Assignment.equals(tree, Assignment.prefix2tree("* * a - b c -4")));
+
+		tree = Assignment.prefix2tree("* - 1 + b 3 d");
+		assertEquals("((1-(b+3))*d)", Assignment.tree2infix(Assignment.infix2tree(Assignment.tree2infix(tree))));
+
+		thrown.expect(IllegalArgumentException.class);
+		tree = Assignment.infix2tree("(1+2");
+	}
+
+	// Detaching a subtree, and the positions on either side of the cut
+	@Test(timeout = 100)
+	public void testPruneSubtree() {
+		LinkedBinaryTree<String> tree = Assignment.prefix2tree("+ * a b - c d");
+		Position<String> product = tree.left(tree.root());
+		Position<String> a = tree.left(product);
+		Position<String> c = tree.left(tree.right(tree.root()));
+
+		LinkedBinaryTree<String> pruned = tree.pruneSubtree(product);
+		// both sizes are counted again lazily
+		assertEquals(-1, tree.knownSize());
+		assertEquals(4, tree.size());
+		assertEquals(4, tree.knownSize());
+		assertEquals(3, pruned.size());
+		assertNull(tree.left(tree.root()));
+
+		// a went with the subtree: it is stale in tree but valid in pruned
+		try {
+			tree.set(a, "z");
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		pruned.set(a, "z");
+		assertEquals("* z b", Assignment.tree2prefix(pruned));
+
+		// positions outside the subtree are untouched
+		tree.set(c, "e");
+		assertEquals("- e d", Assignment.tree2prefix(tree.pruneSubtree(tree.right(tree.root()))));
+		assertEquals(1, tree.size());
+	}
+
+	// Swapping a subtree for another tree, and using the subtree taken out
+	@Test(timeout = 100)
+	public void testReplaceSubtree() {
+		LinkedBinaryTree<String> tree = Assignment.prefix2tree("+ * a b - c d");
+		Position<String> a = tree.left(tree.left(tree.root()));
+		LinkedBinaryTree<String> replacement = Assignment.prefix2tree("- x y");
+		Position<String> x = replacement.left(replacement.root());
+
+		LinkedBinaryTree<String> old = tree.replaceSubtree(tree.left(tree.root()), replacement);
+		assertTrue(replacement.isEmpty());
+		assertEquals("+ - x y - c d", Assignment.tree2prefix(tree));
+		assertEquals(7, tree.size());
+
+		// the old subtree is a tree of its own, positions and all
+		assertEquals(3, old.size());
+		old.set(a, "2");
+		assertEquals("* 2 b", Assignment.tree2prefix(old));
+		assertEquals("4", Assignment.tree2prefix(Assignment.simplify(Assignment.substitute(old, "b", 2))));
+
+		// positions grafted in from the replacement are valid in tree
+		tree.set(x, "w");
+		assertEquals("+ - w y - c d", Assignment.tree2prefix(tree));
+
+		thrown.expect(IllegalArgumentException.class);
+		tree.set(a, "z");
+	}
+
+	// Cached subtree sizes and heights kept up to date by every update
+	@Test(timeout = 100)
+	public void testAnnotatedBinaryTree() {
+		AnnotatedBinaryTree<String> tree = new AnnotatedBinaryTree<String>();
+		Position<String> root = tree.addRoot("+");
+		Position<String> product = tree.addLeft(root, "*");
+		Position<String> c = tree.addRight(root, "c");
+		Position<String> a = tree.addLeft(product, "a");
+		tree.addRight(product, "b");
+		assertEquals(5, tree.size());
+		assertEquals(3, tree.subtreeSize(product));
+		assertEquals(2, tree.height(root));
+
+		tree.remove(tree.right(product));
+		tree.remove(a);
+		assertEquals(3, tree.size());
+		assertEquals(1, tree.subtreeSize(product));
+		assertEquals(1, tree.height(root));
+
+		AnnotatedBinaryTree<String> left = new AnnotatedBinaryTree<String>();
+		left.addRoot("-");
+		left.addLeft(left.root(), "x");
+		left.addRight(left.root(), "y");
+		AnnotatedBinaryTree<String> right = new AnnotatedBinaryTree<String>();
+		right.addRoot("z");
+		tree.attach(product, left, right);
+		assertEquals(7, tree.size());
+		assertEquals(5, tree.subtreeSize(product));
+		assertEquals(3, tree.height(root));
+
+		LinkedBinaryTree<String> pruned = tree.pruneSubtree(product);
+		assertEquals(2, tree.size());
+		assertEquals(1, tree.height(root));
+		assertEquals(5, pruned.size());
+		assertEquals(2, pruned.height(pruned.root()));
+
+		tree.replaceSubtree(c, pruned);
+		assertEquals(6, tree.size());
+		assertEquals(5, tree.subtreeSize(tree.right(root)));
+		assertEquals(3, tree.height(root));
+	}
+
+	// Round-trips of generated expressions through prefix2tree and tree2prefix
+	@Test(timeout = 1000)
+	public void testGeneratedRoundTrip() {
+		for (long seed = 0; seed < 20; seed++) {
+			ExpressionGenerator generator = new ExpressionGenerator(seed);
+			String prefix = generator.prefix(101);
+			assertEquals(prefix, Assignment.tree2prefix(Assignment.prefix2tree(prefix)));
+
+			// the generator builds the same tree directly for the same seed
+			LinkedBinaryTree<String> tree = new ExpressionGenerator(seed).tree(101);
+			assertEquals(101, tree.size());
+			assertTrue(Assignment.equals(tree, Assignment.prefix2tree(prefix)));
+		}
+
+		// constants may go all the way up to Integer.MAX_VALUE
+		ExpressionGenerator generator = new ExpressionGenerator(0);
+		generator.setConstants(1, Integer.MAX_VALUE);
+		for (String token : generator.prefix(101).split(" ")) {
+			assertTrue(Assignment.isOperator(token) || Integer.parseInt(token) >= 0);
+		}
+		try {
+			generator.prefix(-1);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected, rather than a NegativeArraySizeException
+		}
+	}
+
+	// Recording of calls and latencies, and publication over JMX
+	@Test(timeout = 5000)
+	public void testExpressionMetrics() throws Exception {
+		ExpressionMetrics.register();
+		ExpressionMetrics.register(); // registering twice is harmless
+		javax.management.ObjectName name = new javax.management.ObjectName("Assignment:type=ExpressionMetrics");
+		assertTrue(java.lang.management.ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+
+		ExpressionMetrics metrics = ExpressionMetrics.get();
+		long calls = metrics.getCalls().get("simplify");
+		long failures = metrics.getFailures().get("occurrences");
+		long recorded = 0;
+		for (long bucket : metrics.getLatencyHistograms().get("simplify")) {
+			recorded += bucket;
+		}
+		metrics.setEnabled(true);
+		try {
+			Assignment.simplify(Assignment.prefix2tree("+ 1 2"));
+			try {
+				Assignment.occurrences(Assignment.prefix2tree("+ 1 x"), null);
+				fail();
+			} catch (IllegalArgumentException e) {
+				// recorded as a failure
+			}
+		} finally {
+			metrics.setEnabled(false);
+		}
+		assertEquals(calls + 1, (long) metrics.getCalls().get("simplify"));
+		assertEquals(failures + 1, (long) metrics.getFailures().get("occurrences"));
+		long after = 0;
+		for (long bucket : metrics.getLatencyHistograms().get("simplify")) {
+			after += bucket;
+		}
+		assertEquals(recorded + 1, after);
+	}
+
+	// Some testing of incremental evaluation
+	@Test(timeout = 100)
+	public void testEvaluatedExpression() {
+		EvaluatedExpression expression = new EvaluatedExpression(Assignment.prefix2tree("+ * x y - x 3"));
+		assertFalse(expression.isBound());
+		expression.bind("x", 5);
+		expression.bind("y", 2);
+		assertEquals(12, expression.value());
+		expression.bind("x", 10);
+		assertEquals(27, expression.value());
+		expression.unbind("y");
+		assertFalse(expression.isBound());
+
+		thrown.expect(IllegalStateException.class);
+		expression.value();
+	}
+
+	// Some testing of the variable index
+	@Test(timeout = 100)
+	public void testIndex() {
+		IndexedBinaryTree<String> tree = Assignment.index(Assignment.prefix2tree("* - 1 c + c a"));
+		assertEquals(2, Assignment.occurrences(tree, "c"));
+		assertEquals(0, Assignment.occurrences(tree, "1"));
+		assertEquals(2, Assignment.freeVariables(tree).size());
+		assertTrue(Assignment.freeVariables(tree).contains("a"));
+
+		// substitute leaves the indexed tree as it was
+		assertEquals("* - 1 5 + 5 a", Assignment.tree2prefix(Assignment.substitute(tree, "c", 5)));
+		assertEquals("* - 1 c + c a", Assignment.tree2prefix(tree));
+		assertEquals(2, Assignment.occurrences(tree, "c"));
+
+		// substituteInPlace updates it
+		HashMap<String, Integer> map = new HashMap<String, Integer>();
+		map.put("c", 5);
+		assertSame(tree, Assignment.substituteInPlace(tree, map));
+		assertEquals("* - 1 5 + 5 a", Assignment.tree2prefix(tree));
+		assertEquals(0, Assignment.occurrences(tree, "c"));
+		assertFalse(Assignment.freeVariables(tree).contains("c"));
+
+		// an indexed tree made invalid is still rejected by substitute
+		tree.set(tree.root(), "a");
+		try {
+			Assignment.substitute(tree, "a", 1);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+
+		assertEquals(1, Assignment.occurrences(Assignment.prefix2tree("+ x y"), "x"));
+	}
+	
+	// Some testing of the arithmetic modes
+	@Test(timeout = 100)
+	public void testArithmetic() {
+		String overflow = "* 65536 65536";
+		assertEquals("0", Assignment.tree2prefix(Assignment.simplify(Assignment.prefix2tree(overflow))));
+		assertEquals("4294967296", Assignment.tree2prefix(Assignment.simplify(Assignment.prefix2tree(overflow), Arithmetic.CHECKED)));
+		assertEquals("4294967296", Assignment.tree2prefix(Assignment.simplify(Assignment.prefix2tree(overflow), Arithmetic.EXACT)));
+
+		// literals beyond a long, and results promoted past a long
+		assertEquals("100000000000000000000", Assignment.tree2prefix(Assignment.simplify(
+				Assignment.prefix2tree("+ 99999999999999999999 1"), Arithmetic.EXACT)));
+		assertEquals("85070591730234615847396907784232501249", Assignment.tree2prefix(Assignment.simplify(
+				Assignment.prefix2tree("* 9223372036854775807 9223372036854775807"), Arithmetic.EXACT)));
+		assertEquals("x", Assignment.tree2prefix(Assignment.simplifyFancy(
+				Assignment.prefix2tree("* 00000000000000000001 x"), Arithmetic.EXACT)));
+
+		thrown.expect(ArithmeticException.class);
+		Assignment.simplify(Assignment.prefix2tree("* 4294967296 4294967296"), Arithmetic.CHECKED);
+	}
+	
+	// Some testing of algebraic equivalence
+	@Test(timeout = 100)
+	public void testEquivalent() {
+		assertTrue(Assignment.equivalent(Assignment.prefix2tree("* + x 1 - x 1"), Assignment.prefix2tree("- * x x 1")));
+		assertTrue(Assignment.equivalent(Assignment.prefix2tree("- x x"), Assignment.prefix2tree("* 0 y")));
+		assertFalse(Assignment.equivalent(Assignment.prefix2tree("+ x y"), Assignment.prefix2tree("+ x z")));
+		assertFalse(Assignment.equivalent(Assignment.prefix2tree("* x x"), Assignment.prefix2tree("* 2 x")));
+		assertFalse(Assignment.equivalent(Assignment.prefix2tree("* 65536 65536"), Assignment.prefix2tree("0")));
+		assertTrue(Assignment.equivalent(Assignment.prefix2tree("* 65536 65536"), Assignment.prefix2tree("4294967296"), 0.5));
+		// 2^61 is 1 modulo the Mersenne prime 2^61 - 1, so no fixed modulus will do
+		assertFalse(Assignment.equivalent(Assignment.prefix2tree("* 2147483648 1073741824"), Assignment.prefix2tree("1")));
+		assertFalse(Assignment.equivalent(Assignment.prefix2tree("* x 2305843009213693952"), Assignment.prefix2tree("x")));
+		assertTrue(Assignment.equivalent(Assignment.prefix2tree("* 2147483648 1073741824"), Assignment.prefix2tree("2305843009213693952")));
+		assertTrue(Assignment.equivalent(Assignment.prefix2tree("- * x -3 * -3 x"), Assignment.prefix2tree("0")));
+
+		thrown.expect(IllegalArgumentException.class);
+		Assignment.equivalent(Assignment.prefix2tree("x"), Assignment.prefix2tree("x"), 0);
+	}
+	
+	// Some testing of the canonical form
+	@Test(timeout = 100)
+	public void testNormalize() {
+		assertEquals("- * x x 1", Assignment.tree2prefix(Assignment.normalize(Assignment.prefix2tree("* + x 1 - x 1"))));
+		assertEquals("+ + * x x * * 2 x y * y y", Assignment.tree2prefix(Assignment.normalize(Assignment.prefix2tree("* + x y + y x"))));
+		assertEquals("0", Assignment.tree2prefix(Assignment.normalize(Assignment.prefix2tree("- * x y * y x"))));
+		assertEquals("- * -3 a 4", Assignment.tree2prefix(Assignment.normalize(Assignment.prefix2tree("- 2 * 3 + a 2"))));
+		assertEquals(16, Polynomial.of(Assignment.prefix2tree("* * + a 1 + b 1 * + c 1 + d 1")).size());
+	}
+	
+	// Some testing of rebalancing
+	@Test(timeout = 1000)
+	public void testRebalance() {
+		assertEquals("+ + + a b + c d e", Assignment.tree2prefix(Assignment.rebalance(Assignment.prefix2tree("+ + + + a b c d e"))));
+		assertEquals("- + a b * * c d - e f", Assignment.tree2prefix(Assignment.rebalance(Assignment.prefix2tree("- + a b * c * d - e f"))));
+		assertEquals("- - - a b c d", Assignment.tree2prefix(Assignment.rebalance(Assignment.prefix2tree("- - - a b c d"))));
+
+		// a chain far too deep to walk recursively
+		StringBuilder prefix = new StringBuilder();
+		for (int i = 0; i < 100000; i++) {
+			prefix.append("* ");
+		}
+		prefix.append("1");
+		for (int i = 0; i < 100000; i++) {
+			prefix.append(" x");
+		}
+		LinkedBinaryTree<String> tree = Assignment.rebalance(Assignment.prefix2tree(prefix.toString()));
+		assertEquals(200001, tree.size());
+		assertEquals(17, tree.height(tree.root()));
+		assertEquals("*", tree.root().getElement());
+	}
+	
+	// Some testing of the off-heap tree
+	@Test(timeout = 1000)
+	public void testOffHeapExpressionTree() throws Exception {
+		OffHeapExpressionTree tree = OffHeapExpressionTree.fromPrefix(new StringReader("- * x 12 + x y"));
+		assertEquals(7, tree.size());
+		assertEquals(2, tree.height(tree.root()));
+		assertEquals("*", tree.left(tree.root()).getElement());
+		assertEquals(tree.root(), tree.parent(tree.right(tree.root())));
+
+		Path file = Files.createTempFile("expression", ".tree");
+		try {
+			tree.save(file);
+			OffHeapExpressionTree mapped = OffHeapExpressionTree.map(file);
+			StringBuilder prefix = new StringBuilder();
+			mapped.writePrefix(prefix);
+			assertEquals("- * x 12 + x y", prefix.toString());
+			mapped.close();
+		} finally {
+			Files.delete(file);
+		}
+
+		thrown.expect(IllegalArgumentException.class);
+		OffHeapExpressionTree.fromPrefix(new StringReader("+ 1"));
+	}
+	
+	// Some testing of the succinct tree
+	@Test(timeout = 1000)
+	public void testSuccinctExpressionTree() {
+		LinkedBinaryTree<String> tree = Assignment.prefix2tree("- * x 12 + * x x y");
+		SuccinctExpressionTree succinct = new SuccinctExpressionTree(tree);
+		assertEquals(9, succinct.size());
+		assertEquals("- * x 12 + * x x y", Assignment.tree2prefix(succinct));
+		assertEquals("((x*12)-((x*x)+y))", Assignment.tree2infix(succinct));
+		assertEquals(succinct.root(), succinct.parent(succinct.left(succinct.root())));
+		assertTrue(Assignment.equivalent(tree, succinct));
+
+		EvaluatedExpression expression = new EvaluatedExpression(succinct);
+		expression.bind("x", 3);
+		expression.bind("y", 1);
+		assertEquals(26, expression.value());
+
+		LinkedBinaryTree<String> invalid = new LinkedBinaryTree<String>();
+		invalid.addLeft(invalid.addRoot("+"), "1");
+		thrown.expect(IllegalArgumentException.class);
+		new SuccinctExpressionTree(invalid);
+	}
+	
+	// Parents found across a long run of leaves in level order
+	@Test(timeout = 1000)
+	public void testSuccinctSparseSelect() {
+		// a perfect tree with 2^14 leaves, the last of them replaced by a long
+		// chain, so that 16383 leaves in a row lie between two operators
+		StringBuilder prefix = new StringBuilder();
+		int[] depths = new int[64];
+		int top = 0;
+		depths[top++] = 0;
+		while (top > 0) {
+			int depth = depths[--top];
+			if (depth < 14) {
+				prefix.append("+ ");
+				depths[top++] = depth + 1;
+				depths[top++] = depth + 1;
+			} else if (top > 0) {
+				prefix.append("x ");
+			}
+		}
+		for (int i = 0; i < 2000; i++) {
+			prefix.append("* y ");
+		}
+		prefix.append("z");
+		LinkedBinaryTree<String> tree = Assignment.prefix2tree(prefix.toString());
+		SuccinctExpressionTree succinct = new SuccinctExpressionTree(tree);
+		assertEquals(tree.size(), succinct.size());
+		assertEquals(prefix.toString(), Assignment.tree2prefix(succinct));
+		for (Position<String> p : succinct.positions()) {
+			if (succinct.isInternal(p)) {
+				assertEquals(p, succinct.parent(succinct.left(p)));
+				assertEquals(p, succinct.parent(succinct.right(p)));
+			}
+		}
+	}
+
+	// Some testing of the lazy tree
+	@Test(timeout = 1000)
+	public void testLazyExpressionTree() {
+		LazyExpressionTree tree = new LazyExpressionTree("- * x 12 + * x 3 y");
+		assertEquals(9, tree.size());
+		assertEquals(1, tree.created());
+		Position<String> p = tree.right(tree.root());
+		assertEquals("+", p.getElement());
+		assertEquals("*", tree.left(p).getElement());
+		assertEquals(5, tree.created()); // only the path to p's children
+
+		assertEquals("- * x 12 + * x 3 y", Assignment.tree2prefix(tree));
+		assertEquals("- * x 12 + * x 3 5", Assignment.tree2prefix(Assignment.substitute(tree, "y", 5)));
+		assertEquals("- * x 12 + * x 3 y", Assignment.tree2prefix(Assignment.simplify(tree)));
+		assertEquals("- 0 x", Assignment.tree2prefix(Assignment.simplifyFancy(new LazyExpressionTree("- * 0 x + x 0"))));
+
+		thrown.expect(IllegalArgumentException.class);
+		new LazyExpressionTree("+ 1 2 3");
+	}
+
+	@Test
+	public void testRenderedBinaryTree() {
+		RenderedBinaryTree tree = Assignment.rendered(Assignment.prefix2tree("- * x 12 + * x 3 y"));
+		assertEquals("- * x 12 + * x 3 y", tree.prefix().toString());
+		assertEquals("((x*12)-((x*3)+y))", Assignment.tree2infix(tree));
+		Position<String> y = tree.right(tree.right(tree.root()));
+		tree.set(y, "5");
+		CharSequence prefix = tree.prefix();
+		assertEquals("- * x 12 + * x 3 5", prefix.toString());
+		assertEquals('5', prefix.charAt(prefix.length() - 1));
+		assertEquals("* x 12", prefix.subSequence(2, 8).toString());
+		assertEquals("((x*12)-((x*3)+5))", Assignment.tree2infix(tree));
+
+		tree.replaceSubtree(tree.left(tree.root()), Assignment.rendered(Assignment.prefix2tree("+ a b")));
+		assertEquals("- + a b + * x 3 5", Assignment.tree2prefix(tree));
+
+		thrown.expect(IllegalArgumentException.class);
+		tree.set(tree.root(), "z");
+		tree.prefix();
+	}
+
+	@Test
+	public void testPartialEvaluate() {
+		LinkedBinaryTree<String> tree = Assignment.prefix2tree("+ * x y - * 2 z + z z");
+		HashMap<String, Integer> map = new HashMap<String, Integer>();
+		map.put("x", 1);
+		map.put("z", 3);
+		assertEquals("y", Assignment.tree2prefix(Assignment.partialEvaluate(tree, map)));
+		assertEquals("+ * x y - * 2 z + z z", Assignment.tree2prefix(tree));
+		map.put("y", 0);
+		assertEquals("0", Assignment.tree2prefix(Assignment.partialEvaluate(tree, map)));
+		assertEquals("- a b", Assignment.tree2prefix(Assignment.partialEvaluate(Assignment.prefix2tree("* - a b + 0 1"), map)));
+
+		thrown.expect(IllegalArgumentException.class);
+		Assignment.partialEvaluate(tree, null);
+	}
+
+	@Test
+	public void testExpressionRegistry() throws Exception {
+		ExpressionRegistry registry = new ExpressionRegistry();
+		assertNull(registry.put("f", Assignment.prefix2tree("0")));
+		BinaryTree<String> before = registry.get("f");
+		Thread[] writers = new Thread[4];
+		for (int t = 0; t < writers.length; t++) {
+			writers[t] = new Thread(() -> {
+				for (int i = 0; i < 50; i++) {
+					registry.update("f", tree -> Assignment.prefix2tree("+ " + Assignment.tree2prefix(tree) + " 1"));
+				}
+			});
+			writers[t].start();
+		}
+		for (Thread writer : writers) {
+			writer.join();
+		}
+		assertEquals("0", Assignment.tree2prefix(before)); // old snapshots never change
+		assertEquals("200", Assignment.tree2prefix(registry.update("f", tree -> Assignment.simplify(tree))));
+		assertNull(registry.update("g", tree -> tree));
+		assertEquals(1, registry.size());
+
+		thrown.expect(IllegalArgumentException.class);
+		registry.update("f", tree -> {
+			tree.set(tree.root(), "+"); // an operator without operands
+			return tree;
+		});
+	}
+
+	@Test
+	public void testConcurrentQueues() throws Exception {
+		ConcurrentArrayQueue<Integer> bounded = new ConcurrentArrayQueue<Integer>(3);
+		assertEquals(4, bounded.capacity());
+		for (int i = 0; i < 4; i++) {
+			assertTrue(bounded.offer(i));
+		}
+		assertFalse(bounded.offer(4));
+		assertEquals(Integer.valueOf(0), bounded.dequeue());
+		assertEquals(Integer.valueOf(1), bounded.first());
+		assertEquals(3, bounded.size());
+
+		for (Queue<Integer> queue : Arrays.<Queue<Integer>>asList(new LockFreeQueue<Integer>(),
+				new ConcurrentArrayQueue<Integer>(64))) {
+			// every element enqueued by four producers is dequeued exactly once, in order per producer
+			Thread[] producers = new Thread[4];
+			for (int t = 0; t < producers.length; t++) {
+				int base = t * 100000;
+				producers[t] = new Thread(() -> {
+					for (int i = 0; i < 10000; i++) {
+						while (true) {
+							try {
+								queue.enqueue(base + i);
+								break;
+							} catch (IllegalStateException full) {
+								Thread.yield();
+							}
+						}
+					}
+				});
+				producers[t].start();
+			}
+			int[] last = { -1, 99999, 199999, 299999 };
+			for (int received = 0; received < 40000;) {
+				Integer e = queue.dequeue();
+				if (e == null) {
+					Thread.yield();
+					continue;
+				}
+				assertEquals(last[e / 100000] + 1, (int) e);
+				last[e / 100000] = e;
+				received++;
+			}
+			for (Thread producer : producers) {
+				producer.join();
+			}
+			assertTrue(queue.isEmpty());
+			assertNull(queue.dequeue());
+		}
+	}
+
+	@Test
+	public void testArrayQueues() {
+		ArrayQueue<String> queue = new ArrayQueue<String>(2);
+		IntArrayQueue ints = new IntArrayQueue(2);
+		LongArrayQueue longs = new LongArrayQueue(2);
+		for (int i = 0; i < 100; i++) {
+			// keep the front moving so the buffers wrap around as they grow
+			queue.enqueue("t" + i);
+			ints.enqueue(i);
+			longs.enqueue(1L << 40 | i);
+			if (i % 3 == 0) {
+				assertEquals("t" + i / 3, queue.dequeue());
+				assertEquals(i / 3, ints.dequeue());
+				assertEquals(1L << 40 | i / 3, longs.dequeue());
+			}
+		}
+		assertEquals(66, queue.size());
+		assertEquals("t34", queue.first());
+		assertEquals(34, ints.first());
+		for (int i = 34; i < 100; i++) {
+			assertEquals("t" + i, queue.dequeue());
+			assertEquals(i, ints.dequeue());
+			assertEquals(1L << 40 | i, longs.dequeue());
+		}
+		assertNull(queue.dequeue());
+		assertTrue(ints.isEmpty());
+
+		thrown.expect(IllegalStateException.class);
+		longs.dequeue();
+	}
+
+	@Test
+	public void testExpressionPipeline() throws Exception {
+		HashMap<String, Integer> bindings = new HashMap<String, Integer>();
+		bindings.put("x", 2);
+		ExpressionPipeline pipeline = new ExpressionPipeline(bindings, true);
+		for (ExpressionPipeline.Stage stage : ExpressionPipeline.Stage.values()) {
+			pipeline.setBuffer(stage, 4);
+		}
+		pipeline.setWorkers(ExpressionPipeline.Stage.SIMPLIFY, 2);
+		String[] outputs = new String[1000];
+		AtomicReference<Flow.Subscription> demand = new AtomicReference<Flow.Subscription>();
+		CountDownLatch done = new CountDownLatch(1);
+		pipeline.subscribe(new Flow.Subscriber<ExpressionPipeline.Job>() {
+			public void onSubscribe(Flow.Subscription subscription) {
+				demand.set(subscription); // nothing is requested yet
+			}
+
+			public void onNext(ExpressionPipeline.Job job) {
+				outputs[(int) job.index()] = job.error() == null ? job.output() : "error";
+			}
+
+			public void onError(Throwable throwable) {
+			}
+
+			public void onComplete() {
+				done.countDown();
+			}
+		});
+		AtomicInteger submitted = new AtomicInteger();
+		Thread producer = new Thread(() -> {
+			for (int i = 0; i < outputs.length; i++) {
+				pipeline.submit(i == 7 ? "+ x" : "+ * x " + i + " y");
+				submitted.incrementAndGet();
+			}
+			pipeline.close();
+		});
+		producer.start();
+		Thread.sleep(200);
+		// the subscriber has asked for nothing, so the producer is held up
+		assertTrue(submitted.get() < 100);
+		demand.get().request(Long.MAX_VALUE);
+		producer.join();
+		done.await();
+		assertEquals("y", outputs[0]); // + * 2 0 y
+		assertEquals("error", outputs[7]);
+		assertEquals("+ 1998 y", outputs[999]);
+	}
+
+	// A failing producer: jobs in flight are delivered, then the error
+	@Test(timeout = 5000)
+	public void testExpressionPipelineError() throws Exception {
+		ExpressionPipeline pipeline = new ExpressionPipeline(new HashMap<String, Integer>(), false);
+		RuntimeException failure = new IllegalStateException("producer failed");
+		AtomicReference<Throwable> received = new AtomicReference<Throwable>();
+		AtomicInteger early = new AtomicInteger();
+		AtomicInteger late = new AtomicInteger();
+		CountDownLatch done = new CountDownLatch(1);
+		pipeline.subscribe(new Flow.Subscriber<ExpressionPipeline.Job>() {
+			public void onSubscribe(Flow.Subscription subscription) {
+				subscription.request(Long.MAX_VALUE);
+			}
+
+			public void onNext(ExpressionPipeline.Job job) {
+				(received.get() == null ? early : late).incrementAndGet();
+			}
+
+			public void onError(Throwable throwable) {
+				received.set(throwable);
+				done.countDown();
+			}
+
+			public void onComplete() {
+				done.countDown();
+			}
+		});
+		AtomicReference<Throwable> uncaught = new AtomicReference<Throwable>();
+		Thread.UncaughtExceptionHandler handler = Thread.getDefaultUncaughtExceptionHandler();
+		Thread.setDefaultUncaughtExceptionHandler((thread, e) -> uncaught.set(e));
+		try {
+			// large enough to be still parsing when the error arrives
+			pipeline.submit(new ExpressionGenerator(0).prefix(200001));
+			Thread.sleep(5); // for the job to reach the first stage
+			pipeline.closeExceptionally(failure);
+			done.await();
+		} finally {
+			Thread.setDefaultUncaughtExceptionHandler(handler);
+		}
+		// no worker failed handing its job on to a closed stage
+		assertNull(uncaught.get());
+		assertSame(failure, received.get());
+		// the job is delivered unless the error overtook it before the first stage
+		assertTrue(early.get() <= 1);
+		assertEquals(0, late.get());
+	}
+
+	// Aborting a pipeline whose producer is blocked on a stalled subscriber
+	@Test(timeout = 5000)
+	public void testExpressionPipelineAbort() throws Exception {
+		ExpressionPipeline pipeline = new ExpressionPipeline(new HashMap<String, Integer>(), false);
+		for (ExpressionPipeline.Stage stage : ExpressionPipeline.Stage.values()) {
+			pipeline.setBuffer(stage, 1);
+		}
+		pipeline.subscribe(new Flow.Subscriber<ExpressionPipeline.Job>() {
+			public void onSubscribe(Flow.Subscription subscription) {
+				// never asks for anything
+			}
+
+			public void onNext(ExpressionPipeline.Job job) {
+			}
+
+			public void onError(Throwable throwable) {
+			}
+
+			public void onComplete() {
+			}
+		});
+		AtomicReference<Throwable> stopped = new AtomicReference<Throwable>();
+		Thread producer = new Thread(() -> {
+			try {
+				for (int i = 0; i < 1000; i++) {
+					pipeline.submit("+ 1 2");
+				}
+			} catch (IllegalStateException e) {
+				stopped.set(e);
+			}
+		});
+		producer.start();
+		Thread.sleep(100);
+		assertTrue(producer.isAlive()); // blocked in submit
+		pipeline.closeExceptionally(new IllegalStateException("abort"));
+		producer.join();
+		assertNotNull(stopped.get());
+	}
+
+	// A subscriber which cancels stops the stages working
+	@Test(timeout = 5000)
+	public void testExpressionPipelineCancel() throws Exception {
+		ExpressionPipeline pipeline = new ExpressionPipeline(new HashMap<String, Integer>(), false);
+		CountDownLatch cancelled = new CountDownLatch(1);
+		pipeline.subscribe(new Flow.Subscriber<ExpressionPipeline.Job>() {
+			private Flow.Subscription subscription;
+
+			public void onSubscribe(Flow.Subscription subscription) {
+				this.subscription = subscription;
+				subscription.request(1);
+			}
+
+			public void onNext(ExpressionPipeline.Job job) {
+				subscription.cancel();
+				cancelled.countDown();
+			}
+
+			public void onError(Throwable throwable) {
+			}
+
+			public void onComplete() {
+			}
+		});
+		pipeline.submit("+ 1 2");
+		cancelled.await();
+
+		// nothing submitted now is parsed
+		ExpressionMetrics metrics = ExpressionMetrics.get();
+		long parsed = metrics.getCalls().get("prefix2tree");
+		metrics.setEnabled(true);
+		try {
+			for (int i = 0; i < 1000; i++) {
+				pipeline.submit("+ 1 2");
+			}
+			Thread.sleep(50);
+		} finally {
+			metrics.setEnabled(false);
+		}
+		assertEquals(parsed, (long) metrics.getCalls().get("prefix2tree"));
+	}
+
+	@Test
+	public void testExpressionServer() throws Exception {
+		try (ExpressionServer server = new ExpressionServer(0);
+				ExpressionClient client = new ExpressionClient("localhost", server.port())) {
+			HashMap<String, Integer> bindings = new HashMap<String, Integer>();
+			bindings.put("x", 3);
+			bindings.put("y", 4);
+			assertEquals("10", client.evaluate("+ * x 2 y", bindings));
+			bindings.remove("y");
+			assertEquals("+ 6 y", client.evaluate("+ * x 2 y", bindings));
+			assertEquals("error: not a valid expression in prefix notation", client.evaluate("+ x", bindings));
+			String[] errors = client.evaluateAll(new String[] { "+ x 1 ; x=three", "+ x 1 ; x", "+ x 1 ; x=2", "+ x 1" });
+			assertEquals("error: binding x=three does not have an int value", errors[0]);
+			assertEquals("error: binding x is not name=value", errors[1]);
+			assertEquals("3", errors[2]);
+			assertEquals("+ x 1", errors[3]); // the cached tree is unchanged
+
+			String[] batch = new String[1000];
+			for (int i = 0; i < batch.length; i++) {
+				batch[i] = "- * x x 1 ; x=" + i;
+			}
+			String[] responses = client.evaluateAll(batch);
+			assertEquals("0", responses[1]);
+			assertEquals(String.valueOf(999 * 999 - 1), responses[999]);
+		}
+	}
 	
-}
\ No newline at end of file
+}
@@ -0,0 +1,230 @@
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Empirical complexity checks for the Assignment methods.
+ * 
+ * Each operation is timed on generated expressions of size n, 2n, 4n, ...
+ * and the growth exponent log(t(largest) / t(smallest)) / log(largest /
+ * smallest) must stay below a bound (1.3 by default, or the system property
+ * complexity.bound), so that an accidentally quadratic method fails the
+ * build. The bytes allocated per call, measured through ThreadMXBean, must
+ * grow no faster either.
+ */
+public class TestComplexity {
+
+	/** Largest accepted growth exponent */
+	private static final double BOUND = Double.parseDouble(System.getProperty("complexity.bound", "1.3"));
+
+	/** Smallest size measured */
+	private static final int BASE = 1 << 13;
+
+	/** Number of doublings of the size */
+	private static final int DOUBLINGS = 4;
+
+	/** Number of timed runs at each size, of which the fastest is used */
+	private static final int RUNS = 7;
+
+	/** Shapes of generated expression measured: random, and as deep as possible either way */
+	private static final ExpressionGenerator.Shape[] SHAPES = { ExpressionGenerator.Shape.RANDOM,
+			ExpressionGenerator.Shape.LEFT, ExpressionGenerator.Shape.RIGHT };
+
+	/** Makes the input for an operation at a given size */
+	private interface Inputs {
+		AssignmentBenchmark.Input make(int size);
+	}
+
+	/**
+	 * Measures the named AssignmentBenchmark operation at each size, on
+	 * expressions of each shape, and checks the growth of its running time
+	 * and allocation
+	 */
+	private static void assertLinear(String name) {
+		final AssignmentBenchmark.Operation operation = operation(name);
+		for (final ExpressionGenerator.Shape shape : SHAPES) {
+			assertLinear(name + " " + shape, operation, new Inputs() {
+				public AssignmentBenchmark.Input make(int size) {
+					return AssignmentBenchmark.prepare(operation, shape, size | 1);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Measures an operation at each size on the inputs given, and checks the
+	 * growth of its running time and allocation. A measurement over the bound
+	 * is taken again, once, so that a burst of noise from the machine does
+	 * not fail the build; a method which really is superlinear fails both.
+	 */
+	private static void assertLinear(String label, AssignmentBenchmark.Operation operation, Inputs inputs) {
+		String report = growth(label, operation, inputs);
+		if (report != null) {
+			report = growth(label, operation, inputs);
+		}
+		if (report != null) {
+			fail(report);
+		}
+	}
+
+	/**
+	 * Helper method to measure an operation at each size, returning null if
+	 * its growth is within the bound, or else a report of the measurements
+	 */
+	private static String growth(String label, AssignmentBenchmark.Operation operation, Inputs inputs) {
+		long[] times = new long[DOUBLINGS + 1];
+		long[] bytes = new long[DOUBLINGS + 1];
+		// warm up on the largest input so that every size runs compiled code
+		measure(operation, inputs.make(BASE << DOUBLINGS), new long[2]);
+		for (int i = 0; i <= DOUBLINGS; i++) {
+			long[] result = new long[2];
+			measure(operation, inputs.make(BASE << i), result);
+			times[i] = result[0];
+			bytes[i] = result[1];
+		}
+
+		double ratio = 1 << DOUBLINGS;
+		double timeExponent = Math.log((double) times[DOUBLINGS] / times[0]) / Math.log(ratio);
+		double byteExponent = Math.log((double) Math.max(bytes[DOUBLINGS], 1) / Math.max(bytes[0], 1)) / Math.log(ratio);
+		if (timeExponent <= BOUND && (bytes[0] == 0 || byteExponent <= BOUND)) {
+			return null;
+		}
+		StringBuilder report = new StringBuilder(label);
+		for (int i = 0; i <= DOUBLINGS; i++) {
+			report.append(String.format("%n  n=%-8d %10.3f ms %10.1f bytes/node", (BASE << i) | 1, times[i] / 1e6,
+					(double) bytes[i] / ((BASE << i) | 1)));
+		}
+		report.append(String.format("%n  time exponent %.2f, allocation exponent %.2f", timeExponent, byteExponent));
+		return report.toString();
+	}
+
+	/** Helper method to find the named AssignmentBenchmark operation */
+	private static AssignmentBenchmark.Operation operation(String name) {
+		AssignmentBenchmark.Operation operation = null;
+		for (AssignmentBenchmark.Operation candidate : AssignmentBenchmark.OPERATIONS) {
+			if (candidate.name.equals(name)) {
+				operation = candidate;
+			}
+		}
+		assertNotNull(operation);
+		return operation;
+	}
+
+	/**
+	 * Helper method to record the fastest time of several runs, and the bytes
+	 * allocated by that run, in result
+	 */
+	private static void measure(AssignmentBenchmark.Operation operation, AssignmentBenchmark.Input input, long[] result) {
+		result[0] = Long.MAX_VALUE;
+		for (int run = 0; run < RUNS; run++) {
+			if (operation.mutates) {
+				input.tree = Assignment.prefix2tree(input.prefix);
+			}
+			long allocated = AssignmentBenchmark.allocatedBytes();
+			long start = System.nanoTime();
+			AssignmentBenchmark.sink = operation.run(input);
+			long time = System.nanoTime() - start;
+			allocated = AssignmentBenchmark.allocatedBytes() - allocated;
+			if (time < result[0]) {
+				result[0] = time;
+				result[1] = allocated;
+			}
+		}
+	}
+
+	@Test(timeout = 30000)
+	public void testPrefix2treeGrowth() {
+		assertLinear("prefix2tree");
+	}
+
+	@Test(timeout = 30000)
+	public void testPostfix2treeGrowth() {
+		assertLinear("postfix2tree");
+	}
+
+	@Test(timeout = 30000)
+	public void testInfix2treeGrowth() {
+		assertLinear("infix2tree");
+	}
+
+	@Test(timeout = 30000)
+	public void testTree2prefixGrowth() {
+		assertLinear("tree2prefix");
+	}
+
+	@Test(timeout = 30000)
+	public void testTree2postfixGrowth() {
+		assertLinear("tree2postfix");
+	}
+
+	@Test(timeout = 30000)
+	public void testTree2infixGrowth() {
+		assertLinear("tree2infix");
+	}
+
+	@Test(timeout = 30000)
+	public void testIsArithmeticExpressionGrowth() {
+		assertLinear("isArithmeticExpression");
+	}
+
+	@Test(timeout = 30000)
+	public void testSimplifyGrowth() {
+		assertLinear("simplify");
+	}
+
+	@Test(timeout = 30000)
+	public void testSimplifyFancyGrowth() {
+		assertLinear("simplifyFancy");
+	}
+
+	/**
+	 * A left-deep chain of sums of zero products, + + ... + a * 0 (+ a b) ...
+	 * * 0 (+ a b), so that simplifyFancy removes a subtree under every sum
+	 */
+	@Test(timeout = 30000)
+	public void testSimplifyFancyDropGrowth() {
+		final AssignmentBenchmark.Operation operation = operation("simplifyFancy");
+		assertLinear("simplifyFancy drops", operation, new Inputs() {
+			public AssignmentBenchmark.Input make(int size) {
+				int k = size / 6;
+				StringBuilder prefix = new StringBuilder(12 * k + 1);
+				for (int i = 0; i < k; i++) {
+					prefix.append("+ ");
+				}
+				prefix.append("a");
+				for (int i = 0; i < k; i++) {
+					prefix.append(" * 0 + a b");
+				}
+				AssignmentBenchmark.Input input = new AssignmentBenchmark.Input();
+				input.prefix = prefix.toString();
+				input.tree = Assignment.prefix2tree(input.prefix);
+				return input;
+			}
+		});
+	}
+
+	@Test(timeout = 30000)
+	public void testSubstituteGrowth() {
+		assertLinear("substitute");
+	}
+
+	@Test(timeout = 30000)
+	public void testSubstituteMapGrowth() {
+		assertLinear("substituteMap");
+	}
+
+	@Test(timeout = 30000)
+	public void testPartialEvaluateGrowth() {
+		assertLinear("partialEvaluate");
+	}
+
+	@Test(timeout = 30000)
+	public void testEqualsGrowth() {
+		assertLinear("equals");
+	}
+
+	@Test(timeout = 30000)
+	public void testRebalanceGrowth() {
+		assertLinear("rebalance");
+	}
+}
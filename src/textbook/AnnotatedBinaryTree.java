@@ -0,0 +1,197 @@
+package textbook;
+
+import java.util.Arrays;
+
+/**
+ * A linked binary tree in which every node caches the size and height of the
+ * subtree rooted at it. The annotations are kept up to date by each update
+ * method, at a cost proportional to the depth of the change, so that size,
+ * height and subtree size queries run in constant time.
+ *
+ * Trees attached or grafted into an annotated tree must themselves be
+ * annotated trees.
+ */
+public class AnnotatedBinaryTree<E> extends LinkedBinaryTree<E> {
+
+  //---------------- nested AnnotatedNode class ----------------
+  /** Node that also records the size and height of its subtree. */
+  protected static class AnnotatedNode<E> extends Node<E> {
+    private int subtreeSize = 1;    // number of nodes in the subtree rooted here
+    private int height = 0;         // height of the subtree rooted here
+
+    public AnnotatedNode(E e, Node<E> above, Node<E> leftChild, Node<E> rightChild) {
+      super(e, above, leftChild, rightChild);
+    }
+
+    // accessor methods
+    public int getSubtreeSize() { return subtreeSize; }
+    public int getHeight() { return height; }
+
+    /** Recomputes the annotations from those of the children. */
+    public void refresh() {
+      AnnotatedNode<E> left = (AnnotatedNode<E>) getLeft();
+      AnnotatedNode<E> right = (AnnotatedNode<E>) getRight();
+      int s = 1;
+      int h = 0;
+      if (left != null) {
+        s += left.subtreeSize;
+        h = left.height + 1;
+      }
+      if (right != null) {
+        s += right.subtreeSize;
+        h = Math.max(h, right.height + 1);
+      }
+      subtreeSize = s;
+      height = h;
+    }
+  } //----------- end of nested AnnotatedNode class -----------
+
+  /** Factory function to create a new annotated node storing element e. */
+  @Override
+  protected Node<E> createNode(E e, Node<E> parent, Node<E> left, Node<E> right) {
+    return new AnnotatedNode<E>(e, parent, left, right);
+  }
+
+  /** Factory function to create a new empty annotated tree. */
+  @Override
+  protected LinkedBinaryTree<E> createTree() {
+    return new AnnotatedBinaryTree<E>();
+  }
+
+  /** Constructs an empty annotated binary tree. */
+  public AnnotatedBinaryTree() { }
+
+  // nonpublic utilities
+  /** Refreshes the annotations of node and each of its ancestors. */
+  private void refreshPath(Node<E> node) {
+    while (node != null) {
+      ((AnnotatedNode<E>) node).refresh();
+      node = node.getParent();
+    }
+  }
+
+  /** Verifies that a tree to be linked into this one carries annotations. */
+  private void checkAnnotated(LinkedBinaryTree<E> t) throws IllegalArgumentException {
+    if (!(t instanceof AnnotatedBinaryTree))
+      throw new IllegalArgumentException("Tree must be an AnnotatedBinaryTree");
+  }
+
+  /**
+   * Recomputes every annotation after a bulk build, in postorder and
+   * without recursion.
+   */
+  @Override
+  protected void built() {
+    if (root == null) return;
+    @SuppressWarnings("unchecked")
+    Node<E>[] stack = (Node<E>[]) new Node<?>[16];
+    byte[] visited = new byte[16];
+    int top = 0;
+    stack[top] = root;
+    visited[top++] = 0;
+    while (top > 0) {
+      Node<E> node = stack[top - 1];
+      Node<E> next = null;
+      if (visited[top - 1] == 0)
+        next = node.getLeft();
+      else if (visited[top - 1] == 1)
+        next = node.getRight();
+      if (visited[top - 1] == 2) {
+        ((AnnotatedNode<E>) node).refresh();
+        top--;
+        continue;
+      }
+      visited[top - 1]++;
+      if (next != null) {
+        if (top == stack.length) {
+          stack = Arrays.copyOf(stack, 2 * top);
+          visited = Arrays.copyOf(visited, 2 * top);
+        }
+        stack[top] = next;
+        visited[top++] = 0;
+      }
+    }
+  }
+
+  // accessor methods
+  /**
+   * Returns the number of nodes in the tree.
+   * @return number of nodes in the tree
+   */
+  @Override
+  public int size() {
+    return root == null ? 0 : ((AnnotatedNode<E>) root).getSubtreeSize();
+  }
+
+  /**
+   * Returns the number of nodes in the subtree rooted at Position p.
+   *
+   * @param p A valid Position within the tree
+   * @return number of nodes in the subtree rooted at p
+   * @throws IllegalArgumentException if p is not a valid Position for this tree.
+   */
+  public int subtreeSize(Position<E> p) throws IllegalArgumentException {
+    return ((AnnotatedNode<E>) validate(p)).getSubtreeSize();
+  }
+
+  /**
+   * Returns the height of the subtree rooted at Position p.
+   *
+   * @param p A valid Position within the tree
+   * @throws IllegalArgumentException if p is not a valid Position for this tree.
+   */
+  @Override
+  public int height(Position<E> p) throws IllegalArgumentException {
+    return ((AnnotatedNode<E>) validate(p)).getHeight();
+  }
+
+  // update methods
+  @Override
+  public Position<E> addLeft(Position<E> p, E e) throws IllegalArgumentException {
+    Position<E> child = super.addLeft(p, e);
+    refreshPath(validate(p));
+    return child;
+  }
+
+  @Override
+  public Position<E> addRight(Position<E> p, E e) throws IllegalArgumentException {
+    Position<E> child = super.addRight(p, e);
+    refreshPath(validate(p));
+    return child;
+  }
+
+  @Override
+  public void attach(Position<E> p, LinkedBinaryTree<E> t1,
+                    LinkedBinaryTree<E> t2) throws IllegalArgumentException {
+    checkAnnotated(t1);
+    checkAnnotated(t2);
+    super.attach(p, t1, t2);
+    refreshPath(validate(p));
+  }
+
+  @Override
+  public E remove(Position<E> p) throws IllegalArgumentException {
+    Node<E> parent = validate(p).getParent();
+    E temp = super.remove(p);
+    refreshPath(parent);
+    return temp;
+  }
+
+  @Override
+  public LinkedBinaryTree<E> pruneSubtree(Position<E> p) throws IllegalArgumentException {
+    Node<E> parent = validate(p).getParent();
+    LinkedBinaryTree<E> subtree = super.pruneSubtree(p);
+    refreshPath(parent);
+    return subtree;
+  }
+
+  @Override
+  public LinkedBinaryTree<E> replaceSubtree(Position<E> p, LinkedBinaryTree<E> t)
+                          throws IllegalArgumentException {
+    checkAnnotated(t);
+    Node<E> parent = validate(p).getParent();
+    LinkedBinaryTree<E> old = super.replaceSubtree(p, t);
+    refreshPath(parent);
+    return old;
+  }
+}
@@ -0,0 +1,114 @@
+package textbook;
+
+/**
+ * Realization of a FIFO queue as a circular buffer in an array, which
+ * doubles in length when it fills. enqueue runs in amortized constant time,
+ * and the other operations in constant time; unlike LinkedQueue, nothing is
+ * allocated per element once the array is large enough.
+ *
+ * See IntArrayQueue and LongArrayQueue for queues of primitive values.
+ */
+public class ArrayQueue<E> implements Queue<E> {
+
+  /** Default array capacity. */
+  public static final int CAPACITY = 16;
+
+  /** Largest array capacity; some virtual machines reserve a few header words. */
+  private static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+
+  private E[] data;                // generic array used for storage
+  private int f = 0;               // index of the front element
+  private int sz = 0;              // current number of elements
+
+  /** Constructs an initially empty queue with the default capacity. */
+  public ArrayQueue() { this(CAPACITY); }
+
+  /**
+   * Constructs an initially empty queue with room for the given number of
+   * elements before it needs to grow.
+   *
+   * @param capacity   the initial length of the underlying array
+   * @throws IllegalArgumentException if capacity is negative
+   */
+  @SuppressWarnings({"unchecked"})
+  public ArrayQueue(int capacity) throws IllegalArgumentException {
+    if (capacity < 0) throw new IllegalArgumentException("Capacity cannot be negative");
+    data = (E[]) new Object[Math.max(capacity, 1)];
+  }
+
+  /**
+   * Returns the number of elements in the queue.
+   * @return number of elements in the queue
+   */
+  @Override
+  public int size() { return sz; }
+
+  /**
+   * Tests whether the queue is empty.
+   * @return true if the queue is empty, false otherwise
+   */
+  @Override
+  public boolean isEmpty() { return sz == 0; }
+
+  /**
+   * Inserts an element at the rear of the queue.
+   * @param e  the element to be inserted
+   */
+  @Override
+  public void enqueue(E e) {
+    if (sz == data.length) grow();
+    int avail = f + sz;            // index of the slot after the rear
+    if (avail >= data.length) avail -= data.length;
+    data[avail] = e;
+    sz++;
+  }
+
+  /**
+   * Returns, but does not remove, the first element of the queue.
+   * @return the first element of the queue (or null if empty)
+   */
+  @Override
+  public E first() {
+    if (isEmpty()) return null;
+    return data[f];
+  }
+
+  /**
+   * Removes and returns the first element of the queue.
+   * @return element removed (or null if empty)
+   */
+  @Override
+  public E dequeue() {
+    if (isEmpty()) return null;
+    E answer = data[f];
+    data[f] = null;                // dereference to help garbage collection
+    if (++f == data.length) f = 0;
+    sz--;
+    return answer;
+  }
+
+  /** Moves the elements, front first, into an array twice as long. */
+  @SuppressWarnings({"unchecked"})
+  private void grow() throws IllegalStateException {
+    if (data.length == MAX_CAPACITY) throw new IllegalStateException("Queue is full");
+    E[] larger = (E[]) new Object[(int) Math.min(2L * data.length, MAX_CAPACITY)];
+    int front = data.length - f;   // elements from f to the end of the array
+    System.arraycopy(data, f, larger, 0, front);
+    System.arraycopy(data, 0, larger, front, f);
+    data = larger;
+    f = 0;
+  }
+
+  /** Produces a string representation of the contents of the queue.
+   *  (from front to back). This exists for debugging purposes only.
+   */
+  public String toString() {
+    StringBuilder sb = new StringBuilder("(");
+    for (int k = 0; k < sz; k++) {
+      if (k > 0) sb.append(", ");
+      sb.append(data[(f + k) % data.length]);
+    }
+    sb.append(")");
+    return sb.toString();
+  }
+}
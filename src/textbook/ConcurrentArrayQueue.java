@@ -0,0 +1,157 @@
+package textbook;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded FIFO queue in a fixed array, which any number of producer and
+ * consumer threads may share without locking.
+ *
+ * Each slot of the array carries a sequence number saying whose turn it is:
+ * the producer claiming ticket t may fill slot t % capacity once its sequence
+ * is t, and then sets it to t + 1; the consumer claiming ticket t may empty
+ * the slot once its sequence is t + 1, and then sets it to t + capacity for
+ * the producer a lap later. Tickets are claimed with a compare-and-set on
+ * one counter for producers and one for consumers, so producers only contend
+ * with producers and consumers with consumers. Nothing is allocated after
+ * construction.
+ *
+ * enqueue throws IllegalStateException when the queue is full, as it does
+ * not wait; offer returns false instead. size may be out of date by the
+ * time it is returned if other threads are using the queue. null elements
+ * are not allowed, since dequeue returns null for an empty queue.
+ */
+public class ConcurrentArrayQueue<E> implements Queue<E> {
+
+  private final Object[] data;              // the elements, by ticket modulo capacity
+  private final AtomicLongArray sequences;  // whose turn each slot is
+  private final int mask;                   // capacity - 1, capacity being a power of 2
+  private final AtomicLong tail = new AtomicLong();   // next ticket for a producer
+  private final AtomicLong head = new AtomicLong();   // next ticket for a consumer
+
+  /**
+   * Constructs an empty queue holding at least the given number of elements.
+   *
+   * @param capacity   the least number of elements the queue can hold
+   * @throws IllegalArgumentException if capacity is not positive or too large
+   */
+  public ConcurrentArrayQueue(int capacity) throws IllegalArgumentException {
+    if (capacity < 1 || capacity > 1 << 30)
+      throw new IllegalArgumentException("Capacity must be between 1 and 2^30");
+    int length = Integer.highestOneBit(capacity);
+    if (length < capacity) length <<= 1;      // round up to a power of 2
+    data = new Object[length];
+    sequences = new AtomicLongArray(length);
+    for (int i = 0; i < length; i++)
+      sequences.set(i, i);
+    mask = length - 1;
+  }
+
+  /**
+   * Returns the number of elements the queue can hold.
+   * @return capacity of the queue
+   */
+  public int capacity() { return data.length; }
+
+  /**
+   * Returns the number of elements in the queue.
+   * @return number of elements in the queue
+   */
+  @Override
+  public int size() {
+    while (true) {
+      long h = head.get();
+      long t = tail.get();
+      if (h == head.get())                  // a consistent pair of counters
+        return (int) Math.max(0, Math.min(t - h, data.length));
+    }
+  }
+
+  /**
+   * Tests whether the queue is empty.
+   * @return true if the queue is empty, false otherwise
+   */
+  @Override
+  public boolean isEmpty() { return first() == null; }
+
+  /**
+   * Inserts an element at the rear of the queue.
+   * @param e  the element to be inserted
+   * @throws IllegalArgumentException if e is null
+   * @throws IllegalStateException if the queue is full
+   */
+  @Override
+  public void enqueue(E e) throws IllegalArgumentException, IllegalStateException {
+    if (!offer(e)) throw new IllegalStateException("Queue is full");
+  }
+
+  /**
+   * Inserts an element at the rear of the queue, if there is room.
+   * @param e  the element to be inserted
+   * @return true if the element was inserted, false if the queue was full
+   * @throws IllegalArgumentException if e is null
+   */
+  public boolean offer(E e) throws IllegalArgumentException {
+    if (e == null) throw new IllegalArgumentException("Queue elements cannot be null");
+    long ticket = tail.get();
+    while (true) {
+      int slot = (int) ticket & mask;
+      long turn = sequences.get(slot) - ticket;
+      if (turn == 0) {
+        if (tail.compareAndSet(ticket, ticket + 1)) {
+          data[slot] = e;
+          sequences.set(slot, ticket + 1);  // publishes the element to consumers
+          return true;
+        }
+        ticket = tail.get();
+      } else if (turn < 0)
+        return false;                       // the slot still holds an element a lap behind
+      else
+        ticket = tail.get();                // another producer took this ticket
+    }
+  }
+
+  /**
+   * Returns, but does not remove, the first element of the queue.
+   * @return the first element of the queue (or null if empty)
+   */
+  @Override
+  @SuppressWarnings("unchecked")
+  public E first() {
+    while (true) {
+      long ticket = head.get();
+      int slot = (int) ticket & mask;
+      if (sequences.get(slot) != ticket + 1)
+        return null;
+      E e = (E) data[slot];
+      if (ticket == head.get() && e != null)  // else it was dequeued while we looked
+        return e;
+    }
+  }
+
+  /**
+   * Removes and returns the first element of the queue.
+   * @return element removed (or null if empty)
+   */
+  @Override
+  @SuppressWarnings("unchecked")
+  public E dequeue() {
+    long ticket = head.get();
+    while (true) {
+      int slot = (int) ticket & mask;
+      long turn = sequences.get(slot) - (ticket + 1);
+      if (turn == 0) {
+        if (head.compareAndSet(ticket, ticket + 1)) {
+          E e = (E) data[slot];
+          data[slot] = null;                // help garbage collection
+          sequences.set(slot, ticket + data.length);  // hands the slot to the next lap
+          return e;
+        }
+        ticket = head.get();
+      } else if (turn < 0)
+        return null;                        // no producer has filled this slot yet
+      else
+        ticket = head.get();                // another consumer took this ticket
+    }
+  }
+}
@@ -0,0 +1,202 @@
+package textbook;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * A linked binary tree that keeps an index from elements to the positions
+ * storing them, for those elements accepted by a predicate given at
+ * construction (for example, the variables of an arithmetic expression).
+ *
+ * The index is kept up to date by every update method: addRoot, addLeft,
+ * addRight, set and remove in constant expected time, attach in time
+ * proportional to the number of indexed positions attached, and pruneSubtree
+ * and replaceSubtree in time proportional to the subtrees moved. Counting
+ * and listing the positions of an element run in constant time.
+ *
+ * Trees attached or grafted into an indexed tree must themselves be indexed
+ * trees.
+ */
+public class IndexedBinaryTree<E> extends LinkedBinaryTree<E> {
+
+  //---------------- nested IndexedNode class ----------------
+  /** Node that also records where it sits in the index. */
+  protected static class IndexedNode<E> extends Node<E> {
+    private int slot = -1;          // position in its element's list (-1 if not indexed)
+
+    public IndexedNode(E e, Node<E> above, Node<E> leftChild, Node<E> rightChild) {
+      super(e, above, leftChild, rightChild);
+    }
+  } //----------- end of nested IndexedNode class -----------
+
+  /** Which elements are indexed */
+  private final Predicate<? super E> indexed;
+
+  /** The positions storing each indexed element */
+  private final HashMap<E, ArrayList<IndexedNode<E>>> index = new HashMap<>();
+
+  /**
+   * Constructs an empty tree indexing the elements accepted by a predicate.
+   *
+   * @param indexed   the elements to index
+   */
+  public IndexedBinaryTree(Predicate<? super E> indexed) {
+    this.indexed = indexed;
+  }
+
+  /** Factory function to create a new node storing element e, and index it. */
+  @Override
+  protected Node<E> createNode(E e, Node<E> parent, Node<E> left, Node<E> right) {
+    IndexedNode<E> node = new IndexedNode<E>(e, parent, left, right);
+    add(node);
+    return node;
+  }
+
+  /** Factory function to create a new empty tree with the same predicate. */
+  @Override
+  protected LinkedBinaryTree<E> createTree() {
+    return new IndexedBinaryTree<E>(indexed);
+  }
+
+  // nonpublic utilities
+  /** Adds a node to the index, if its element is indexed. */
+  private void add(IndexedNode<E> node) {
+    E e = node.getElement();
+    if (e == null || !indexed.test(e)) return;
+    ArrayList<IndexedNode<E>> list = index.get(e);
+    if (list == null) {
+      list = new ArrayList<>(2);
+      index.put(e, list);
+    }
+    node.slot = list.size();
+    list.add(node);
+  }
+
+  /** Removes a node from the index, moving the last entry of its list into its slot. */
+  private void drop(IndexedNode<E> node) {
+    if (node.slot < 0) return;
+    ArrayList<IndexedNode<E>> list = index.get(node.getElement());
+    IndexedNode<E> last = list.remove(list.size() - 1);
+    if (last != node) {
+      list.set(node.slot, last);
+      last.slot = node.slot;
+    }
+    if (list.isEmpty())
+      index.remove(node.getElement());
+    node.slot = -1;
+  }
+
+  /** Moves the indexed nodes of another indexed tree into this index. */
+  private void merge(LinkedBinaryTree<E> t) {
+    if (!(t instanceof IndexedBinaryTree))
+      throw new IllegalArgumentException("Tree must be an IndexedBinaryTree");
+    IndexedBinaryTree<E> other = (IndexedBinaryTree<E>) t;
+    for (ArrayList<IndexedNode<E>> list : other.index.values())
+      for (IndexedNode<E> node : list) {
+        node.slot = -1;
+        add(node);
+      }
+    other.index.clear();
+  }
+
+  /**
+   * Moves the nodes of a subtree from this index to that of the given tree,
+   * without recursion.
+   */
+  private void move(Node<E> top, IndexedBinaryTree<E> target) {
+    if (top == null) return;
+    ArrayList<Node<E>> stack = new ArrayList<>();
+    stack.add(top);
+    while (!stack.isEmpty()) {
+      Node<E> node = stack.remove(stack.size() - 1);
+      drop((IndexedNode<E>) node);
+      target.add((IndexedNode<E>) node);
+      if (node.getLeft() != null) stack.add(node.getLeft());
+      if (node.getRight() != null) stack.add(node.getRight());
+    }
+  }
+
+  // accessor methods
+  /**
+   * Returns the number of positions storing element e, in constant time.
+   *
+   * @param e   an element
+   * @return number of positions storing e (0 if e is not indexed)
+   */
+  public int count(E e) {
+    ArrayList<IndexedNode<E>> list = index.get(e);
+    return list == null ? 0 : list.size();
+  }
+
+  /**
+   * Returns the positions storing element e, in constant time.
+   *
+   * @param e   an element
+   * @return unmodifiable list of the positions storing e (empty if e is not indexed)
+   */
+  public List<Position<E>> occurrences(E e) {
+    ArrayList<IndexedNode<E>> list = index.get(e);
+    if (list == null) return Collections.emptyList();
+    return Collections.<Position<E>>unmodifiableList(list);
+  }
+
+  /**
+   * Returns the indexed elements present in the tree, in constant time.
+   * @return unmodifiable view of the elements stored at one or more positions
+   */
+  public Set<E> indexedElements() {
+    return Collections.unmodifiableSet(index.keySet());
+  }
+
+  // update methods
+  @Override
+  public E set(Position<E> p, E e) throws IllegalArgumentException {
+    IndexedNode<E> node = (IndexedNode<E>) validate(p);
+    drop(node);
+    E temp = super.set(p, e);
+    add(node);
+    return temp;
+  }
+
+  @Override
+  public void attach(Position<E> p, LinkedBinaryTree<E> t1,
+                    LinkedBinaryTree<E> t2) throws IllegalArgumentException {
+    validate(p);
+    if (isInternal(p)) throw new IllegalArgumentException("p must be a leaf");
+    merge(t1);
+    merge(t2);
+    super.attach(p, t1, t2);
+  }
+
+  @Override
+  public E remove(Position<E> p) throws IllegalArgumentException {
+    IndexedNode<E> node = (IndexedNode<E>) validate(p);
+    if (numChildren(p) == 2)
+      throw new IllegalArgumentException("p has two children");
+    drop(node);
+    return super.remove(p);
+  }
+
+  @Override
+  public LinkedBinaryTree<E> pruneSubtree(Position<E> p) throws IllegalArgumentException {
+    Node<E> node = validate(p);
+    IndexedBinaryTree<E> subtree = (IndexedBinaryTree<E>) super.pruneSubtree(p);
+    move(node, subtree);
+    return subtree;
+  }
+
+  @Override
+  public LinkedBinaryTree<E> replaceSubtree(Position<E> p, LinkedBinaryTree<E> t)
+                          throws IllegalArgumentException {
+    Node<E> node = validate(p);
+    if (t == this) throw new IllegalArgumentException("t must be a different tree");
+    merge(t);
+    IndexedBinaryTree<E> old = (IndexedBinaryTree<E>) super.replaceSubtree(p, t);
+    move(node, old);
+    return old;
+  }
+}
@@ -0,0 +1,117 @@
+package textbook;
+
+/**
+ * A FIFO queue of int values in a circular buffer, which doubles in length
+ * when it fills, so that a work queue of indices or values can be used
+ * without boxing or allocating per element. enqueue runs in amortized
+ * constant time, and the other operations in constant time.
+ *
+ * As a int cannot be null, first and dequeue throw an exception on an empty
+ * queue rather than return null.
+ *
+ * @see ArrayQueue
+ */
+public class IntArrayQueue {
+
+  /** Default array capacity. */
+  public static final int CAPACITY = 16;
+
+  /** Largest array capacity; some virtual machines reserve a few header words. */
+  private static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+
+  private int[] data;              // array used for storage
+  private int f = 0;               // index of the front element
+  private int sz = 0;              // current number of elements
+
+  /** Constructs an initially empty queue with the default capacity. */
+  public IntArrayQueue() { this(CAPACITY); }
+
+  /**
+   * Constructs an initially empty queue with room for the given number of
+   * values before it needs to grow.
+   *
+   * @param capacity   the initial length of the underlying array
+   * @throws IllegalArgumentException if capacity is negative
+   */
+  public IntArrayQueue(int capacity) throws IllegalArgumentException {
+    if (capacity < 0) throw new IllegalArgumentException("Capacity cannot be negative");
+    data = new int[Math.max(capacity, 1)];
+  }
+
+  /**
+   * Returns the number of values in the queue.
+   * @return number of values in the queue
+   */
+  public int size() { return sz; }
+
+  /**
+   * Tests whether the queue is empty.
+   * @return true if the queue is empty, false otherwise
+   */
+  public boolean isEmpty() { return sz == 0; }
+
+  /** Removes every value from the queue, keeping its array. */
+  public void clear() {
+    f = 0;
+    sz = 0;
+  }
+
+  /**
+   * Inserts a value at the rear of the queue.
+   * @param e  the value to be inserted
+   */
+  public void enqueue(int e) {
+    if (sz == data.length) grow();
+    int avail = f + sz;            // index of the slot after the rear
+    if (avail >= data.length) avail -= data.length;
+    data[avail] = e;
+    sz++;
+  }
+
+  /**
+   * Returns, but does not remove, the first value of the queue.
+   * @return the first value of the queue
+   * @throws IllegalStateException if the queue is empty
+   */
+  public int first() throws IllegalStateException {
+    if (isEmpty()) throw new IllegalStateException("Queue is empty");
+    return data[f];
+  }
+
+  /**
+   * Removes and returns the first value of the queue.
+   * @return value removed
+   * @throws IllegalStateException if the queue is empty
+   */
+  public int dequeue() throws IllegalStateException {
+    if (isEmpty()) throw new IllegalStateException("Queue is empty");
+    int answer = data[f];
+    if (++f == data.length) f = 0;
+    sz--;
+    return answer;
+  }
+
+  /** Moves the values, front first, into an array twice as long. */
+  private void grow() throws IllegalStateException {
+    if (data.length == MAX_CAPACITY) throw new IllegalStateException("Queue is full");
+    int[] larger = new int[(int) Math.min(2L * data.length, MAX_CAPACITY)];
+    int front = data.length - f;   // values from f to the end of the array
+    System.arraycopy(data, f, larger, 0, front);
+    System.arraycopy(data, 0, larger, front, f);
+    data = larger;
+    f = 0;
+  }
+
+  /** Produces a string representation of the contents of the queue.
+   *  (from front to back). This exists for debugging purposes only.
+   */
+  public String toString() {
+    StringBuilder sb = new StringBuilder("(");
+    for (int k = 0; k < sz; k++) {
+      if (k > 0) sb.append(", ");
+      sb.append(data[(f + k) % data.length]);
+    }
+    sb.append(")");
+    return sb.toString();
+  }
+}
@@ -22,6 +22,8 @@
  */
 package textbook;
 
+import java.util.Arrays;
+
 /**
  * Concrete implementation of a binary tree using a node-based, linked structure.
  *
@@ -38,6 +40,7 @@ public class LinkedBinaryTree<E> extends AbstractBinaryTree<E> {
     private Node<E> parent;     // a reference to the parent node (if any)
     private Node<E> left;       // a reference to the left child (if any)
     private Node<E> right;      // a reference to the right child (if any)
+    private int epoch;          // tree epoch at which this node was last known to be attached
 
     /**
      * Constructs a node with the given element and neighbors.
@@ -59,12 +62,14 @@ public class LinkedBinaryTree<E> extends AbstractBinaryTree<E> {
     public Node<E> getParent() { return parent; }
     public Node<E> getLeft() { return left; }
     public Node<E> getRight() { return right; }
+    public int getEpoch() { return epoch; }
 
     // update methods
     public void setElement(E e) { element = e; }
     public void setParent(Node<E> parentNode) { parent = parentNode; }
     public void setLeft(Node<E> leftChild) { left = leftChild; }
     public void setRight(Node<E> rightChild) { right = rightChild; }
+    public void setEpoch(int e) { epoch = e; }
   } //----------- end of nested Node class -----------
 
   /** Factory function to create a new node storing element e. */
@@ -73,13 +78,119 @@ public class LinkedBinaryTree<E> extends AbstractBinaryTree<E> {
     return new Node<E>(e, parent, left, right);
   }
 
+  //---------------- nested TreeBuilder class ----------------
+  /**
+   * Bulk builder that links the nodes of a tree directly. Nodes are created
+   * through the tree's createNode factory and linked without validation, and
+   * the size of the tree is set once when the build completes.
+   *
+   * Every node created by the builder must end up in the finished tree, and
+   * each node may be given as a child at most once.
+   */
+  public static class TreeBuilder<E> {
+    private LinkedBinaryTree<E> tree;   // the tree being built (null once built)
+    private int count = 0;              // number of nodes created so far
+
+    /** Constructs a builder for the given empty tree. */
+    private TreeBuilder(LinkedBinaryTree<E> target) {
+      tree = target;
+    }
+
+    /**
+     * Creates a node storing element e that is not yet linked to any other node.
+     *
+     * @param e   the new element
+     * @return the Position of the new node
+     */
+    public Position<E> node(E e) {
+      count++;
+      return tree.createNode(e, null, null, null);
+    }
+
+    /**
+     * Creates a node storing element e with the given nodes as its children.
+     *
+     * @param e       the new element
+     * @param left    an unlinked node from this builder (or null)
+     * @param right   an unlinked node from this builder (or null)
+     * @return the Position of the new node
+     */
+    public Position<E> node(E e, Position<E> left, Position<E> right) {
+      Node<E> leftNode = (Node<E>) left;
+      Node<E> rightNode = (Node<E>) right;
+      Node<E> node = tree.createNode(e, null, leftNode, rightNode);
+      if (leftNode != null) leftNode.setParent(node);
+      if (rightNode != null) rightNode.setParent(node);
+      count++;
+      return node;
+    }
+
+    /**
+     * Links child as the left child of parent.
+     *
+     * @param parent  a node from this builder
+     * @param child   an unlinked node from this builder
+     */
+    public void setLeft(Position<E> parent, Position<E> child) {
+      Node<E> parentNode = (Node<E>) parent;
+      Node<E> childNode = (Node<E>) child;
+      parentNode.setLeft(childNode);
+      childNode.setParent(parentNode);
+    }
+
+    /**
+     * Links child as the right child of parent.
+     *
+     * @param parent  a node from this builder
+     * @param child   an unlinked node from this builder
+     */
+    public void setRight(Position<E> parent, Position<E> child) {
+      Node<E> parentNode = (Node<E>) parent;
+      Node<E> childNode = (Node<E>) child;
+      parentNode.setRight(childNode);
+      childNode.setParent(parentNode);
+    }
+
+    /**
+     * Installs the given node as the root of the tree and returns the tree.
+     * The builder cannot be used afterwards.
+     *
+     * @param root  the node from this builder at the top of the structure
+     * @return the finished tree
+     * @throws IllegalStateException if the builder has already been used
+     */
+    public LinkedBinaryTree<E> build(Position<E> root) throws IllegalStateException {
+      if (tree == null) throw new IllegalStateException("Tree has already been built");
+      LinkedBinaryTree<E> result = tree;
+      result.root = (Node<E>) root;
+      result.size = count;
+      tree = null;
+      result.built();
+      return result;
+    }
+  } //----------- end of nested TreeBuilder class -----------
+
+  /** Factory function to create a new empty tree of the same kind as this one. */
+  protected LinkedBinaryTree<E> createTree() {
+    return new LinkedBinaryTree<E>();
+  }
+
+  /** Hook invoked once a TreeBuilder has installed a new structure in this tree. */
+  protected void built() { }
+
+  /** Marks the size as unknown, for subclasses which link nodes themselves. */
+  protected void sizeChanged() { size = -1; }
+
   // LinkedBinaryTree instance variables
   /** The root of the binary tree */
   protected Node<E> root = null;     // root of the tree
 
-  /** The number of nodes in the binary tree */
+  /** The number of nodes in the binary tree (negative if not yet counted) */
   private int size = 0;              // number of nodes in the tree
 
+  /** Incremented whenever a subtree is detached, so stale positions are rechecked */
+  private int epoch = 0;
+
   // constructor
   /** Construts an empty binary tree. */
   public LinkedBinaryTree() { }      // constructs an empty binary tree
@@ -91,6 +202,11 @@ public class LinkedBinaryTree<E> extends AbstractBinaryTree<E> {
    * implementation does not actually verify that the position belongs
    * to this particular list instance.
    *
+   * A position last checked before a subtree was detached is checked again
+   * by walking up towards the root, stopping early at any ancestor already
+   * checked in the current epoch. Every node on the path walked is then
+   * marked as checked, so each node pays this cost at most once per detach.
+   *
    * @param p   a Position (that should belong to this tree)
    * @return    the underlying Node instance for the position
    * @throws IllegalArgumentException if an invalid position is detected
@@ -101,9 +217,45 @@ public class LinkedBinaryTree<E> extends AbstractBinaryTree<E> {
     Node<E> node = (Node<E>) p;       // safe cast
     if (node.getParent() == node)     // our convention for defunct node
       throw new IllegalArgumentException("p is no longer in the tree");
+    if (node.getEpoch() != epoch) {   // a subtree has been detached since p was checked
+      Node<E> walk = node;
+      while (walk.getEpoch() != epoch) {
+        Node<E> above = walk.getParent();
+        if (above == null) {
+          if (walk != root)
+            throw new IllegalArgumentException("p is no longer in the tree");
+          break;
+        }
+        if (above == walk)
+          throw new IllegalArgumentException("p is no longer in the tree");
+        walk = above;
+      }
+      for (Node<E> mark = node; mark != walk; mark = mark.getParent())
+        mark.setEpoch(epoch);         // the whole path is attached, not just p
+      walk.setEpoch(epoch);
+    }
     return node;
   }
 
+  /** Counts the nodes of the subtree rooted at the given node, without recursion. */
+  private static <E> int countNodes(Node<E> top) {
+    if (top == null) return 0;
+    int count = 0;
+    @SuppressWarnings("unchecked")
+    Node<E>[] stack = (Node<E>[]) new Node<?>[16];
+    int depth = 0;
+    stack[depth++] = top;
+    while (depth > 0) {
+      Node<E> node = stack[--depth];
+      count++;
+      if (depth + 2 > stack.length)
+        stack = Arrays.copyOf(stack, 2 * stack.length);
+      if (node.getLeft() != null) stack[depth++] = node.getLeft();
+      if (node.getRight() != null) stack[depth++] = node.getRight();
+    }
+    return count;
+  }
+
   // accessor methods (not already implemented in AbstractBinaryTree)
   /**
    * Returns the number of nodes in the tree.
@@ -111,9 +263,29 @@ public class LinkedBinaryTree<E> extends AbstractBinaryTree<E> {
    */
   @Override
   public int size() {
+    if (size < 0)                      // counted lazily after a subtree was detached
+      size = countNodes(root);
     return size;
   }
 
+  /**
+   * Returns the number of nodes in the tree if it is known without counting
+   * them, as it is unless a subtree has been detached since it was last asked.
+   * @return number of nodes in the tree, or -1 if they would have to be counted
+   */
+  public int knownSize() {
+    return size < 0 ? -1 : size;
+  }
+
+  /**
+   * Tests whether the tree is empty.
+   * @return true if the tree is empty, false otherwise
+   */
+  @Override
+  public boolean isEmpty() {
+    return root == null;
+  }
+
   /**
    * Returns the root Position of the tree (or null if tree is empty).
    * @return root Position of the tree (or null if tree is empty)
@@ -163,6 +335,17 @@ public class LinkedBinaryTree<E> extends AbstractBinaryTree<E> {
   }
 
   // update methods supported by this class
+  /**
+   * Returns a builder that fills this empty tree by linking nodes directly.
+   *
+   * @return a builder for this tree
+   * @throws IllegalStateException if the tree is not empty
+   */
+  public TreeBuilder<E> builder() throws IllegalStateException {
+    if (!isEmpty()) throw new IllegalStateException("Tree is not empty");
+    return new TreeBuilder<E>(this);
+  }
+
   /**
    * Places element e at the root of an empty tree and returns its new Position.
    *
@@ -193,7 +376,7 @@ public class LinkedBinaryTree<E> extends AbstractBinaryTree<E> {
       throw new IllegalArgumentException("p already has a left child");
     Node<E> child = createNode(e, parent, null, null);
     parent.setLeft(child);
-    size++;
+    if (size >= 0) size++;
     return child;
   }
 
@@ -213,7 +396,7 @@ public class LinkedBinaryTree<E> extends AbstractBinaryTree<E> {
       throw new IllegalArgumentException("p already has a right child");
     Node<E> child = createNode(e, parent, null, null);
     parent.setRight(child);
-    size++;
+    if (size >= 0) size++;
     return child;
   }
 
@@ -246,7 +429,10 @@ public class LinkedBinaryTree<E> extends AbstractBinaryTree<E> {
                     LinkedBinaryTree<E> t2) throws IllegalArgumentException {
     Node<E> node = validate(p);
     if (isInternal(p)) throw new IllegalArgumentException("p must be a leaf");
-    size += t1.size() + t2.size();
+    if (size < 0 || t1.size < 0 || t2.size < 0)
+      size = -1;                          // count lazily when next asked
+    else
+      size += t1.size + t2.size;
     if (!t1.isEmpty()) {                  // attach t1 as left subtree of node
       t1.root.setParent(node);
       node.setLeft(t1.root);
@@ -285,7 +471,7 @@ public class LinkedBinaryTree<E> extends AbstractBinaryTree<E> {
       else
         parent.setRight(child);
     }
-    size--;
+    if (size >= 0) size--;
     E temp = node.getElement();
     node.setElement(null);                // help garbage collection
     node.setLeft(null);
@@ -293,4 +479,70 @@ public class LinkedBinaryTree<E> extends AbstractBinaryTree<E> {
     node.setParent(node);                 // our convention for defunct node
     return temp;
   }
+
+  /**
+   * Detaches the entire subtree rooted at Position p and returns it as a tree
+   * of its own. This runs in constant time: the size of either tree is
+   * recounted only when it is next asked for, and positions within the
+   * detached subtree are rejected lazily by validate.
+   *
+   * @param p   the root of the subtree to detach
+   * @return a tree holding the detached subtree
+   * @throws IllegalArgumentException if p is not a valid Position for this tree.
+   */
+  public LinkedBinaryTree<E> pruneSubtree(Position<E> p) throws IllegalArgumentException {
+    Node<E> node = validate(p);
+    replaceChild(node, null);
+    LinkedBinaryTree<E> old = detached(node);
+    size = (size >= 0 && old.size >= 0 ? size - old.size : -1);
+    return old;
+  }
+
+  /**
+   * Replaces the subtree rooted at Position p with the structure of tree t,
+   * and returns the replaced subtree as a tree of its own. As a side effect,
+   * t is set to an empty tree. This runs in constant time.
+   *
+   * @param p   the root of the subtree to replace
+   * @param t   an independent tree whose structure takes the place of p
+   * @return a tree holding the replaced subtree
+   * @throws IllegalArgumentException if p is not a valid Position for this tree.
+   * @throws IllegalArgumentException if t is this tree
+   */
+  public LinkedBinaryTree<E> replaceSubtree(Position<E> p, LinkedBinaryTree<E> t)
+                          throws IllegalArgumentException {
+    Node<E> node = validate(p);
+    if (t == this) throw new IllegalArgumentException("t must be a different tree");
+    Node<E> replacement = t.root;
+    int added = t.size;
+    replaceChild(node, replacement);
+    t.root = null;
+    t.size = 0;
+    LinkedBinaryTree<E> old = detached(node);
+    size = (size >= 0 && added >= 0 && old.size >= 0 ? size + added - old.size : -1);
+    return old;
+  }
+
+  /** Puts replacement (possibly null) in the place of node, leaving node unlinked from above. */
+  private void replaceChild(Node<E> node, Node<E> replacement) {
+    Node<E> parent = node.getParent();
+    if (replacement != null)
+      replacement.setParent(parent);
+    if (parent == null)
+      root = replacement;
+    else if (node == parent.getLeft())
+      parent.setLeft(replacement);
+    else
+      parent.setRight(replacement);
+    node.setParent(null);
+  }
+
+  /** Wraps an unlinked node as a tree and retires the positions of this tree beneath it. */
+  private LinkedBinaryTree<E> detached(Node<E> node) {
+    epoch++;                              // positions under node must be rechecked
+    LinkedBinaryTree<E> subtree = createTree();
+    subtree.root = node;
+    subtree.size = (node.getLeft() == null && node.getRight() == null ? 1 : -1);
+    return subtree;
+  }
 } //----------- end of LinkedBinaryTree class -----------
@@ -0,0 +1,154 @@
+package textbook;
+
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * An unbounded FIFO queue which any number of threads may share, without
+ * locking, after Michael and Scott's non-blocking queue.
+ *
+ * The queue is a singly linked list beginning with a sentinel node. An
+ * element is enqueued by setting the next link of the last node from null
+ * with a compare-and-set, and dequeued by moving head on to the next node
+ * with a compare-and-set, that node becoming the new sentinel. tail may lag
+ * one node behind the last; any thread finding it so moves it on before
+ * going further, so no thread ever waits on another. enqueue, first and
+ * dequeue run in constant time in the absence of contention.
+ *
+ * size is not constant time: it counts the nodes, and the count may be out
+ * of date by the time it is returned if other threads are using the queue.
+ * null elements are not allowed, since dequeue returns null for an empty
+ * queue.
+ */
+public class LockFreeQueue<E> implements Queue<E> {
+
+  //---------------- nested Node class ----------------
+  private static class Node<E> {
+    private volatile E element;        // null once dequeued, and in the first sentinel
+    private volatile Node<E> next;     // null for the last node
+
+    public Node(E e) {
+      element = e;
+    }
+  } //----------- end of nested Node class -----------
+
+  @SuppressWarnings("rawtypes")
+  private static final AtomicReferenceFieldUpdater<Node, Node> NEXT =
+      AtomicReferenceFieldUpdater.newUpdater(Node.class, Node.class, "next");
+  @SuppressWarnings("rawtypes")
+  private static final AtomicReferenceFieldUpdater<LockFreeQueue, Node> HEAD =
+      AtomicReferenceFieldUpdater.newUpdater(LockFreeQueue.class, Node.class, "head");
+  @SuppressWarnings("rawtypes")
+  private static final AtomicReferenceFieldUpdater<LockFreeQueue, Node> TAIL =
+      AtomicReferenceFieldUpdater.newUpdater(LockFreeQueue.class, Node.class, "tail");
+
+  private volatile Node<E> head;       // the sentinel, before the first element
+  private volatile Node<E> tail;       // the last node, or the one before it
+
+  /** Constructs an initially empty queue. */
+  public LockFreeQueue() {
+    head = tail = new Node<E>(null);
+  }
+
+  /**
+   * Returns the number of elements in the queue, counting them.
+   * @return number of elements in the queue
+   */
+  @Override
+  public int size() {
+    int count = 0;
+    for (Node<E> node = head.next; node != null && count < Integer.MAX_VALUE; node = node.next)
+      if (node.element != null)        // skip nodes dequeued while counting
+        count++;
+    return count;
+  }
+
+  /**
+   * Tests whether the queue is empty.
+   * @return true if the queue is empty, false otherwise
+   */
+  @Override
+  public boolean isEmpty() { return first() == null; }
+
+  /**
+   * Inserts an element at the rear of the queue.
+   * @param e  the element to be inserted
+   * @throws IllegalArgumentException if e is null
+   */
+  @Override
+  public void enqueue(E e) throws IllegalArgumentException {
+    if (e == null) throw new IllegalArgumentException("Queue elements cannot be null");
+    Node<E> node = new Node<>(e);
+    while (true) {
+      Node<E> last = tail;
+      Node<E> next = last.next;
+      if (last != tail)
+        continue;                      // tail moved while we looked
+      if (next == null) {
+        if (NEXT.compareAndSet(last, null, node)) {
+          TAIL.compareAndSet(this, last, node);  // may fail if another thread helped
+          return;
+        }
+      } else
+        TAIL.compareAndSet(this, last, next);    // help the lagging tail along
+    }
+  }
+
+  /**
+   * Returns, but does not remove, the first element of the queue.
+   * @return the first element of the queue (or null if empty)
+   */
+  @Override
+  public E first() {
+    while (true) {
+      Node<E> first = head;
+      Node<E> next = first.next;
+      if (next == null)
+        return null;
+      E e = next.element;
+      if (first == head)               // else it was dequeued while we looked
+        return e;
+    }
+  }
+
+  /**
+   * Removes and returns the first element of the queue.
+   * @return element removed (or null if empty)
+   */
+  @Override
+  public E dequeue() {
+    while (true) {
+      Node<E> first = head;
+      Node<E> last = tail;
+      Node<E> next = first.next;
+      if (first != head)
+        continue;                      // head moved while we looked
+      if (next == null)
+        return null;
+      if (first == last) {
+        TAIL.compareAndSet(this, last, next);    // tail is lagging; help it first
+        continue;
+      }
+      E e = next.element;
+      if (HEAD.compareAndSet(this, first, next)) {
+        next.element = null;           // next is the sentinel now; help garbage collection
+        return e;
+      }
+    }
+  }
+
+  /** Produces a string representation of the contents of the queue.
+   *  (from front to back). This exists for debugging purposes only.
+   */
+  public String toString() {
+    StringBuilder sb = new StringBuilder("(");
+    for (Node<E> node = head.next; node != null; node = node.next) {
+      E e = node.element;
+      if (e != null) {
+        if (sb.length() > 1) sb.append(", ");
+        sb.append(e);
+      }
+    }
+    sb.append(")");
+    return sb.toString();
+  }
+}